@@ -0,0 +1,258 @@
+/**
+ * Personium
+ * Copyright 2016 FUJITSU LIMITED
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.personium.engine.extension.aws.sts;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import com.amazonaws.AmazonClientException;
+
+/**
+ * 一時認証情報を非同期に発行するスレッドプール.
+ * <br />
+ * スクリプトの実行スレッドをAWSへの問い合わせの間占有しないよう、専用のデーモンスレッドで発行する。
+ * スレッド数と待ち行列の長さには上限を設け、上限を超えた要求はAmazonClientExceptionとする。
+ * スレッドは最初の要求時に作成し、一定時間使用されなければ終了する。
+ * <br />
+ * AsyncVirtualThreads=trueが指定され、実行環境が仮想スレッドに対応している(Java 21以降)場合は、
+ * 要求ごとに仮想スレッドで発行する。AWS SDKのブロッキングI/Oの間OSスレッドを占有しないため、多数の同時要求を
+ * 少数のOSスレッドで処理できる。この場合も同時に実行する要求数には上限(AsyncMaxVirtualThreads)を設ける。
+ * 仮想スレッドに対応していない実行環境では、通常のスレッドプールを使用する。
+ */
+final class AsyncTokenExecutor {
+
+    /** スレッド数の既定値. */
+    static final int DEFAULT_THREADS = 16;
+    /** 待ち行列の長さの既定値. */
+    static final int DEFAULT_QUEUE_SIZE = 1024;
+
+    /** 仮想スレッドで同時に実行する要求数の上限の既定値. */
+    static final int DEFAULT_MAX_VIRTUAL_THREADS = 10000;
+
+    private static final long KEEP_ALIVE_SECONDS = 60;
+
+    private final ExecutorService executor;
+    /** スレッドプール. 仮想スレッドを使用する場合はnull. */
+    private final ThreadPoolExecutor pool;
+    /** 仮想スレッドで同時に実行する要求数の残り. スレッドプールを使用する場合はnull. */
+    private final Semaphore permits;
+    private final int maxConcurrency;
+
+    /**
+     * コンストラクタ.
+     * @param threads スレッド数
+     * @param queueSize 待ち行列の長さ
+     */
+    AsyncTokenExecutor(int threads, int queueSize) {
+        final AtomicInteger count = new AtomicInteger();
+        int poolSize = Math.max(1, threads);
+        this.pool = new ThreadPoolExecutor(poolSize, poolSize, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(Math.max(1, queueSize)), r -> {
+                    Thread thread = new Thread(r, "personium-awssts-async-" + count.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        this.pool.allowCoreThreadTimeOut(true);
+        this.executor = this.pool;
+        this.permits = null;
+        this.maxConcurrency = poolSize + Math.max(1, queueSize);
+    }
+
+    /**
+     * コンストラクタ. 仮想スレッドで実行する.
+     * @param virtualThreadExecutor 要求ごとに仮想スレッドを作成するExecutorService
+     * @param maxConcurrency 同時に実行する要求数の上限
+     */
+    AsyncTokenExecutor(ExecutorService virtualThreadExecutor, int maxConcurrency) {
+        this.executor = virtualThreadExecutor;
+        this.pool = null;
+        this.maxConcurrency = Math.max(1, maxConcurrency);
+        this.permits = new Semaphore(this.maxConcurrency);
+    }
+
+    /**
+     * インスタンスを作成する.
+     * @param useVirtualThreads 仮想スレッドを使用する場合true. 実行環境が対応していない場合は無視する
+     * @param threads スレッド数(スレッドプールを使用する場合)
+     * @param queueSize 待ち行列の長さ(スレッドプールを使用する場合)
+     * @param maxVirtualThreads 同時に実行する要求数の上限(仮想スレッドを使用する場合)
+     * @return インスタンス
+     */
+    static AsyncTokenExecutor create(boolean useVirtualThreads, int threads, int queueSize, int maxVirtualThreads) {
+        if (useVirtualThreads) {
+            ExecutorService virtualThreadExecutor = newVirtualThreadExecutor();
+            if (virtualThreadExecutor != null) {
+                return new AsyncTokenExecutor(virtualThreadExecutor, maxVirtualThreads);
+            }
+        }
+        return new AsyncTokenExecutor(threads, queueSize);
+    }
+
+    /**
+     * 要求ごとに仮想スレッドを作成するExecutorServiceを作成する.
+     * <br />
+     * Java 17でもビルドできるよう、Executors.newVirtualThreadPerTaskExecutor はリフレクションで呼び出す。
+     * @return ExecutorService. 実行環境が仮想スレッドに対応していない場合はnull
+     */
+    static ExecutorService newVirtualThreadExecutor() {
+        try {
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            // Java 20以前(プレビュー機能が無効な場合を含む)
+            return null;
+        }
+    }
+
+    /**
+     * @return プロセスで共有するインスタンス
+     */
+    static AsyncTokenExecutor getInstance() {
+        return Holder.INSTANCE;
+    }
+
+    /**
+     * 処理を非同期に実行する.
+     * @param <T> 結果の型
+     * @param task 処理
+     * @return 処理の結果
+     * @throws AmazonClientException 実行中および待ち合わせ中の要求数が上限に達している場合
+     */
+    <T> CompletableFuture<T> submit(Supplier<T> task) {
+        try {
+            return CompletableFuture.supplyAsync(task, this::execute);
+        } catch (RejectedExecutionException e) {
+            throw new AmazonClientException("Too many asynchronous token requests.", e);
+        }
+    }
+
+    /**
+     * 複数の処理を並列数を制限して非同期に実行する.
+     * <br />
+     * 並列数と同じ数のワーカーが未実行の処理を順に取り出して実行する。スレッドプールの上限によりワーカーを開始できない場合は、
+     * 呼び出し元のスレッドでワーカーを実行する(残りの処理を全て実行してから戻る)。
+     * @param <T> 結果の型
+     * @param tasks 処理
+     * @param parallelism 並列数の上限
+     * @return 処理ごとの結果(処理と同じ順序)
+     */
+    <T> List<CompletableFuture<T>> submitAll(final List<Supplier<T>> tasks, int parallelism) {
+        final List<CompletableFuture<T>> results = new ArrayList<>(tasks.size());
+        for (int i = 0; i < tasks.size(); i++) {
+            results.add(new CompletableFuture<>());
+        }
+        final AtomicInteger next = new AtomicInteger();
+        Runnable worker = () -> {
+            while (true) {
+                int index = next.getAndIncrement();
+                if (index >= tasks.size()) {
+                    return;
+                }
+                try {
+                    results.get(index).complete(tasks.get(index).get());
+                } catch (RuntimeException e) {
+                    results.get(index).completeExceptionally(e);
+                }
+            }
+        };
+        int workers = Math.min(Math.max(1, parallelism), tasks.size());
+        for (int i = 0; i < workers; i++) {
+            try {
+                execute(worker);
+            } catch (RejectedExecutionException e) {
+                worker.run();
+            }
+        }
+        return results;
+    }
+
+    /**
+     * @return 実行中および待ち合わせ中の要求数
+     */
+    int pending() {
+        if (permits != null) {
+            return maxConcurrency - permits.availablePermits();
+        }
+        return pool.getActiveCount() + pool.getQueue().size();
+    }
+
+    /**
+     * @return 同時に受け付ける要求数の上限(スレッドプールの場合はスレッド数と待ち行列の長さの合計)
+     */
+    int maxConcurrency() {
+        return maxConcurrency;
+    }
+
+    /**
+     * @return 仮想スレッドで実行する場合true
+     */
+    boolean usesVirtualThreads() {
+        return permits != null;
+    }
+
+    private void execute(final Runnable task) {
+        if (permits == null) {
+            executor.execute(task);
+            return;
+        }
+        if (!permits.tryAcquire()) {
+            throw new RejectedExecutionException("Too many concurrent requests: " + maxConcurrency);
+        }
+        try {
+            executor.execute(() -> {
+                try {
+                    task.run();
+                } finally {
+                    permits.release();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    /**
+     * スレッドプールを終了する.
+     */
+    void shutdown() {
+        executor.shutdownNow();
+    }
+
+    private static final class Holder {
+        private static final AsyncTokenExecutor INSTANCE = create(StsProperties.load());
+
+        private static AsyncTokenExecutor create(Properties properties) {
+            return AsyncTokenExecutor.create(StsProperties.getBoolean(properties, "AsyncVirtualThreads", false),
+                    StsProperties.getInt(properties, "AsyncThreads", DEFAULT_THREADS),
+                    StsProperties.getInt(properties, "AsyncQueueSize", DEFAULT_QUEUE_SIZE),
+                    StsProperties.getInt(properties, "AsyncMaxVirtualThreads", DEFAULT_MAX_VIRTUAL_THREADS));
+        }
+    }
+}
@@ -0,0 +1,141 @@
+/**
+ * Personium
+ * Copyright 2016 FUJITSU LIMITED
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.personium.engine.extension.aws.sts;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Function;
+
+import org.mozilla.javascript.BaseFunction;
+import org.mozilla.javascript.Context;
+import org.mozilla.javascript.NativeObject;
+import org.mozilla.javascript.ScriptRuntime;
+import org.mozilla.javascript.Scriptable;
+import org.mozilla.javascript.ScriptableObject;
+import org.mozilla.javascript.Undefined;
+
+import com.amazonaws.AmazonClientException;
+
+/**
+ * 非同期に発行中の一時認証情報をスクリプトから待ち合わせるためのオブジェクト.
+ * <br />
+ * join([timeoutMillis])、isDone()、cancel() の関数を持つ。join は発行の完了を待ち合わせ、同期版の関数と同じ形式の
+ * レスポンスを返す。レスポンスは join を呼び出したスクリプトのスレッドで作成する。
+ * 発行時のエラーは join の呼び出し時に同期版の関数と同じエラーとなる。
+ */
+@SuppressWarnings("serial")
+final class AsyncTokenRequest extends NativeObject {
+
+    private final transient CompletableFuture<CachedToken> future;
+    private final transient Function<CachedToken, NativeObject> responder;
+    private final transient Function<RuntimeException, RuntimeException> errorMapper;
+
+    /**
+     * コンストラクタ.
+     * @param scope スコープ
+     * @param future 発行処理の結果
+     * @param responder 一時認証情報からレスポンスを作成する処理
+     * @param errorMapper 発行時のエラーをスクリプトのエラーに変換する処理
+     */
+    AsyncTokenRequest(Scriptable scope, CompletableFuture<CachedToken> future,
+            Function<CachedToken, NativeObject> responder, Function<RuntimeException, RuntimeException> errorMapper) {
+        ScriptRuntime.setObjectProtoAndParent(this, scope);
+        this.future = future;
+        this.responder = responder;
+        this.errorMapper = errorMapper;
+        defineFunction(scope, "join", args -> join(timeoutOf(args)));
+        defineFunction(scope, "isDone", args -> isDone());
+        defineFunction(scope, "cancel", args -> cancel());
+    }
+
+    @Override
+    public String getClassName() {
+        return "AsyncTokenRequest";
+    }
+
+    /**
+     * 発行の完了を待ち合わせ、レスポンスを返す.
+     * @param timeoutMillis 待ち合わせる時間(ミリ秒). 0以下の場合は無期限
+     * @return レスポンス
+     */
+    NativeObject join(long timeoutMillis) {
+        CachedToken token;
+        try {
+            if (timeoutMillis > 0) {
+                token = future.get(timeoutMillis, TimeUnit.MILLISECONDS);
+            } else {
+                token = future.get();
+            }
+        } catch (TimeoutException e) {
+            throw errorMapper.apply(new AmazonClientException("Timed out waiting for the asynchronous token request.",
+                    e));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw errorMapper.apply(new AmazonClientException("Interrupted while waiting for the token request.", e));
+        } catch (CancellationException e) {
+            throw errorMapper.apply(new AmazonClientException("The asynchronous token request was cancelled.", e));
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw errorMapper.apply((RuntimeException) cause);
+            }
+            throw errorMapper.apply(new AmazonClientException(String.valueOf(cause), cause));
+        }
+        return responder.apply(token);
+    }
+
+    /**
+     * @return 発行が完了(成功、失敗、取消)している場合true
+     */
+    boolean isDone() {
+        return future.isDone();
+    }
+
+    /**
+     * 待ち合わせを取り消す. 発行中の問い合わせは中断せず、結果は他の同一リクエストおよびキャッシュに使用される.
+     * @return 取り消した場合true
+     */
+    boolean cancel() {
+        return future.cancel(false);
+    }
+
+    private void defineFunction(Scriptable scope, final String name, final Function<Object[], Object> body) {
+        BaseFunction function = new BaseFunction() {
+            @Override
+            public Object call(Context cx, Scriptable callScope, Scriptable thisObj, Object[] args) {
+                return body.apply(args);
+            }
+
+            @Override
+            public String getFunctionName() {
+                return name;
+            }
+        };
+        ScriptRuntime.setFunctionProtoAndParent(function, scope);
+        defineProperty(name, function, ScriptableObject.DONTENUM | ScriptableObject.READONLY);
+    }
+
+    private static long timeoutOf(Object[] args) {
+        if (args.length == 0 || args[0] == null || args[0] instanceof Undefined) {
+            return 0;
+        }
+        return (long) ScriptRuntime.toNumber(args[0]);
+    }
+}
@@ -0,0 +1,129 @@
+/**
+ * Personium
+ * Copyright 2016 FUJITSU LIMITED
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.personium.engine.extension.aws.sts;
+
+import com.amazonaws.services.securitytoken.model.Credentials;
+import com.amazonaws.services.securitytoken.model.FederatedUser;
+import com.amazonaws.services.securitytoken.model.GetFederationTokenResult;
+import com.amazonaws.services.securitytoken.model.GetSessionTokenResult;
+
+/**
+ * キャッシュされた一時認証情報.
+ * <br />
+ * GetFederationTokenの結果の場合はFederatedUser、PackedPolicySizeも保持し、キャッシュヒット時も同じ内容を返す。
+ * 保持するCredentials、FederatedUserは共有されるため、参照のみ行い変更しないこと。
+ */
+final class CachedToken {
+
+    private final Credentials credentials;
+    private final FederatedUser federatedUser;
+    private final Integer packedPolicySize;
+    private final long issuedAt;
+
+    /**
+     * コンストラクタ.
+     * @param credentials 一時認証情報
+     * @param issuedAt 発行日時(ミリ秒)
+     */
+    CachedToken(Credentials credentials, long issuedAt) {
+        this(credentials, null, null, issuedAt);
+    }
+
+    /**
+     * コンストラクタ.
+     * @param credentials 一時認証情報
+     * @param federatedUser 連携ユーザ. GetSessionTokenの場合はnull
+     * @param packedPolicySize ポリシーのサイズ(上限に対する割合). GetSessionTokenの場合はnull
+     * @param issuedAt 発行日時(ミリ秒)
+     */
+    CachedToken(Credentials credentials, FederatedUser federatedUser, Integer packedPolicySize, long issuedAt) {
+        this.credentials = credentials;
+        this.federatedUser = federatedUser;
+        this.packedPolicySize = packedPolicySize;
+        this.issuedAt = issuedAt;
+    }
+
+    /**
+     * GetSessionTokenの結果からキャッシュエントリを作成する.
+     * @param res GetSessionTokenの結果
+     * @param issuedAt 発行日時(ミリ秒)
+     * @return キャッシュエントリ
+     */
+    static CachedToken of(GetSessionTokenResult res, long issuedAt) {
+        return new CachedToken(res.getCredentials(), issuedAt);
+    }
+
+    /**
+     * GetFederationTokenの結果からキャッシュエントリを作成する.
+     * @param res GetFederationTokenの結果
+     * @param issuedAt 発行日時(ミリ秒)
+     * @return キャッシュエントリ
+     */
+    static CachedToken of(GetFederationTokenResult res, long issuedAt) {
+        return new CachedToken(res.getCredentials(), res.getFederatedUser(), res.getPackedPolicySize(), issuedAt);
+    }
+
+    /**
+     * @return 一時認証情報
+     */
+    Credentials getCredentials() {
+        return credentials;
+    }
+
+    /**
+     * @return 連携ユーザ. GetSessionTokenの場合はnull
+     */
+    FederatedUser getFederatedUser() {
+        return federatedUser;
+    }
+
+    /**
+     * @return ポリシーのサイズ(上限に対する割合). GetSessionTokenの場合はnull
+     */
+    Integer getPackedPolicySize() {
+        return packedPolicySize;
+    }
+
+    /**
+     * @return 発行日時(ミリ秒)
+     */
+    long getIssuedAt() {
+        return issuedAt;
+    }
+
+    /**
+     * @return 有効期限(ミリ秒)
+     */
+    long getExpiration() {
+        return credentials.getExpiration().getTime();
+    }
+
+    /**
+     * @return GetSessionTokenの結果
+     */
+    GetSessionTokenResult toSessionTokenResult() {
+        return new GetSessionTokenResult().withCredentials(credentials);
+    }
+
+    /**
+     * @return GetFederationTokenの結果
+     */
+    GetFederationTokenResult toFederationTokenResult() {
+        return new GetFederationTokenResult().withCredentials(credentials).withFederatedUser(federatedUser)
+                .withPackedPolicySize(packedPolicySize);
+    }
+}
@@ -0,0 +1,150 @@
+/**
+ * Personium
+ * Copyright 2016 FUJITSU LIMITED
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.personium.engine.extension.aws.sts;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Date;
+
+import com.amazonaws.services.securitytoken.model.Credentials;
+import com.amazonaws.services.securitytoken.model.FederatedUser;
+
+/**
+ * CachedTokenのバイナリ形式への変換.
+ * <br />
+ * 形式: バージョン(1byte)、フラグ(1byte)、発行日時(long)、有効期限(long)、
+ * AccessKeyId、SecretAccessKey、SessionToken、[FederatedUserId、Arn]、[PackedPolicySize(int)]。
+ * 文字列は長さ(int, nullの場合は-1)とUTF-8のバイト列で表す。
+ */
+final class CachedTokenCodec {
+
+    /** 形式のバージョン. */
+    static final byte VERSION = 1;
+
+    private static final int FLAG_FEDERATED_USER = 0x01;
+    private static final int FLAG_PACKED_POLICY_SIZE = 0x02;
+    private static final int NULL_LENGTH = -1;
+    private static final int HEADER_BYTES = 2 + Long.BYTES * 2;
+    private static final int CREDENTIAL_STRINGS = 3;
+    private static final int MAX_STRINGS = 5;
+
+    private CachedTokenCodec() {
+    }
+
+    /**
+     * 認証情報をバイト列に変換する.
+     * @param token 認証情報
+     * @return バイト列
+     */
+    static byte[] encode(CachedToken token) {
+        Credentials credentials = token.getCredentials();
+        FederatedUser user = token.getFederatedUser();
+        Integer packedPolicySize = token.getPackedPolicySize();
+        byte[][] strings = new byte[MAX_STRINGS][];
+        strings[0] = bytes(credentials.getAccessKeyId());
+        strings[1] = bytes(credentials.getSecretAccessKey());
+        strings[2] = bytes(credentials.getSessionToken());
+        int count = CREDENTIAL_STRINGS;
+        int flags = 0;
+        if (user != null) {
+            flags |= FLAG_FEDERATED_USER;
+            strings[count++] = bytes(user.getFederatedUserId());
+            strings[count++] = bytes(user.getArn());
+        }
+        int size = HEADER_BYTES;
+        for (int i = 0; i < count; i++) {
+            size += Integer.BYTES;
+            if (strings[i] != null) {
+                size += strings[i].length;
+            }
+        }
+        if (packedPolicySize != null) {
+            flags |= FLAG_PACKED_POLICY_SIZE;
+            size += Integer.BYTES;
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        buffer.put(VERSION);
+        buffer.put((byte) flags);
+        buffer.putLong(token.getIssuedAt());
+        buffer.putLong(token.getExpiration());
+        for (int i = 0; i < count; i++) {
+            if (strings[i] == null) {
+                buffer.putInt(NULL_LENGTH);
+            } else {
+                buffer.putInt(strings[i].length);
+                buffer.put(strings[i]);
+            }
+        }
+        if (packedPolicySize != null) {
+            buffer.putInt(packedPolicySize);
+        }
+        return buffer.array();
+    }
+
+    /**
+     * バイト列から認証情報を復元する. 引数のバッファの位置は変更しない.
+     * @param buffer バイト列
+     * @return 認証情報
+     * @throws IllegalArgumentException 形式が不正な場合
+     */
+    static CachedToken decode(ByteBuffer buffer) {
+        ByteBuffer in = buffer.duplicate();
+        try {
+            byte version = in.get();
+            if (version != VERSION) {
+                throw new IllegalArgumentException("Unsupported cached token format: " + version);
+            }
+            int flags = in.get();
+            long issuedAt = in.getLong();
+            long expiration = in.getLong();
+            Credentials credentials = new Credentials(string(in), string(in), string(in), new Date(expiration));
+            FederatedUser user = null;
+            if ((flags & FLAG_FEDERATED_USER) != 0) {
+                user = new FederatedUser(string(in), string(in));
+            }
+            Integer packedPolicySize = null;
+            if ((flags & FLAG_PACKED_POLICY_SIZE) != 0) {
+                packedPolicySize = in.getInt();
+            }
+            return new CachedToken(credentials, user, packedPolicySize, issuedAt);
+        } catch (BufferUnderflowException e) {
+            throw new IllegalArgumentException("Truncated cached token.", e);
+        }
+    }
+
+    private static byte[] bytes(String value) {
+        if (value == null) {
+            return null;
+        }
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static String string(ByteBuffer in) {
+        int length = in.getInt();
+        if (length == NULL_LENGTH) {
+            return null;
+        }
+        if (length < 0 || length > in.remaining()) {
+            throw new IllegalArgumentException("Invalid string length in cached token: " + length);
+        }
+        byte[] value = new byte[length];
+        in.get(value);
+        return new String(value, StandardCharsets.UTF_8);
+    }
+}
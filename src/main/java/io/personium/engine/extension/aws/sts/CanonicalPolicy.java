@@ -0,0 +1,139 @@
+/**
+ * Personium
+ * Copyright 2016 FUJITSU LIMITED
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.personium.engine.extension.aws.sts;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.mozilla.javascript.Scriptable;
+
+/**
+ * 正規化したポリシー.
+ * <br />
+ * キーを昇順に並べ空白を除いたJSON文字列と、そのSHA-256ハッシュ値(16進数表記)を保持する。
+ * 同じ内容のポリシーはインターンテーブルで同じインスタンスを共有し、ハッシュ値の計算は初回のみ行う。
+ * 共有するのは正規化の結果のみで、スクリプトのオブジェクトの走査とシリアライズは呼び出しごとに行う。
+ * インターンテーブルは上限数に達すると最も長く参照されていないポリシーから破棄する(LRU)。
+ * ハッシュ値はキャッシュおよび同一リクエストの待ち合わせのキーに使用する。
+ */
+final class CanonicalPolicy {
+
+    /** インターンテーブルに保持するポリシー数の上限. */
+    static final int MAX_ENTRIES = 1024;
+
+    private static final float LOAD_FACTOR = 0.75f;
+
+    /** インターンテーブル. 参照順に並べ、上限を超えた場合は最も古いものを破棄する. アクセス時はテーブルで同期する. */
+    private static final Map<String, CanonicalPolicy> INTERNED = new LinkedHashMap<String, CanonicalPolicy>(
+            MAX_ENTRIES, LOAD_FACTOR, true) {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, CanonicalPolicy> eldest) {
+            return size() > MAX_ENTRIES;
+        }
+    };
+
+    private final String json;
+    private final String hash;
+
+    /**
+     * インターンテーブルを使用せずに作成する.
+     * <br />
+     * テンプレートにパラメータを埋め込んだポリシーなど、内容ごとの再利用が見込めないものに使用する。
+     * @param json 正規形のJSON文字列
+     */
+    CanonicalPolicy(String json) {
+        this.json = json;
+        this.hash = StsClientKey.hash(json);
+    }
+
+    /**
+     * ポリシーを正規化し、インターンテーブルのインスタンスを返す.
+     * <br />
+     * スクリプトのオブジェクトは変更可能なため、オブジェクトの同一性では照合せず、走査とシリアライズは毎回行う。
+     * 同じ内容であればハッシュ値の計算を省略し、同じインスタンスを返す。
+     * @param policy ポリシー
+     * @return 正規化したポリシー
+     * @throws IllegalArgumentException 入れ子が深すぎる(循環参照を含む)場合
+     */
+    static CanonicalPolicy of(Scriptable policy) {
+        return of(policy, false);
+    }
+
+    /**
+     * ポリシーを正規化し、インターンテーブルのインスタンスを返す.
+     * @param policy ポリシー
+     * @param minify 要素数1の配列を縮小する場合true
+     * @return 正規化したポリシー
+     * @throws IllegalArgumentException 入れ子が深すぎる(循環参照を含む)場合
+     */
+    static CanonicalPolicy of(Scriptable policy, boolean minify) {
+        return intern(PolicyWriter.write(policy, true, minify));
+    }
+
+    /**
+     * 正規形のJSON文字列に対応するインスタンスを返す.
+     * @param json 正規形のJSON文字列
+     * @return 正規化したポリシー
+     */
+    static CanonicalPolicy intern(String json) {
+        synchronized (INTERNED) {
+            CanonicalPolicy interned = INTERNED.get(json);
+            if (interned != null) {
+                return interned;
+            }
+        }
+        // ハッシュ値の計算はロックの外で行う
+        CanonicalPolicy created = new CanonicalPolicy(json);
+        synchronized (INTERNED) {
+            CanonicalPolicy interned = INTERNED.putIfAbsent(json, created);
+            if (interned != null) {
+                return interned;
+            }
+        }
+        return created;
+    }
+
+    /**
+     * @return インターンテーブルに保持しているポリシー数
+     */
+    static int size() {
+        synchronized (INTERNED) {
+            return INTERNED.size();
+        }
+    }
+
+    /**
+     * @return 正規形のJSON文字列
+     */
+    String getJson() {
+        return json;
+    }
+
+    /**
+     * @return JSON文字列のSHA-256ハッシュ値(16進数表記)
+     */
+    String getHash() {
+        return hash;
+    }
+
+    @Override
+    public String toString() {
+        return json;
+    }
+}
@@ -16,22 +16,31 @@
  */
 package io.personium.engine.extension.aws.sts;
 
-import java.util.Map.Entry;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
 
-import org.json.simple.JSONObject;
 import org.mozilla.javascript.Context;
+import org.mozilla.javascript.NativeArray;
 import org.mozilla.javascript.NativeObject;
+import org.mozilla.javascript.RhinoException;
+import org.mozilla.javascript.ScriptRuntime;
+import org.mozilla.javascript.Scriptable;
+import org.mozilla.javascript.ScriptableObject;
+import org.mozilla.javascript.TopLevel;
+import org.mozilla.javascript.Undefined;
 import org.mozilla.javascript.annotations.JSConstructor;
 import org.mozilla.javascript.annotations.JSFunction;
 import org.mozilla.javascript.annotations.JSGetter;
-import org.mozilla.javascript.json.JsonParser;
-import org.mozilla.javascript.json.JsonParser.ParseException;
 
 import com.amazonaws.AmazonClientException;
 import com.amazonaws.AmazonServiceException;
 import com.amazonaws.ClientConfiguration;
-import com.amazonaws.auth.BasicAWSCredentials;
-import com.amazonaws.services.securitytoken.AWSSecurityTokenServiceClient;
 import com.amazonaws.services.securitytoken.model.Credentials;
 import com.amazonaws.services.securitytoken.model.FederatedUser;
 import com.amazonaws.services.securitytoken.model.GetFederationTokenRequest;
@@ -47,13 +56,56 @@ import io.personium.engine.extension.support.ExtensionErrorConstructor;
 @SuppressWarnings("serial")
 public class Ext_AWSSecurityTokenService extends AbstractExtensionScriptableObject {
 
+    /** キャッシュを利用する際に必要な残り有効期間(秒)の既定値. */
+    static final int DEFAULT_TOKEN_CACHE_MARGIN_SECONDS = 300;
+    /** 一括発行の並列数の既定値. */
+    static final int DEFAULT_BATCH_CONCURRENCY = 8;
+
+    /** 実行中のリクエスト. 同一リクエストの同時実行をまとめる. */
+    private static final RequestCoalescer<CachedToken> IN_FLIGHT = new RequestCoalescer<>();
+
+    static {
+        // Ext_AWSSecurityTokenService.propertiesでWarmUp=trueが指定された場合、初回呼び出しの準備を事前に行う
+        Properties defaults = StsProperties.load();
+        if (StsProperties.getBoolean(defaults, "WarmUp", false)) {
+            StsWarmUp.startAsync(defaults);
+        }
+    }
+
+    /**
+     * Extensionが保持するSTSクライアントとバックグラウンド処理を破棄する.
+     * <br />
+     * Extensionのアンロード時にEngineから呼び出す。スクリプトからは呼び出せない。
+     * キャッシュの再発行スレッド、永続化ファイル、共有ストアへの接続もここで解放する(JVMの終了フックは使用しない)。
+     * 以降の呼び出しでは新たにクライアントが生成され、キャッシュはプロセス内のメモリのみで動作する。
+     */
+    public static void shutdown() {
+        StsClientRegistry.getInstance().shutdown();
+        TokenCacheBackends.shutdown();
+    }
+
     private String accessKeyId;
     private String secretAccessKey;
     private String region;
+    private String endpoint;
     private String proxyHost;
     private int proxyPort;
     private String proxyUser;
     private String proxyPassword;
+    private int maxConnections = ClientConfiguration.DEFAULT_MAX_CONNECTIONS;
+    private int connectionTTL = (int) ClientConfiguration.DEFAULT_CONNECTION_TTL;
+    private boolean useReaper = ClientConfiguration.DEFAULT_USE_REAPER;
+    private int socketTimeout = ClientConfiguration.DEFAULT_SOCKET_TIMEOUT;
+    private int connectionTimeout = ClientConfiguration.DEFAULT_CONNECTION_TIMEOUT;
+    private boolean tcpKeepAlive = ClientConfiguration.DEFAULT_TCP_KEEP_ALIVE;
+    private int socketSendBufferSize;
+    private int socketReceiveBufferSize;
+    private boolean useTokenCache;
+    private int tokenCacheMarginSeconds = DEFAULT_TOKEN_CACHE_MARGIN_SECONDS;
+    private boolean lazyResponse;
+    private boolean preflightValidation;
+    private boolean minifyPolicy;
+    private int batchConcurrency = DEFAULT_BATCH_CONCURRENCY;
 
     /**
      * @return AWS認証情報(secret)
@@ -95,13 +147,31 @@ public class Ext_AWSSecurityTokenService extends AbstractExtensionScriptableObje
 
     /**
      * AWS Security Token Serviceを利用するリージョン名を設定する. <br />
-     * ただし本機能(AWS STSを利用)では 2014/11/10現在、どの指定を行っても GovCloudに向く。
+     * 列挙名(AP_NORTHEAST_1)またはリージョン名(ap-northeast-1)を指定すると、そのリージョンのエンドポイントを利用する。
+     * 未指定、DEFAULT_REGION、不明なリージョンの場合はグローバルエンドポイント(sts.amazonaws.com)を利用する。
      * @param val AWS Security Token Serviceを利用するリージョン名
      */
     public void jsSet_Region(String val) {
         this.region = val;
     }
 
+    /**
+     * @return AWS Security Token ServiceのエンドポイントURL
+     */
+    @JSGetter
+    public String Endpoint() {
+        return endpoint;
+    }
+
+    /**
+     * AWS Security Token ServiceのエンドポイントURLを明示的に設定する. <br />
+     * VPCエンドポイントや検証用のスタブを利用する場合に指定する。指定した場合はRegionよりも優先される。
+     * @param val AWS Security Token ServiceのエンドポイントURL
+     */
+    public void jsSet_Endpoint(String val) {
+        this.endpoint = val;
+    }
+
     /**
      * @return proxyサーバのアドレス/IP
      */
@@ -164,6 +234,237 @@ public class Ext_AWSSecurityTokenService extends AbstractExtensionScriptableObje
         this.proxyPassword = val;
     }
 
+    /**
+     * @return 最大コネクション数
+     */
+    @JSGetter
+    public int MaxConnections() {
+        return maxConnections;
+    }
+
+    /**
+     * STSクライアントのコネクションプールの最大コネクション数を設定する.
+     * @param val 最大コネクション数
+     */
+    public void jsSet_MaxConnections(int val) {
+        this.maxConnections = val;
+    }
+
+    /**
+     * @return コネクションの有効期間（ミリ秒）
+     */
+    @JSGetter
+    public int ConnectionTTL() {
+        return connectionTTL;
+    }
+
+    /**
+     * プールされたコネクションの有効期間（ミリ秒）を設定する. 負の値の場合は無期限.
+     * @param val コネクションの有効期間（ミリ秒）
+     */
+    public void jsSet_ConnectionTTL(int val) {
+        this.connectionTTL = val;
+    }
+
+    /**
+     * @return アイドルコネクションを回収する場合true
+     */
+    @JSGetter
+    public boolean UseReaper() {
+        return useReaper;
+    }
+
+    /**
+     * アイドル状態のコネクションをバックグラウンドで回収するかどうかを設定する.
+     * @param val アイドルコネクションを回収する場合true
+     */
+    public void jsSet_UseReaper(boolean val) {
+        this.useReaper = val;
+    }
+
+    /**
+     * @return ソケットタイムアウト（ミリ秒）
+     */
+    @JSGetter
+    public int SocketTimeout() {
+        return socketTimeout;
+    }
+
+    /**
+     * @param val ソケットタイムアウト（ミリ秒）
+     */
+    public void jsSet_SocketTimeout(int val) {
+        this.socketTimeout = val;
+    }
+
+    /**
+     * @return 接続タイムアウト（ミリ秒）
+     */
+    @JSGetter
+    public int ConnectionTimeout() {
+        return connectionTimeout;
+    }
+
+    /**
+     * @param val 接続タイムアウト（ミリ秒）
+     */
+    public void jsSet_ConnectionTimeout(int val) {
+        this.connectionTimeout = val;
+    }
+
+    /**
+     * @return TCP Keep-Aliveを使用する場合true
+     */
+    @JSGetter
+    public boolean TcpKeepAlive() {
+        return tcpKeepAlive;
+    }
+
+    /**
+     * @param val TCP Keep-Aliveを使用する場合true
+     */
+    public void jsSet_TcpKeepAlive(boolean val) {
+        this.tcpKeepAlive = val;
+    }
+
+    /**
+     * @return ソケット送信バッファサイズ（バイト）
+     */
+    @JSGetter
+    public int SocketSendBufferSize() {
+        return socketSendBufferSize;
+    }
+
+    /**
+     * ソケット送信バッファサイズのヒントを設定する. 0の場合はOSの既定値を使用する.
+     * @param val ソケット送信バッファサイズ（バイト）
+     */
+    public void jsSet_SocketSendBufferSize(int val) {
+        this.socketSendBufferSize = val;
+    }
+
+    /**
+     * @return ソケット受信バッファサイズ（バイト）
+     */
+    @JSGetter
+    public int SocketReceiveBufferSize() {
+        return socketReceiveBufferSize;
+    }
+
+    /**
+     * ソケット受信バッファサイズのヒントを設定する. 0の場合はOSの既定値を使用する.
+     * @param val ソケット受信バッファサイズ（バイト）
+     */
+    public void jsSet_SocketReceiveBufferSize(int val) {
+        this.socketReceiveBufferSize = val;
+    }
+
+    /**
+     * @return 発行済みトークンのキャッシュを利用する場合true
+     */
+    @JSGetter
+    public boolean UseTokenCache() {
+        return useTokenCache;
+    }
+
+    /**
+     * 発行済みトークンのキャッシュを利用するかどうかを設定する.
+     * <br />
+     * 利用する場合、残り有効期間がTokenCacheMarginSecondsを上回る間はAWSへ問い合わせずにキャッシュした認証情報を返す。
+     * Federation Tokenは連携ユーザ名、ポリシー、有効期間が同じ場合にキャッシュを利用する。
+     * @param val 発行済みトークンのキャッシュを利用する場合true
+     */
+    public void jsSet_UseTokenCache(boolean val) {
+        this.useTokenCache = val;
+    }
+
+    /**
+     * @return キャッシュを利用する際に必要な残り有効期間（秒）
+     */
+    @JSGetter
+    public int TokenCacheMarginSeconds() {
+        return tokenCacheMarginSeconds;
+    }
+
+    /**
+     * @param val キャッシュを利用する際に必要な残り有効期間（秒）
+     */
+    public void jsSet_TokenCacheMarginSeconds(int val) {
+        this.tokenCacheMarginSeconds = val;
+    }
+
+    /**
+     * @return レスポンスの値を参照時に作成する場合true
+     */
+    @JSGetter
+    public boolean LazyResponse() {
+        return lazyResponse;
+    }
+
+    /**
+     * レスポンスの値を参照時に作成するかどうかを設定する.
+     * <br />
+     * trueの場合、レスポンスの各プロパティ(Credentialsなどの入れ子のオブジェクトを含む)は初めて参照された時点で作成する。
+     * プロパティ名、値、列挙順、JSON.stringifyの結果は通常のレスポンスと同じ。
+     * @param val レスポンスの値を参照時に作成する場合true
+     */
+    public void jsSet_LazyResponse(boolean val) {
+        this.lazyResponse = val;
+    }
+
+    /**
+     * @return AWSへ問い合わせる前に入力値を検査する場合true
+     */
+    @JSGetter
+    public boolean PreflightValidation() {
+        return preflightValidation;
+    }
+
+    /**
+     * AWSへ問い合わせる前に入力値を検査するかどうかを設定する.
+     * <br />
+     * trueの場合、AWSが必ずエラーとする入力(連携ユーザ名、有効期間、ポリシーのキーワードと長さ)は
+     * AWSへ問い合わせずにエラーとし、PackedPolicySizeの概算が上限を超えるポリシーは警告をログに出力する。
+     * 検査はAWSの仕様変更に追随しない可能性があるため、既定値はfalseとする。
+     * @param val AWSへ問い合わせる前に入力値を検査する場合true
+     */
+    public void jsSet_PreflightValidation(boolean val) {
+        this.preflightValidation = val;
+    }
+
+    /**
+     * @return ポリシーを縮小して送信する場合true
+     */
+    @JSGetter
+    public boolean MinifyPolicy() {
+        return minifyPolicy;
+    }
+
+    /**
+     * ポリシーを縮小して送信するかどうかを設定する.
+     * <br />
+     * trueの場合、Statement、Action、Resourceなどの要素数1の配列を要素そのものとして送信する。
+     * @param val ポリシーを縮小して送信する場合true
+     */
+    public void jsSet_MinifyPolicy(boolean val) {
+        this.minifyPolicy = val;
+    }
+
+    /**
+     * @return 一括発行の並列数の上限
+     */
+    @JSGetter
+    public int BatchConcurrency() {
+        return batchConcurrency;
+    }
+
+    /**
+     * @param val 一括発行の並列数の上限
+     */
+    public void jsSet_BatchConcurrency(int val) {
+        this.batchConcurrency = val;
+    }
+
     @Override
     public String getClassName() {
         return "AWSSecurityTokenService";
@@ -171,9 +472,60 @@ public class Ext_AWSSecurityTokenService extends AbstractExtensionScriptableObje
 
     /**
      * コンストラクタ.
+     * <br />
+     * Ext_AWSSecurityTokenService.propertiesに記述された値を各プロパティの初期値とする。
      */
     @JSConstructor
     public Ext_AWSSecurityTokenService() {
+        Properties properties = getProperties();
+        this.region = StsProperties.getString(properties, "Region", null);
+        this.endpoint = StsProperties.getString(properties, "Endpoint", null);
+        this.proxyHost = StsProperties.getString(properties, "ProxyHost", null);
+        this.proxyPort = StsProperties.getInt(properties, "ProxyPort", this.proxyPort);
+        this.proxyUser = StsProperties.getString(properties, "ProxyUser", null);
+        this.proxyPassword = StsProperties.getString(properties, "ProxyPassword", null);
+        this.maxConnections = StsProperties.getInt(properties, "MaxConnections", this.maxConnections);
+        this.connectionTTL = StsProperties.getInt(properties, "ConnectionTTL", this.connectionTTL);
+        this.useReaper = StsProperties.getBoolean(properties, "UseReaper", this.useReaper);
+        this.socketTimeout = StsProperties.getInt(properties, "SocketTimeout", this.socketTimeout);
+        this.connectionTimeout = StsProperties.getInt(properties, "ConnectionTimeout", this.connectionTimeout);
+        this.tcpKeepAlive = StsProperties.getBoolean(properties, "TcpKeepAlive", this.tcpKeepAlive);
+        this.socketSendBufferSize = StsProperties.getInt(properties, "SocketSendBufferSize",
+                this.socketSendBufferSize);
+        this.socketReceiveBufferSize = StsProperties.getInt(properties, "SocketReceiveBufferSize",
+                this.socketReceiveBufferSize);
+        this.useTokenCache = StsProperties.getBoolean(properties, "UseTokenCache", this.useTokenCache);
+        this.tokenCacheMarginSeconds = StsProperties.getInt(properties, "TokenCacheMarginSeconds",
+                this.tokenCacheMarginSeconds);
+        this.lazyResponse = StsProperties.getBoolean(properties, "LazyResponse", this.lazyResponse);
+        this.preflightValidation = StsProperties.getBoolean(properties, "PreflightValidation",
+                this.preflightValidation);
+        this.minifyPolicy = StsProperties.getBoolean(properties, "MinifyPolicy", this.minifyPolicy);
+        this.batchConcurrency = StsProperties.getInt(properties, "BatchConcurrency", this.batchConcurrency);
+    }
+
+    /**
+     * 初回呼び出しの準備を行う.
+     * <br />
+     * AWS SDKの初期化、エンドポイントの名前解決と接続を事前に行う。
+     * AccessKeyId、SecretAccessKeyが設定されている場合は、プール済みクライアントのコネクションを確立する。
+     * STSへのリクエストは送信しないため、トークンの発行やAPI呼び出しの記録は行われない。
+     * @return エンドポイントに到達できた場合true
+     */
+    @JSFunction
+    public boolean warmUp() {
+        StsWarmUp.preload();
+        StsEndpoint stsEndpoint = StsEndpoint.resolve(Region(), Endpoint());
+        if (this.accessKeyId == null || SecretAccessKey() == null) {
+            return StsWarmUp.connect(stsEndpoint, ProxyHost(), ProxyPort());
+        }
+        try {
+            return StsClientRegistry.getInstance().execute(this.accessKeyId, SecretAccessKey(), stsEndpoint,
+                    createClientConfigration(), client -> StsWarmUp.prime(client, stsEndpoint));
+        } catch (IllegalArgumentException e) {
+            this.getLogger().info(e.getMessage(), e);
+            throw ExtensionErrorConstructor.construct(e.toString());
+        }
     }
 
     /**
@@ -192,23 +544,11 @@ public class Ext_AWSSecurityTokenService extends AbstractExtensionScriptableObje
      */
     @JSFunction
     public NativeObject getSessionTokenWithDuration(Integer durationSeconds) {
-
-        ClientConfiguration clientConfig = createClientConfigration();
-
         try {
-            // SecurityTokenServiceClientの設定
-            AWSSecurityTokenServiceClient sts = new AWSSecurityTokenServiceClient(
-                    new BasicAWSCredentials(this.accessKeyId, SecretAccessKey()), clientConfig);
-
-            // GetSessionToken
-            GetSessionTokenRequest req = new GetSessionTokenRequest();
-            if (durationSeconds != null) {
-                req.setDurationSeconds(durationSeconds);
-            }
-            GetSessionTokenResult res = sts.getSessionToken(req);
+            CachedToken token = prepareSessionToken(durationSeconds).get();
 
             // JSON形式のレスポンスの作成
-            NativeObject sessionTokenJson = createJsonResponse(res);
+            NativeObject sessionTokenJson = createJsonResponse(token.toSessionTokenResult());
 
             return sessionTokenJson;
         } catch (IllegalArgumentException e1) {
@@ -220,13 +560,67 @@ public class Ext_AWSSecurityTokenService extends AbstractExtensionScriptableObje
         } catch (AmazonClientException e1) {
             this.getLogger().info(e1.getMessage(), e1);
             throw ExtensionErrorConstructor.construct(e1.toString());
-        } catch (ParseException e1) {
-            // レスポンスの整形に失敗した場合
-            this.getLogger().error("Failed to create session token response." + e1.getMessage());
-            throw ExtensionErrorConstructor.construct(e1.toString());
         }
     }
 
+    /**
+     * Session Tokenを非同期に取得する.
+     * <br />
+     * 発行は専用のスレッドで行い、呼び出し元のスクリプトは待ち合わせずに処理を続けられる。
+     * 結果は返却したオブジェクトの join() で取得する。
+     * @return 発行中の一時認証情報(join()、isDone()、cancel()を持つ)
+     */
+    @JSFunction
+    public NativeObject getSessionTokenAsync() {
+        return getSessionTokenAsyncWithDuration(null);
+    }
+
+    /**
+     * Session Tokenを非同期に取得する.
+     * @param durationSeconds 認証情報の有効期間（秒）
+     * @return 発行中の一時認証情報(join()、isDone()、cancel()を持つ)
+     */
+    @JSFunction
+    public NativeObject getSessionTokenAsyncWithDuration(Integer durationSeconds) {
+        try {
+            return new AsyncTokenRequest(responseScope(),
+                    AsyncTokenExecutor.getInstance().submit(prepareSessionToken(durationSeconds)),
+                    token -> createJsonResponse(token.toSessionTokenResult()), this::scriptError);
+        } catch (IllegalArgumentException | AmazonClientException e) {
+            throw scriptError(e);
+        }
+    }
+
+    /**
+     * Session Tokenの発行処理を作成する. 入力値の検査と設定値の取得は呼び出し時に行う.
+     * @param durationSeconds 認証情報の有効期間（秒）
+     * @return 発行処理
+     */
+    private Supplier<CachedToken> prepareSessionToken(final Integer durationSeconds) {
+        if (PreflightValidation()) {
+            Preflight.checkDuration(durationSeconds);
+        }
+
+        // GetSessionToken
+        final ClientConfiguration clientConfig = createClientConfigration();
+        final String key = this.accessKeyId;
+        final String secret = SecretAccessKey();
+        final StsEndpoint stsEndpoint = StsEndpoint.resolve(Region(), Endpoint());
+        final Supplier<CachedToken> loader = () -> {
+            GetSessionTokenRequest req = new GetSessionTokenRequest();
+            if (durationSeconds != null) {
+                req.setDurationSeconds(durationSeconds);
+            }
+            long issuedAt = System.currentTimeMillis();
+            GetSessionTokenResult res = StsClientRegistry.getInstance().execute(key, secret, stsEndpoint,
+                    clientConfig, sts -> sts.getSessionToken(req));
+            return CachedToken.of(res, issuedAt);
+        };
+        final String credentialKey = FailureCache.credentialKey(key, secret);
+        final String requestKey = TokenCache.sessionTokenKey(key, secret, stsEndpoint, durationSeconds);
+        return issuer(credentialKey, requestKey, loader);
+    }
+
     /**
      * Federation Tokenを取得する.
      * @param name 連携ユーザ名
@@ -245,7 +639,6 @@ public class Ext_AWSSecurityTokenService extends AbstractExtensionScriptableObje
      * @param durationSeconds 認証情報の有効期間（秒）
      * @return Session Token
      */
-    @SuppressWarnings("unchecked")
     @JSFunction
     public NativeObject getFederationTokenWithDuration(String name, NativeObject policy, Integer durationSeconds) {
 
@@ -253,28 +646,181 @@ public class Ext_AWSSecurityTokenService extends AbstractExtensionScriptableObje
         if (null == policy) {
             throw ExtensionErrorConstructor.construct("policy cannot be null.");
         }
-        JSONObject jsonPolicy = new JSONObject();
-        for (Entry<Object, Object> entry : policy.entrySet()) {
-            jsonPolicy.put(entry.getKey(), entry.getValue());
-        }
+        return requestFederationToken(name, durationSeconds, policySupplier(policy));
+    }
 
-        ClientConfiguration clientConfig = createClientConfigration();
+    /**
+     * Federation Tokenを非同期に取得する.
+     * <br />
+     * 入力値の検査とポリシーのシリアライズは呼び出し時に行い、発行は専用のスレッドで行う。
+     * 結果は返却したオブジェクトの join() で取得する。
+     * @param name 連携ユーザ名
+     * @param policy AWSのIAMポリシー(JSON形式)
+     * @return 発行中の一時認証情報(join()、isDone()、cancel()を持つ)
+     */
+    @JSFunction
+    public NativeObject getFederationTokenAsync(String name, NativeObject policy) {
+        return getFederationTokenAsyncWithDuration(name, policy, null);
+    }
 
+    /**
+     * Federation Tokenを非同期に取得する.
+     * @param name 連携ユーザ名
+     * @param policy AWSのIAMポリシー(JSON形式)
+     * @param durationSeconds 認証情報の有効期間（秒）
+     * @return 発行中の一時認証情報(join()、isDone()、cancel()を持つ)
+     */
+    @JSFunction
+    public NativeObject getFederationTokenAsyncWithDuration(String name, NativeObject policy,
+            Integer durationSeconds) {
+        if (null == policy) {
+            throw ExtensionErrorConstructor.construct("policy cannot be null.");
+        }
         try {
-            // SecurityTokenServiceClientの設定
-            AWSSecurityTokenServiceClient sts = new AWSSecurityTokenServiceClient(
-                    new BasicAWSCredentials(this.accessKeyId, SecretAccessKey()), clientConfig);
+            Supplier<CachedToken> task = prepareFederationToken(name, durationSeconds, policySupplier(policy));
+            return new AsyncTokenRequest(responseScope(), AsyncTokenExecutor.getInstance().submit(task),
+                    token -> createJsonResponse(token.toFederationTokenResult()), this::scriptError);
+        } catch (IllegalArgumentException | AmazonClientException e) {
+            throw scriptError(e);
+        }
+    }
 
-            // GetFederationToken
-            GetFederationTokenRequest req = new GetFederationTokenRequest();
-            req.setName(name);
-            req.setPolicy(jsonPolicy.toJSONString());
-            if (durationSeconds != null) {
-                req.setDurationSeconds(durationSeconds);
+    /**
+     * 複数のFederation Tokenを並列に取得する.
+     * <br />
+     * 各要素の name、policy、durationSeconds(省略可)を getFederationTokenWithDuration の引数として、
+     * BatchConcurrencyを上限に並列に発行する。
+     * 結果は指定と同じ順序の配列で、各要素は Name と、成功した場合は Result(getFederationTokenと同じ形式)、
+     * 失敗した場合は Error(エラーメッセージ)を持つ。一部の要素の失敗は他の要素の発行に影響しない。
+     * @param specs 発行する一時認証情報の指定の配列
+     * @return 発行結果の配列
+     */
+    @JSFunction
+    public NativeArray getFederationTokens(NativeArray specs) {
+        if (specs == null) {
+            throw ExtensionErrorConstructor.construct("specs cannot be null.");
+        }
+        int size = (int) specs.getLength();
+        String[] names = new String[size];
+        List<Supplier<CachedToken>> tasks = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            Object spec = specs.get(i, specs);
+            try {
+                if (!(spec instanceof Scriptable)) {
+                    throw new IllegalArgumentException("spec must be an object.");
+                }
+                Scriptable item = (Scriptable) spec;
+                names[i] = stringOf(item.get("name", item));
+                Object policy = item.get("policy", item);
+                if (!(policy instanceof NativeObject)) {
+                    throw new IllegalArgumentException("policy cannot be null.");
+                }
+                tasks.add(prepareFederationToken(names[i], integerOf(item.get("durationSeconds", item)),
+                        policySupplier((NativeObject) policy)));
+            } catch (RuntimeException e) {
+                tasks.add(() -> {
+                    throw e;
+                });
+            }
+        }
+
+        List<CompletableFuture<CachedToken>> results = AsyncTokenExecutor.getInstance().submitAll(tasks,
+                BatchConcurrency());
+        Scriptable scope = responseScope();
+        Object[] responses = new Object[size];
+        for (int i = 0; i < size; i++) {
+            NativeObject response = newObject(scope);
+            response.put("Name", response, names[i]);
+            try {
+                CachedToken token = results.get(i).get();
+                response.put("Result", response, createJsonResponse(token.toFederationTokenResult()));
+            } catch (ExecutionException e) {
+                response.put("Error", response, errorMessage(e.getCause()));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw scriptError(new AmazonClientException("Interrupted while waiting for the token requests.", e));
+            }
+            responses[i] = response;
+        }
+        NativeArray array = new NativeArray(responses);
+        ScriptRuntime.setBuiltinProtoAndParent(array, scope, TopLevel.Builtins.Array);
+        return array;
+    }
+
+    /**
+     * ポリシーのテンプレートを登録する.
+     * <br />
+     * ポリシーの文字列の値に含まれる「${名前}」をプレースホルダとし、登録時にシリアライズしておく。
+     * テンプレートはこの認証情報(AccessKeyIdとSecretAccessKey)ごとにプロセス内で保持され、以降は同じ認証情報の
+     * getFederationTokenFromTemplateでパラメータの値のみを指定して使用できる。同じ名前のテンプレートは置き換える。
+     * @param templateName テンプレート名
+     * @param policy プレースホルダを含むAWSのIAMポリシー(JSON形式)
+     */
+    @JSFunction
+    public void registerPolicyTemplate(String templateName, NativeObject policy) {
+        if (templateName == null) {
+            throw ExtensionErrorConstructor.construct("templateName cannot be null.");
+        }
+        if (policy == null) {
+            throw ExtensionErrorConstructor.construct("policy cannot be null.");
+        }
+        try {
+            if (PreflightValidation()) {
+                Preflight.checkPolicy(policy);
             }
-            GetFederationTokenResult res = sts.getFederationToken(req);
+            PolicyTemplate.register(FailureCache.credentialKey(this.accessKeyId, SecretAccessKey()), templateName,
+                    PolicyTemplate.compile(policy, MinifyPolicy()));
+        } catch (IllegalArgumentException e) {
+            this.getLogger().info(e.getMessage(), e);
+            throw ExtensionErrorConstructor.construct(e.toString());
+        }
+    }
+
+    /**
+     * この認証情報で登録済みのポリシーのテンプレートを使用してFederation Tokenを取得する.
+     * @param name 連携ユーザ名
+     * @param templateName テンプレート名
+     * @param parameters プレースホルダの名前と値
+     * @return Federation Token
+     */
+    @JSFunction
+    public NativeObject getFederationTokenFromTemplate(String name, String templateName, NativeObject parameters) {
+        return getFederationTokenFromTemplateWithDuration(name, templateName, parameters, null);
+    }
+
+    /**
+     * この認証情報で登録済みのポリシーのテンプレートを使用してFederation Tokenを取得する.
+     * @param name 連携ユーザ名
+     * @param templateName テンプレート名
+     * @param parameters プレースホルダの名前と値
+     * @param durationSeconds 認証情報の有効期間（秒）
+     * @return Federation Token
+     */
+    @JSFunction
+    public NativeObject getFederationTokenFromTemplateWithDuration(String name, String templateName,
+            NativeObject parameters, Integer durationSeconds) {
+        if (templateName == null) {
+            throw ExtensionErrorConstructor.construct("templateName cannot be null.");
+        }
+        final String owner = FailureCache.credentialKey(this.accessKeyId, SecretAccessKey());
+        return requestFederationToken(name, durationSeconds,
+                () -> PolicyTemplate.get(owner, templateName).render(parameters));
+    }
+
+    /**
+     * Federation Tokenを取得する.
+     * @param name 連携ユーザ名
+     * @param durationSeconds 認証情報の有効期間（秒）
+     * @param policySupplier 正規化したポリシーを返す処理
+     * @return Federation Token
+     */
+    private NativeObject requestFederationToken(String name, Integer durationSeconds,
+            Supplier<CanonicalPolicy> policySupplier) {
+        try {
+            CachedToken token = prepareFederationToken(name, durationSeconds, policySupplier).get();
+
             // FederationToken情報をJSON形式で取得する
-            NativeObject federationTokenJson = createJsonResponse(res);
+            NativeObject federationTokenJson = createJsonResponse(token.toFederationTokenResult());
 
             return federationTokenJson;
         } catch (IllegalArgumentException e) {
@@ -286,73 +832,436 @@ public class Ext_AWSSecurityTokenService extends AbstractExtensionScriptableObje
         } catch (AmazonClientException e) {
             this.getLogger().info(e.getMessage(), e);
             throw ExtensionErrorConstructor.construct(e.toString());
-        } catch (ParseException e) {
-            // レスポンスの整形に失敗した場合
-            this.getLogger().error("Failed to create federation token response." + e.getMessage(), e);
-            throw ExtensionErrorConstructor.construct(e.toString());
         }
     }
 
+    /**
+     * スクリプトから指定されたポリシーを検査し、正規化する処理を返す.
+     * @param policy AWSのIAMポリシー(JSON形式)
+     * @return 正規化したポリシーを返す処理
+     */
+    private Supplier<CanonicalPolicy> policySupplier(final NativeObject policy) {
+        return () -> {
+            if (PreflightValidation()) {
+                Preflight.checkPolicy(policy);
+            }
+            return canonicalizePolicy(policy, MinifyPolicy());
+        };
+    }
+
+    /**
+     * PackedPolicySizeの概算が上限を超える場合に警告をログに出力する.
+     * 概算はAWSの返却値と一致しないため、エラーとはせずAWSの判定に委ねる.
+     */
+    private void warnPackedPolicySize(String json) {
+        int estimate = Preflight.estimatePackedPolicySize(json);
+        if (estimate > Preflight.MAX_PACKED_POLICY_SIZE) {
+            this.getLogger().warn("Estimated PackedPolicySize exceeds the limit: " + estimate + "%");
+        }
+    }
+
+    /**
+     * Federation Tokenの発行処理を作成する. 入力値の検査、ポリシーのシリアライズと設定値の取得は呼び出し時に行う.
+     * @param name 連携ユーザ名
+     * @param durationSeconds 認証情報の有効期間（秒）
+     * @param policySupplier 正規化したポリシーを返す処理
+     * @return 発行処理
+     */
+    private Supplier<CachedToken> prepareFederationToken(final String name, final Integer durationSeconds,
+            Supplier<CanonicalPolicy> policySupplier) {
+        if (PreflightValidation()) {
+            Preflight.checkName(name);
+            Preflight.checkDuration(durationSeconds);
+        }
+        final CanonicalPolicy canonicalPolicy = policySupplier.get();
+        if (PreflightValidation()) {
+            Preflight.checkPolicyLength(canonicalPolicy.getJson());
+            warnPackedPolicySize(canonicalPolicy.getJson());
+        }
+
+        // GetFederationToken
+        final ClientConfiguration clientConfig = createClientConfigration();
+        final String key = this.accessKeyId;
+        final String secret = SecretAccessKey();
+        final StsEndpoint stsEndpoint = StsEndpoint.resolve(Region(), Endpoint());
+        final Supplier<CachedToken> loader = () -> {
+            GetFederationTokenRequest req = new GetFederationTokenRequest();
+            req.setName(name);
+            req.setPolicy(canonicalPolicy.getJson());
+            if (durationSeconds != null) {
+                req.setDurationSeconds(durationSeconds);
+            }
+            long issuedAt = System.currentTimeMillis();
+            GetFederationTokenResult res = StsClientRegistry.getInstance().execute(key, secret, stsEndpoint,
+                    clientConfig, sts -> sts.getFederationToken(req));
+            return CachedToken.of(res, issuedAt);
+        };
+        final String credentialKey = FailureCache.credentialKey(key, secret);
+        final String requestKey = TokenCache.federationTokenKey(key, secret, stsEndpoint, name, canonicalPolicy,
+                durationSeconds);
+        return issuer(credentialKey, requestKey, loader);
+    }
+
+    /**
+     * 一括発行の要素のエラーメッセージを返す. 同期版の関数のエラーと同じ内容とする.
+     * @param e 発生したエラー
+     * @return エラーメッセージ
+     */
+    private String errorMessage(Throwable e) {
+        this.getLogger().info(e.getMessage(), e);
+        if (e instanceof RhinoException) {
+            return ((RhinoException) e).details();
+        }
+        return e.toString();
+    }
+
+    private static String stringOf(Object value) {
+        if (value == null || value == Scriptable.NOT_FOUND || value instanceof Undefined) {
+            return null;
+        }
+        return ScriptRuntime.toString(value);
+    }
+
+    private static Integer integerOf(Object value) {
+        if (value == null || value == Scriptable.NOT_FOUND || value instanceof Undefined) {
+            return null;
+        }
+        return Integer.valueOf(ScriptRuntime.toInt32(value));
+    }
+
+    /**
+     * スクリプトのエラーに変換する.
+     * @param e 発生したエラー
+     * @return スクリプトのエラー
+     */
+    private RuntimeException scriptError(RuntimeException e) {
+        this.getLogger().info(e.getMessage(), e);
+        return ExtensionErrorConstructor.construct(e.toString());
+    }
+
+    /**
+     * この認証情報(AccessKeyIdとSecretAccessKey)でキャッシュされた全ての一時認証情報と保持しているエラーを削除する.
+     * @return 削除した一時認証情報の数
+     */
+    @JSFunction
+    public int invalidateTokenCache() {
+        return invalidate(key -> true);
+    }
+
+    /**
+     * この認証情報で、指定の連携ユーザ名でキャッシュされた一時認証情報を削除する. 次回のgetFederationTokenで再発行される.
+     * @param name 連携ユーザ名
+     * @return 削除した一時認証情報の数
+     */
+    @JSFunction
+    public int invalidateTokensByName(String name) {
+        if (name == null) {
+            throw ExtensionErrorConstructor.construct("name cannot be null.");
+        }
+        return invalidate(TokenCache.byFederatedName(name));
+    }
+
+    /**
+     * この認証情報で、指定のポリシーでキャッシュされた一時認証情報を削除する.
+     * <br />
+     * ポリシーはgetFederationTokenと同じ形式でシリアライズし、そのハッシュ値で照合する。
+     * @param policy AWSのIAMポリシー(JSON形式)
+     * @return 削除した一時認証情報の数
+     */
+    @JSFunction
+    public int invalidateTokensByPolicy(NativeObject policy) {
+        if (policy == null) {
+            throw ExtensionErrorConstructor.construct("policy cannot be null.");
+        }
+        return invalidate(TokenCache.byPolicy(canonicalizePolicy(policy, MinifyPolicy())));
+    }
+
+    /**
+     * ポリシーのPackedPolicySize(圧縮後のポリシーの上限に対する割合(%))の概算を返す.
+     * <br />
+     * AWSへは問い合わせない。AWSの圧縮形式は公開されていないため、値はAWSの返却値と一致しない。
+     * @param policy AWSのIAMポリシー(JSON形式)
+     * @return PackedPolicySizeの概算(%)
+     */
+    @JSFunction
+    public int estimatePackedPolicySize(NativeObject policy) {
+        if (policy == null) {
+            throw ExtensionErrorConstructor.construct("policy cannot be null.");
+        }
+        return Preflight.estimatePackedPolicySize(canonicalizePolicy(policy, MinifyPolicy()).getJson());
+    }
+
+    /**
+     * キャッシュおよび保持しているエラーから、この認証情報のもので条件に一致するものを削除する.
+     * キャッシュはプロセス(および共有ストア)で共有するため、他の認証情報のエントリは削除しない.
+     * 読み込み側はロックしないため、削除中も他のスクリプトのキャッシュ参照は待たされない.
+     */
+    private int invalidate(Predicate<String> filter) {
+        String secret = SecretAccessKey();
+        FailureCache.getInstance().invalidate(TokenCache.byCredential(this.accessKeyId, secret).and(filter));
+        try {
+            return TokenCacheBackends.getInstance().invalidate(this.accessKeyId, secret, filter);
+        } catch (IllegalStateException e) {
+            this.getLogger().info(e.getMessage(), e);
+            throw ExtensionErrorConstructor.construct(e.getMessage());
+        }
+    }
+
+    /**
+     * ポリシーをAWSへ送信する形式(正規化したJSON文字列)にシリアライズする.
+     * @param policy AWSのIAMポリシー(JSON形式)
+     * @return シリアライズされたポリシー
+     */
+    static String serializePolicy(NativeObject policy) {
+        return canonicalizePolicy(policy, false).getJson();
+    }
+
+    /**
+     * ポリシーを正規化する. 同じ内容のポリシーはシリアライズ結果とハッシュ値を共有する.
+     * @param policy AWSのIAMポリシー(JSON形式)
+     * @param minify 要素数1の配列を縮小する場合true
+     * @return 正規化したポリシー
+     */
+    static CanonicalPolicy canonicalizePolicy(NativeObject policy, boolean minify) {
+        try {
+            return CanonicalPolicy.of(policy, minify);
+        } catch (IllegalArgumentException e) {
+            throw ExtensionErrorConstructor.construct(e.getMessage());
+        }
+    }
+
+    /**
+     * 発行処理を作成する.
+     * <br />
+     * キャッシュと待ち合わせの設定は呼び出し時(スクリプトのスレッド)に取得する。
+     * 非同期の発行では発行処理が別のスレッドで実行されるため、発行処理からはこのインスタンスのプロパティを参照しない。
+     * @param credentialKey 認証情報のキー
+     * @param requestKey リクエストのキー(キャッシュキー)
+     * @param loader AWSへ問い合わせて一時認証情報を発行する処理
+     * @return 発行処理
+     */
+    private Supplier<CachedToken> issuer(final String credentialKey, final String requestKey,
+            final Supplier<CachedToken> loader) {
+        final boolean useCache = UseTokenCache();
+        final long marginMillis = TimeUnit.SECONDS.toMillis(TokenCacheMarginSeconds());
+        final long waitTimeout = waitTimeoutMillis();
+        return () -> issue(credentialKey, requestKey, loader, useCache, marginMillis, waitTimeout);
+    }
+
+    /**
+     * 一時認証情報を発行する. useCacheがtrueの場合はキャッシュを利用する.
+     * <br />
+     * 同じリクエストが他のスレッドで実行中の場合は、AWSへは問い合わせずにその結果を待ち合わせる。
+     * キャッシュに登録したエントリは、マージンに達する前の利用可能期間の一定割合を経過するとバックグラウンドで再発行される。
+     * 再試行しても結果の変わらないエラー(認証情報やポリシーの誤り)は一定時間保持し、AWSへは問い合わせずに同じエラーを返す。
+     * バックグラウンドの再発行も、保持しているエラーの確認と同時実行の待ち合わせを同様に行う。
+     * @param credentialKey 認証情報のキー
+     * @param requestKey リクエストのキー(キャッシュキー). 接続先のエンドポイントを含むため、異なる接続先への発行はまとめない
+     * @param loader AWSへ問い合わせて一時認証情報を発行する処理
+     * @param useCache キャッシュを利用する場合true
+     * @param marginMillis キャッシュした認証情報に必要な残り有効期間(ミリ秒)
+     * @param waitTimeout 実行中の同一リクエストを待ち合わせる時間(ミリ秒). 0以下の場合は無期限
+     * @return 一時認証情報
+     */
+    private static CachedToken issue(final String credentialKey, final String requestKey,
+            final Supplier<CachedToken> loader, boolean useCache, long marginMillis, final long waitTimeout) {
+        TokenCacheBackend cache = null;
+        if (useCache) {
+            cache = TokenCacheBackends.getInstance();
+            CachedToken cached = cache.get(requestKey, System.currentTimeMillis(), marginMillis);
+            if (cached != null) {
+                return cached;
+            }
+        }
+        final FailureCache failures = FailureCache.getInstance();
+        failures.check(credentialKey, requestKey, System.currentTimeMillis());
+
+        final Supplier<CachedToken> load = recording(failures, credentialKey, requestKey, loader);
+        final Supplier<CachedToken> reload = reloading(failures, IN_FLIGHT, credentialKey, requestKey, load,
+                waitTimeout);
+
+        final TokenCacheBackend tokenCache = cache;
+        return IN_FLIGHT.execute(requestKey, () -> {
+            CachedToken token = load.get();
+            if (tokenCache != null) {
+                tokenCache.put(requestKey, token, reload);
+            }
+            return token;
+        }, waitTimeout);
+    }
+
+    /**
+     * 再試行しても結果の変わらないエラーを保持する発行処理を作成する.
+     * @param failures エラーの保持
+     * @param credentialKey 認証情報のキー
+     * @param requestKey リクエストのキー
+     * @param loader AWSへ問い合わせて一時認証情報を発行する処理
+     * @return 発行処理
+     */
+    static Supplier<CachedToken> recording(final FailureCache failures, final String credentialKey,
+            final String requestKey, final Supplier<CachedToken> loader) {
+        return () -> {
+            try {
+                return loader.get();
+            } catch (AmazonServiceException e) {
+                failures.record(credentialKey, requestKey, e, System.currentTimeMillis());
+                throw e;
+            }
+        };
+    }
+
+    /**
+     * バックグラウンドの再発行処理を作成する.
+     * <br />
+     * 呼び出し時の発行と同様に、保持しているエラーがあればAWSへは問い合わせずに同じエラーとし、
+     * 実行中の同一リクエストがあればその結果を待ち合わせる。結果はキャッシュ側で登録するため、ここでは登録しない。
+     * @param failures エラーの保持
+     * @param inFlight 実行中のリクエスト
+     * @param credentialKey 認証情報のキー
+     * @param requestKey リクエストのキー
+     * @param load エラーを保持する発行処理
+     * @param waitTimeout 待ち合わせる時間(ミリ秒). 0以下の場合は無期限
+     * @return 再発行処理
+     */
+    static Supplier<CachedToken> reloading(final FailureCache failures, final RequestCoalescer<CachedToken> inFlight,
+            final String credentialKey, final String requestKey, final Supplier<CachedToken> load,
+            final long waitTimeout) {
+        return () -> {
+            failures.check(credentialKey, requestKey, System.currentTimeMillis());
+            return inFlight.execute(requestKey, load, waitTimeout);
+        };
+    }
+
+    /**
+     * 実行中の同一リクエストを待ち合わせる時間を返す. 自身で問い合わせた場合の接続・応答タイムアウトの合計とする.
+     * @return 待ち合わせる時間(ミリ秒). 0以下の場合は無期限
+     */
+    private long waitTimeoutMillis() {
+        if (SocketTimeout() <= 0 || ConnectionTimeout() <= 0) {
+            return 0;
+        }
+        return (long) SocketTimeout() + ConnectionTimeout();
+    }
+
     private ClientConfiguration createClientConfigration() {
         ClientConfiguration clientConfig = new ClientConfiguration();
         clientConfig.setProxyHost(ProxyHost());
         clientConfig.setProxyPort(ProxyPort());
         clientConfig.setProxyUsername(ProxyUser());
         clientConfig.setProxyPassword(ProxyPassword());
+        clientConfig.setMaxConnections(MaxConnections());
+        clientConfig.setConnectionTTL(ConnectionTTL());
+        clientConfig.setUseReaper(UseReaper());
+        clientConfig.setSocketTimeout(SocketTimeout());
+        clientConfig.setConnectionTimeout(ConnectionTimeout());
+        clientConfig.setUseTcpKeepAlive(TcpKeepAlive());
+        clientConfig.setSocketBufferSizeHints(SocketSendBufferSize(), SocketReceiveBufferSize());
         return clientConfig;
     }
 
     /**
      * SessionToken用のJSON形式のレスポンスを作成する.
+     * <br />
+     * JSON文字列を経由せず、呼び出し元スクリプトのスコープにオブジェクトを直接作成する。
      * @param res
-     * @return JSONObject SessionToken情報(JSON形式)
-     * @throws ParseException レスポンスの作成に失敗
+     * @return NativeObject SessionToken情報(JSON形式)
      */
-    @SuppressWarnings("unchecked")
-    private NativeObject createJsonResponse(GetSessionTokenResult res) throws ParseException {
-        Credentials credentials = res.getCredentials();
-
-        JSONObject credentialsJson = new JSONObject();
-        credentialsJson.put("AccessKeyId", credentials.getAccessKeyId());
-        credentialsJson.put("SecretAccessKey", credentials.getSecretAccessKey());
-        credentialsJson.put("SessionToken", credentials.getSessionToken());
-        credentialsJson.put("Expiration", credentials.getExpiration().getTime());
-
-        JSONObject sessionTokenJson = new JSONObject();
-        sessionTokenJson.put("Credentials", credentialsJson);
-
-        JsonParser p = new JsonParser(Context.enter(), Context.enter().initStandardObjects());
-        return (NativeObject) p.parseValue(sessionTokenJson.toJSONString());
+    private NativeObject createJsonResponse(GetSessionTokenResult res) {
+        Scriptable scope = responseScope();
+        if (LazyResponse()) {
+            return LazyResponseObject.sessionToken(scope, res);
+        }
+        NativeObject sessionTokenJson = newObject(scope);
+        sessionTokenJson.put("Credentials", sessionTokenJson, createCredentials(scope, res.getCredentials()));
+        return sessionTokenJson;
     }
 
     /**
      * FederationToken用のJSON形式のレスポンスを作成する.
+     * <br />
+     * JSON文字列を経由せず、呼び出し元スクリプトのスコープにオブジェクトを直接作成する。
      * @param res
-     * @return JSONObject FederationToken情報(JSON形式)
-     * @throws ParseException レスポンスの作成に失敗
+     * @return NativeObject FederationToken情報(JSON形式)
      */
-    @SuppressWarnings("unchecked")
-    private NativeObject createJsonResponse(GetFederationTokenResult res) throws ParseException {
-        Credentials credentials = res.getCredentials();
+    private NativeObject createJsonResponse(GetFederationTokenResult res) {
+        Scriptable scope = responseScope();
+        if (LazyResponse()) {
+            return LazyResponseObject.federationToken(scope, res);
+        }
         FederatedUser federatedUser = res.getFederatedUser();
-        Integer packedPolicySize = res.getPackedPolicySize();
+        NativeObject federatedUserJson = newObject(scope);
+        federatedUserJson.put("Arn", federatedUserJson, federatedUser.getArn());
+        federatedUserJson.put("FederatedUserId", federatedUserJson, federatedUser.getFederatedUserId());
 
-        JSONObject credentialsJson = new JSONObject();
-        credentialsJson.put("AccessKeyId", credentials.getAccessKeyId());
-        credentialsJson.put("SecretAccessKey", credentials.getSecretAccessKey());
-        credentialsJson.put("SessionToken", credentials.getSessionToken());
-        credentialsJson.put("Expiration", credentials.getExpiration().getTime());
-        JSONObject federatedUserJson = new JSONObject();
-        federatedUserJson.put("Arn", federatedUser.getArn());
-        federatedUserJson.put("FederatedUserId", federatedUser.getFederatedUserId());
+        NativeObject federationTokenJson = newObject(scope);
+        federationTokenJson.put("Credentials", federationTokenJson, createCredentials(scope, res.getCredentials()));
+        federationTokenJson.put("FederatedUser", federationTokenJson, federatedUserJson);
+        federationTokenJson.put("PackedPolicySize", federationTokenJson, toNumber(res.getPackedPolicySize()));
+        return federationTokenJson;
+    }
 
-        JSONObject sessionTokenJson = new JSONObject();
-        sessionTokenJson.put("Credentials", credentialsJson);
-        sessionTokenJson.put("FederatedUser", federatedUserJson);
-        sessionTokenJson.put("PackedPolicySize", packedPolicySize);
+    private static NativeObject createCredentials(Scriptable scope, Credentials credentials) {
+        NativeObject credentialsJson = newObject(scope);
+        credentialsJson.put("AccessKeyId", credentialsJson, credentials.getAccessKeyId());
+        credentialsJson.put("SecretAccessKey", credentialsJson, credentials.getSecretAccessKey());
+        credentialsJson.put("SessionToken", credentialsJson, credentials.getSessionToken());
+        credentialsJson.put("Expiration", credentialsJson, toNumber(credentials.getExpiration().getTime()));
+        return credentialsJson;
+    }
 
-        JsonParser p = new JsonParser(Context.enter(), Context.enter().initStandardObjects());
-        return (NativeObject) p.parseValue(sessionTokenJson.toJSONString());
+    /**
+     * レスポンスを作成するスコープを返す.
+     * <br />
+     * スクリプトから生成された場合は呼び出し元スクリプトのトップレベルスコープとする。
+     * Javaから直接生成された場合(親スコープなし)は、プロセスで共有する標準オブジェクトのスコープとする。
+     * @return スコープ
+     */
+    private Scriptable responseScope() {
+        Scriptable parent = getParentScope();
+        if (parent != null) {
+            return ScriptableObject.getTopLevelScope(parent);
+        }
+        return StandardScope.INSTANCE;
+    }
+
+    private static NativeObject newObject(Scriptable scope) {
+        NativeObject object = new NativeObject();
+        ScriptRuntime.setObjectProtoAndParent(object, scope);
+        return object;
     }
 
+    /**
+     * 数値をJSONの解析結果と同じ型にする. 整数の範囲の値はInteger、それ以外はDoubleとする.
+     * @param value 数値
+     * @return Integer、Doubleまたはnull
+     */
+    static Number toNumber(Number value) {
+        if (value == null) {
+            return null;
+        }
+        long longValue = value.longValue();
+        if (longValue >= Integer.MIN_VALUE && longValue <= Integer.MAX_VALUE) {
+            return Integer.valueOf((int) longValue);
+        }
+        return Double.valueOf(longValue);
+    }
+
+    /**
+     * 親スコープを持たない場合に使用する標準オブジェクトのスコープ. 初回使用時に一度だけ作成し、変更できないよう封印する.
+     */
+    private static final class StandardScope {
+        private static final Scriptable INSTANCE = create();
+
+        private StandardScope() {
+        }
+
+        private static Scriptable create() {
+            Context cx = Context.enter();
+            try {
+                return cx.initStandardObjects(null, true);
+            } finally {
+                Context.exit();
+            }
+        }
+    }
 }
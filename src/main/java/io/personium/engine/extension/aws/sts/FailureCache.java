@@ -0,0 +1,191 @@
+/**
+ * Personium
+ * Copyright 2016 FUJITSU LIMITED
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.personium.engine.extension.aws.sts;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+
+import com.amazonaws.AmazonServiceException;
+
+/**
+ * 再試行しても結果の変わらないAWSのエラーを一定時間保持する.
+ * <br />
+ * 誤ったAccessKeyId・SecretAccessKeyや不正なポリシーが設定されている場合に、
+ * 呼び出しのたびにAWSへ問い合わせることを避け、同じエラーを即座に返す。
+ * 認証情報に起因するエラーは同じ認証情報を使う全てのリクエストに、
+ * リクエスト内容に起因するエラーは同じリクエストにのみ適用する。
+ */
+final class FailureCache {
+
+    /** エラーを保持する時間(秒)の既定値. 0の場合は保持しない. */
+    static final int DEFAULT_TTL_SECONDS = 0;
+    /** 保持するエラー数の上限. */
+    static final int MAX_ENTRIES = 10000;
+
+    /** 認証情報に起因するエラーコード. */
+    private static final Set<String> CREDENTIAL_ERRORS = Collections.unmodifiableSet(new HashSet<>(Arrays.asList(
+            "InvalidClientTokenId", "SignatureDoesNotMatch")));
+    /** リクエスト内容に起因するエラーコード. */
+    private static final Set<String> REQUEST_ERRORS = Collections.unmodifiableSet(new HashSet<>(Arrays.asList(
+            "MalformedPolicyDocument", "PackedPolicyTooLarge", "ValidationError")));
+
+    private static final FailureCache INSTANCE = new FailureCache(TimeUnit.SECONDS.toMillis(
+            StsProperties.getInt(StsProperties.load(), "NegativeCacheTtlSeconds", DEFAULT_TTL_SECONDS)));
+
+    private final ConcurrentMap<String, Failure> failures = new ConcurrentHashMap<>();
+    private final long ttlMillis;
+
+    /**
+     * コンストラクタ.
+     * @param ttlMillis エラーを保持する時間(ミリ秒). 0以下の場合は保持しない
+     */
+    FailureCache(long ttlMillis) {
+        this.ttlMillis = ttlMillis;
+    }
+
+    /**
+     * @return プロセス共有のインスタンス
+     */
+    static FailureCache getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * 認証情報単位のキーを作成する.
+     * @param accessKeyId AWS認証情報(key)
+     * @param secretAccessKey AWS認証情報(secret)
+     * @return キー
+     */
+    static String credentialKey(String accessKeyId, String secretAccessKey) {
+        return "credential|" + accessKeyId + "|" + StsClientKey.hash(secretAccessKey);
+    }
+
+    /**
+     * 保持しているエラーがある場合はそのエラーを送出する.
+     * @param credentialKey 認証情報単位のキー
+     * @param requestKey リクエスト単位のキー
+     * @param now 現在時刻(ミリ秒)
+     * @throws AmazonServiceException 保持しているエラーがある場合
+     */
+    void check(String credentialKey, String requestKey, long now) {
+        if (ttlMillis <= 0 || failures.isEmpty()) {
+            return;
+        }
+        Failure failure = find(credentialKey, now);
+        if (failure == null) {
+            failure = find(requestKey, now);
+        }
+        if (failure != null) {
+            throw failure.copy();
+        }
+    }
+
+    private Failure find(String key, long now) {
+        Failure failure = failures.get(key);
+        if (failure == null) {
+            return null;
+        }
+        if (failure.expiresAt <= now) {
+            failures.remove(key, failure);
+            return null;
+        }
+        return failure;
+    }
+
+    /**
+     * 再試行しても結果の変わらないエラーの場合は保持する.
+     * @param credentialKey 認証情報単位のキー
+     * @param requestKey リクエスト単位のキー
+     * @param e AWSのエラー
+     * @param now 現在時刻(ミリ秒)
+     */
+    void record(String credentialKey, String requestKey, AmazonServiceException e, long now) {
+        if (ttlMillis <= 0) {
+            return;
+        }
+        String key;
+        if (CREDENTIAL_ERRORS.contains(e.getErrorCode())) {
+            key = credentialKey;
+        } else if (REQUEST_ERRORS.contains(e.getErrorCode())) {
+            key = requestKey;
+        } else {
+            return;
+        }
+        if (failures.size() >= MAX_ENTRIES) {
+            failures.values().removeIf(failure -> failure.expiresAt <= now);
+            if (failures.size() >= MAX_ENTRIES) {
+                failures.clear();
+            }
+        }
+        failures.put(key, new Failure(e, now + ttlMillis));
+    }
+
+    /**
+     * 条件に一致するキーのエラーを削除する.
+     * @param filter キーの条件
+     * @return 削除したエラー数
+     */
+    int invalidate(Predicate<String> filter) {
+        int count = 0;
+        for (String key : failures.keySet()) {
+            if (filter.test(key) && failures.remove(key) != null) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @return 保持しているエラー数
+     */
+    int size() {
+        return failures.size();
+    }
+
+    /**
+     * 保持しているエラー.
+     */
+    private static final class Failure {
+        private final AmazonServiceException error;
+        private final long expiresAt;
+
+        Failure(AmazonServiceException error, long expiresAt) {
+            this.error = error;
+            this.expiresAt = expiresAt;
+        }
+
+        /**
+         * 呼び出し元ごとに例外を作成する. 内容(エラーコード、ステータスなど)は元のエラーと同じとする.
+         */
+        AmazonServiceException copy() {
+            AmazonServiceException copy = new AmazonServiceException(error.getErrorMessage());
+            copy.setErrorCode(error.getErrorCode());
+            copy.setErrorType(error.getErrorType());
+            copy.setRequestId(error.getRequestId());
+            copy.setServiceName(error.getServiceName());
+            copy.setStatusCode(error.getStatusCode());
+            return copy;
+        }
+    }
+}
@@ -0,0 +1,134 @@
+/**
+ * Personium
+ * Copyright 2016 FUJITSU LIMITED
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.personium.engine.extension.aws.sts;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * キーの参照頻度の概算(TinyLFUのCount-Min Sketch).
+ * <br />
+ * 4bitのカウンタを1つのlongに16個格納し、キーごとに4か所のカウンタの最小値を頻度とする(最大15)。
+ * 記録回数が標本数に達するとすべてのカウンタを半減し、過去の頻度の影響を減衰させる。
+ * 概算のため、衝突により実際より大きい頻度を返すことがある。
+ */
+final class FrequencySketch {
+
+    /** 標本数(カウンタを半減する記録回数)のエントリ数上限に対する倍率. */
+    static final int SAMPLE_FACTOR = 10;
+
+    private static final long[] SEEDS = {
+        0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L
+    };
+    private static final int DEPTH = SEEDS.length;
+    private static final int COUNTER_BITS = 4;
+    private static final long COUNTER_MASK = 0xfL;
+    private static final long RESET_MASK = 0x7777777777777777L;
+    private static final int START_MASK = 3;
+    private static final int MIN_TABLE_SIZE = 16;
+    private static final int SPREAD_MULTIPLIER = 0x45d9f3b;
+    private static final int HALF_INT_BITS = 16;
+    private static final int HALF_LONG_BITS = 32;
+
+    private final AtomicLongArray table;
+    private final int tableMask;
+    private final int sampleSize;
+    private final AtomicInteger size = new AtomicInteger();
+
+    /**
+     * コンストラクタ.
+     * @param maximumSize 頻度を記録する想定のキー数(キャッシュのエントリ数の上限)
+     */
+    FrequencySketch(int maximumSize) {
+        int length = Integer.highestOneBit(Math.max(MIN_TABLE_SIZE, maximumSize) - 1) << 1;
+        this.table = new AtomicLongArray(length);
+        this.tableMask = length - 1;
+        this.sampleSize = (int) Math.min(Integer.MAX_VALUE, (long) Math.max(MIN_TABLE_SIZE, maximumSize)
+                * SAMPLE_FACTOR);
+    }
+
+    /**
+     * @param key キー
+     * @return 参照頻度の概算(0～15)
+     */
+    int frequency(Object key) {
+        int hash = spread(key.hashCode());
+        int start = (hash & START_MASK) << 2;
+        int frequency = Integer.MAX_VALUE;
+        for (int i = 0; i < DEPTH; i++) {
+            int index = indexOf(hash, i);
+            int count = (int) ((table.get(index) >>> ((start + i) * COUNTER_BITS)) & COUNTER_MASK);
+            frequency = Math.min(frequency, count);
+        }
+        return frequency;
+    }
+
+    /**
+     * 参照を記録する.
+     * @param key キー
+     */
+    void increment(Object key) {
+        int hash = spread(key.hashCode());
+        int start = (hash & START_MASK) << 2;
+        boolean added = false;
+        for (int i = 0; i < DEPTH; i++) {
+            added |= incrementAt(indexOf(hash, i), start + i);
+        }
+        if (added && size.incrementAndGet() >= sampleSize) {
+            reset();
+        }
+    }
+
+    private boolean incrementAt(int index, int counter) {
+        int offset = counter * COUNTER_BITS;
+        long mask = COUNTER_MASK << offset;
+        while (true) {
+            long value = table.get(index);
+            if ((value & mask) == mask) {
+                return false;
+            }
+            if (table.compareAndSet(index, value, value + (1L << offset))) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * すべてのカウンタを半減する. 並行して記録された参照が失われることがあるが、概算のため許容する.
+     */
+    private synchronized void reset() {
+        if (size.get() < sampleSize) {
+            return;
+        }
+        for (int i = 0; i < table.length(); i++) {
+            table.set(i, (table.get(i) >>> 1) & RESET_MASK);
+        }
+        size.set(size.get() / 2);
+    }
+
+    private int indexOf(int item, int i) {
+        long hash = (item + SEEDS[i]) * SEEDS[i];
+        hash += hash >>> HALF_LONG_BITS;
+        return ((int) hash) & tableMask;
+    }
+
+    private static int spread(int x) {
+        int h = ((x >>> HALF_INT_BITS) ^ x) * SPREAD_MULTIPLIER;
+        h = ((h >>> HALF_INT_BITS) ^ h) * SPREAD_MULTIPLIER;
+        return (h >>> HALF_INT_BITS) ^ h;
+    }
+}
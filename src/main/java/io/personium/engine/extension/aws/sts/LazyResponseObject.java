@@ -0,0 +1,138 @@
+/**
+ * Personium
+ * Copyright 2016 FUJITSU LIMITED
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.personium.engine.extension.aws.sts;
+
+import java.util.function.Function;
+
+import org.mozilla.javascript.Context;
+import org.mozilla.javascript.NativeObject;
+import org.mozilla.javascript.ScriptRuntime;
+import org.mozilla.javascript.Scriptable;
+import org.mozilla.javascript.ScriptableObject;
+
+import com.amazonaws.services.securitytoken.model.Credentials;
+import com.amazonaws.services.securitytoken.model.FederatedUser;
+import com.amazonaws.services.securitytoken.model.GetFederationTokenResult;
+import com.amazonaws.services.securitytoken.model.GetSessionTokenResult;
+
+/**
+ * 値を参照時に作成するレスポンスオブジェクト.
+ * <br />
+ * AWS SDKのCredentials、FederatedUserを保持し、プロパティの値(入れ子のオブジェクトを含む)は初めて参照された時点で作成する。
+ * プロパティ名は作成時に通常のレスポンスと同じ順序で定義するため、列挙(for-in、Object.keys)やJSON.stringifyの結果は
+ * 通常のレスポンスと変わらない。
+ */
+@SuppressWarnings("serial")
+final class LazyResponseObject extends NativeObject {
+
+    /** 値が未作成であることを表す. */
+    private static final Object PENDING = new Object();
+
+    private static final String[] SESSION_TOKEN_NAMES = {"Credentials"};
+    private static final String[] FEDERATION_TOKEN_NAMES = {"Credentials", "FederatedUser", "PackedPolicySize"};
+    private static final String[] CREDENTIALS_NAMES = {"AccessKeyId", "SecretAccessKey", "SessionToken", "Expiration"};
+    private static final String[] FEDERATED_USER_NAMES = {"Arn", "FederatedUserId"};
+
+    private transient Function<String, Object> loader;
+
+    private LazyResponseObject(Scriptable scope, String[] names, Function<String, Object> loader) {
+        ScriptRuntime.setObjectProtoAndParent(this, scope);
+        this.loader = loader;
+        for (String name : names) {
+            super.put(name, this, PENDING);
+        }
+    }
+
+    /**
+     * SessionToken用のレスポンスを作成する.
+     * @param scope スコープ
+     * @param res GetSessionTokenの結果
+     * @return レスポンス
+     */
+    static NativeObject sessionToken(final Scriptable scope, final GetSessionTokenResult res) {
+        return new LazyResponseObject(scope, SESSION_TOKEN_NAMES, name -> credentials(scope, res.getCredentials()));
+    }
+
+    /**
+     * FederationToken用のレスポンスを作成する.
+     * @param scope スコープ
+     * @param res GetFederationTokenの結果
+     * @return レスポンス
+     */
+    static NativeObject federationToken(final Scriptable scope, final GetFederationTokenResult res) {
+        return new LazyResponseObject(scope, FEDERATION_TOKEN_NAMES, name -> {
+            switch (name) {
+            case "Credentials":
+                return credentials(scope, res.getCredentials());
+            case "FederatedUser":
+                return federatedUser(scope, res.getFederatedUser());
+            default:
+                return Ext_AWSSecurityTokenService.toNumber(res.getPackedPolicySize());
+            }
+        });
+    }
+
+    private static NativeObject credentials(Scriptable scope, final Credentials credentials) {
+        return new LazyResponseObject(scope, CREDENTIALS_NAMES, name -> {
+            switch (name) {
+            case "AccessKeyId":
+                return credentials.getAccessKeyId();
+            case "SecretAccessKey":
+                return credentials.getSecretAccessKey();
+            case "SessionToken":
+                return credentials.getSessionToken();
+            default:
+                return Ext_AWSSecurityTokenService.toNumber(credentials.getExpiration().getTime());
+            }
+        });
+    }
+
+    private static NativeObject federatedUser(Scriptable scope, final FederatedUser federatedUser) {
+        return new LazyResponseObject(scope, FEDERATED_USER_NAMES, name -> {
+            if ("Arn".equals(name)) {
+                return federatedUser.getArn();
+            }
+            return federatedUser.getFederatedUserId();
+        });
+    }
+
+    @Override
+    public Object get(String name, Scriptable start) {
+        Object value = super.get(name, start);
+        if (value != PENDING) {
+            return value;
+        }
+        return materialize(name);
+    }
+
+    @Override
+    protected ScriptableObject getOwnPropertyDescriptor(Context cx, Object id) {
+        if (id instanceof String && super.get((String) id, this) == PENDING) {
+            materialize((String) id);
+        }
+        return super.getOwnPropertyDescriptor(cx, id);
+    }
+
+    /**
+     * 値を作成して通常のプロパティとして保持する. 以降の参照では作成しない.
+     */
+    private Object materialize(String name) {
+        Object value = loader.apply(name);
+        super.put(name, this, value);
+        return value;
+    }
+}
@@ -0,0 +1,126 @@
+/**
+ * Personium
+ * Copyright 2016 FUJITSU LIMITED
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.personium.engine.extension.aws.sts;
+
+import java.nio.ByteBuffer;
+
+/**
+ * オフヒープに認証情報を格納する領域.
+ * <br />
+ * 生成時に容量分のダイレクトバッファを1つだけ確保し、固定長のブロックに分割して使用する。
+ * 格納するバイト列は空きブロックを組み合わせて書き込み、解放したブロックは空きリストに戻して再利用するため、
+ * 認証情報の置換や再発行を繰り返してもネイティブメモリの使用量は容量を超えない。
+ */
+final class OffHeapSlab {
+
+    /** ブロックのサイズ(バイト). */
+    static final int BLOCK_BYTES = 256;
+
+    private final ByteBuffer buffer;
+    /** 空きブロックの番号のスタック. */
+    private final int[] free;
+    private int freeCount;
+
+    /**
+     * コンストラクタ.
+     * @param capacityBytes 容量(バイト). ブロックのサイズ単位に切り捨てる
+     * @throws IllegalArgumentException 容量がブロックのサイズ未満の場合
+     */
+    OffHeapSlab(long capacityBytes) {
+        long blocks = Math.min(Integer.MAX_VALUE / BLOCK_BYTES, capacityBytes / BLOCK_BYTES);
+        if (blocks <= 0) {
+            throw new IllegalArgumentException("Off-heap capacity is too small: " + capacityBytes);
+        }
+        this.buffer = ByteBuffer.allocateDirect((int) blocks * BLOCK_BYTES);
+        this.free = new int[(int) blocks];
+        for (int i = 0; i < free.length; i++) {
+            free[i] = free.length - 1 - i;
+        }
+        this.freeCount = free.length;
+    }
+
+    /**
+     * @param length バイト数
+     * @return 指定のバイト数の格納に必要なブロック数
+     */
+    static int blocksFor(int length) {
+        return Math.max(1, (length + BLOCK_BYTES - 1) / BLOCK_BYTES);
+    }
+
+    /**
+     * 空きブロックを確保してバイト列を書き込む.
+     * @param data バイト列
+     * @return 確保したブロックの番号. 空きブロックが不足する場合はnull
+     */
+    synchronized int[] allocate(byte[] data) {
+        int count = blocksFor(data.length);
+        if (count > freeCount) {
+            return null;
+        }
+        int[] blocks = new int[count];
+        for (int i = 0; i < count; i++) {
+            freeCount--;
+            blocks[i] = free[freeCount];
+            int offset = i * BLOCK_BYTES;
+            buffer.put(blocks[i] * BLOCK_BYTES, data, offset, Math.min(BLOCK_BYTES, data.length - offset));
+        }
+        return blocks;
+    }
+
+    /**
+     * ブロックからバイト列を読み出す.
+     * <br />
+     * バッファの位置を変更しないため、ロックせずに並行して読み出せる。読み出し中に解放されたブロックの内容は
+     * 保証されないため、呼び出し元で解放されていないことを確認する。
+     * @param blocks 確保したブロックの番号
+     * @param length 書き込んだバイト数
+     * @return バイト列
+     */
+    byte[] read(int[] blocks, int length) {
+        byte[] data = new byte[length];
+        for (int i = 0; i < blocks.length; i++) {
+            int offset = i * BLOCK_BYTES;
+            buffer.get(blocks[i] * BLOCK_BYTES, data, offset, Math.min(BLOCK_BYTES, length - offset));
+        }
+        return data;
+    }
+
+    /**
+     * ブロックを空きリストに戻す.
+     * @param blocks 確保したブロックの番号
+     */
+    synchronized void free(int[] blocks) {
+        for (int block : blocks) {
+            free[freeCount] = block;
+            freeCount++;
+        }
+    }
+
+    /**
+     * @return 容量(バイト)
+     */
+    long capacity() {
+        return (long) free.length * BLOCK_BYTES;
+    }
+
+    /**
+     * @return 使用中のブロックの合計サイズ(バイト)
+     */
+    synchronized long used() {
+        return (long) (free.length - freeCount) * BLOCK_BYTES;
+    }
+}
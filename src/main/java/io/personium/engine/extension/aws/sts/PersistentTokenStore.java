@@ -0,0 +1,376 @@
+/**
+ * Personium
+ * Copyright 2016 FUJITSU LIMITED
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.personium.engine.extension.aws.sts;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.GeneralSecurityException;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.Map;
+
+/**
+ * 発行済み一時認証情報を保持する暗号化ファイル.
+ * <br />
+ * エンジンの再起動後もキャッシュを引き継ぐために使用する。認証情報はAES-GCMで暗号化し、
+ * キャッシュキーのハッシュ値と有効期限のみを平文で記録する。
+ * <br />
+ * 起動時にファイルをメモリマップし、有効期限内のレコードの索引のみを作成する。
+ * 復号は該当キーが初めて参照された時点で行い、以降はメモリ上のキャッシュから返す。
+ * 期限切れまたは上書きされたレコードは起動時に取り除く。
+ * ファイルサイズが上限に達した後の追記は次回起動時の整理まで行わない。
+ * 無効化したキーは有効期限0のレコード(暗号文なし)を追記して記録する。
+ * <br />
+ * 形式: マジック(4byte)、バージョン(1byte)、鍵導出のソルト(16byte)、以降レコードの繰り返し。
+ * バージョンまたはソルトが異なるファイルのレコードは復号できないため、起動時に破棄する。
+ * レコードは長さ(int)、キーのハッシュ値(32byte)、有効期限(long)、IV(12byte)、暗号文(タグを含む)。
+ */
+final class PersistentTokenStore implements Closeable {
+
+    /** ファイルサイズ上限の既定値(バイト). */
+    static final long DEFAULT_MAX_BYTES = 64L * 1024 * 1024;
+
+    private static final byte[] MAGIC = "PSTS".getBytes(StandardCharsets.US_ASCII);
+    private static final byte VERSION = 2;
+    private static final int SALT_OFFSET = MAGIC.length + 1;
+    private static final int FILE_HEADER_BYTES = SALT_OFFSET + TokenCipher.SALT_BYTES;
+    private static final int KEY_HASH_BYTES = 32;
+    private static final int IV_BYTES = TokenCipher.IV_BYTES;
+    private static final int RECORD_HEADER_BYTES = KEY_HASH_BYTES + Long.BYTES + IV_BYTES;
+
+    private final Path path;
+    private final TokenCipher cipher;
+    private final long maxBytes;
+    private final Map<String, Record> index;
+    private final MappedByteBuffer mapped;
+    private final FileChannel channel;
+
+    private PersistentTokenStore(Path path, TokenCipher cipher, long maxBytes, Map<String, Record> index,
+            MappedByteBuffer mapped, FileChannel channel) {
+        this.path = path;
+        this.cipher = cipher;
+        this.maxBytes = maxBytes;
+        this.index = index;
+        this.mapped = mapped;
+        this.channel = channel;
+    }
+
+    /**
+     * ファイルを開く. 存在しない場合は作成する.
+     * @param path ファイルのパス
+     * @param passphrase 暗号鍵の元となるパスフレーズ
+     * @param maxBytes ファイルサイズの上限(バイト)
+     * @param now 現在時刻(ミリ秒)
+     * @return ファイル
+     * @throws IOException ファイルの読み書きに失敗した場合
+     */
+    static PersistentTokenStore open(Path path, String passphrase, long maxBytes, long now) throws IOException {
+        Map<String, Record> index = new HashMap<>();
+        byte[] salt;
+        if (Files.exists(path)) {
+            try (FileChannel in = FileChannel.open(path, StandardOpenOption.READ)) {
+                ByteBuffer data = in.map(FileChannel.MapMode.READ_ONLY, 0, in.size());
+                if (hasHeader(data)) {
+                    salt = salt(data);
+                } else {
+                    salt = TokenCipher.newSalt();
+                }
+                int end = scan(data, index, now);
+                if (end != data.limit() || index.size() < count(data, end)) {
+                    compact(path, data, index, salt);
+                }
+            }
+        } else {
+            create(path);
+            salt = TokenCipher.newSalt();
+        }
+        TokenCipher cipher = new TokenCipher(passphrase, salt);
+
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            if (channel.size() == 0) {
+                channel.write(fileHeader(salt));
+            }
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            reindex(mapped, index, now);
+            channel.position(channel.size());
+            return new PersistentTokenStore(path, cipher, maxBytes, index, mapped, channel);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    private static void create(Path path) throws IOException {
+        Path parent = path.toAbsolutePath().getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+        if (FileSystems.getDefault().supportedFileAttributeViews().contains("posix")) {
+            Files.createFile(path, PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rw-------")));
+        } else {
+            Files.createFile(path);
+        }
+    }
+
+    private static ByteBuffer fileHeader(byte[] salt) {
+        ByteBuffer header = ByteBuffer.allocate(FILE_HEADER_BYTES);
+        header.put(MAGIC).put(VERSION).put(salt).flip();
+        return header;
+    }
+
+    private static byte[] salt(ByteBuffer data) {
+        byte[] salt = new byte[TokenCipher.SALT_BYTES];
+        ByteBuffer slice = data.duplicate();
+        slice.position(SALT_OFFSET);
+        slice.get(salt);
+        return salt;
+    }
+
+    /**
+     * レコードを読み取り、有効期限内の最新のレコードを索引に登録する.
+     * @return 正しく読み取れた末尾の位置. 形式が異なる場合は0
+     */
+    private static int scan(ByteBuffer data, Map<String, Record> index, long now) {
+        if (!hasHeader(data)) {
+            return 0;
+        }
+        int position = FILE_HEADER_BYTES;
+        while (data.limit() - position >= Integer.BYTES) {
+            int length = data.getInt(position);
+            int start = position + Integer.BYTES;
+            if (length < RECORD_HEADER_BYTES || length > data.limit() - start) {
+                break;
+            }
+            String keyHash = keyHash(data, start);
+            long expiration = data.getLong(start + KEY_HASH_BYTES);
+            if (expiration > now) {
+                index.put(keyHash, new Record(position, length, expiration));
+            } else {
+                index.remove(keyHash);
+            }
+            position = start + length;
+        }
+        return position;
+    }
+
+    private static void reindex(ByteBuffer data, Map<String, Record> index, long now) {
+        index.clear();
+        scan(data, index, now);
+    }
+
+    private static boolean hasHeader(ByteBuffer data) {
+        if (data.limit() < FILE_HEADER_BYTES) {
+            return false;
+        }
+        for (int i = 0; i < MAGIC.length; i++) {
+            if (data.get(i) != MAGIC[i]) {
+                return false;
+            }
+        }
+        return data.get(MAGIC.length) == VERSION;
+    }
+
+    private static int count(ByteBuffer data, int end) {
+        int count = 0;
+        int position = FILE_HEADER_BYTES;
+        while (position < end) {
+            position += Integer.BYTES + data.getInt(position);
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * 有効なレコードのみを書き出したファイルで置き換える. レコードは復号せずにそのまま複写する.
+     */
+    private static void compact(Path path, ByteBuffer data, Map<String, Record> index, byte[] salt)
+            throws IOException {
+        Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+        Files.deleteIfExists(temp);
+        create(temp);
+        try (FileChannel out = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+            out.write(fileHeader(salt));
+            for (Record record : index.values()) {
+                ByteBuffer slice = data.duplicate();
+                slice.limit(record.offset + Integer.BYTES + record.length).position(record.offset);
+                while (slice.hasRemaining()) {
+                    out.write(slice);
+                }
+            }
+            out.force(true);
+        }
+        try {
+            Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * 起動時にファイルに記録されていた認証情報を取得する.
+     * <br />
+     * 取得したレコードは索引から削除する(以降はメモリ上のキャッシュから返すため)。
+     * 復号できない場合(パスフレーズの変更など)はnullを返す。
+     * @param key キャッシュキー
+     * @param now 現在時刻(ミリ秒)
+     * @return 有効期限内の認証情報. 存在しない場合はnull
+     */
+    CachedToken load(String key, long now) {
+        String keyHash = HexFormat.of().formatHex(sha256(key.getBytes(StandardCharsets.UTF_8)));
+        Record record;
+        synchronized (index) {
+            record = index.remove(keyHash);
+        }
+        if (record == null || record.expiration <= now) {
+            return null;
+        }
+        int start = record.offset + Integer.BYTES;
+        ByteBuffer header = mapped.duplicate();
+        header.limit(start + RECORD_HEADER_BYTES).position(start);
+        ByteBuffer aad = header.slice().limit(KEY_HASH_BYTES);
+        byte[] iv = new byte[IV_BYTES];
+        header.position(start + KEY_HASH_BYTES + Long.BYTES);
+        header.get(iv);
+        ByteBuffer cipherText = mapped.duplicate();
+        cipherText.limit(start + record.length).position(start + RECORD_HEADER_BYTES);
+        try {
+            return CachedTokenCodec.decode(cipher.decrypt(iv, cipherText, aad));
+        } catch (GeneralSecurityException | IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    /**
+     * 認証情報をファイルに追記する. ファイルサイズが上限に達している場合は追記しない.
+     * @param key キャッシュキー
+     * @param token 認証情報
+     * @throws IOException 書き込みに失敗した場合
+     */
+    void append(String key, CachedToken token) throws IOException {
+        byte[] keyHash = sha256(key.getBytes(StandardCharsets.UTF_8));
+        byte[] iv = cipher.newIv();
+        byte[] cipherText;
+        try {
+            cipherText = cipher.encrypt(iv, CachedTokenCodec.encode(token), keyHash);
+        } catch (GeneralSecurityException e) {
+            throw new IOException("Failed to encrypt cached token.", e);
+        }
+        write(keyHash, token.getExpiration(), iv, cipherText, false);
+    }
+
+    /**
+     * キーの無効化を記録する. 次回起動時にそれ以前のレコードは読み込まれない.
+     * @param key キャッシュキー
+     * @throws IOException 書き込みに失敗した場合
+     */
+    void delete(String key) throws IOException {
+        write(sha256(key.getBytes(StandardCharsets.UTF_8)), 0, new byte[IV_BYTES], new byte[0], true);
+    }
+
+    /**
+     * 未参照の起動時のレコードを全て無効化する.
+     * @throws IOException 書き込みに失敗した場合
+     */
+    void discardPending() throws IOException {
+        String[] keyHashes;
+        synchronized (index) {
+            keyHashes = index.keySet().toArray(new String[0]);
+            index.clear();
+        }
+        for (String keyHash : keyHashes) {
+            write(HexFormat.of().parseHex(keyHash), 0, new byte[IV_BYTES], new byte[0], true);
+        }
+    }
+
+    /**
+     * レコードを追記する. 無効化の記録はファイルサイズの上限を超えても書き込む.
+     */
+    private void write(byte[] keyHash, long expiration, byte[] iv, byte[] cipherText, boolean force)
+            throws IOException {
+        int length = RECORD_HEADER_BYTES + cipherText.length;
+        ByteBuffer record = ByteBuffer.allocate(Integer.BYTES + length);
+        record.putInt(length).put(keyHash).putLong(expiration).put(iv).put(cipherText).flip();
+        synchronized (this) {
+            if (!force && channel.size() + record.remaining() > maxBytes) {
+                return;
+            }
+            while (record.hasRemaining()) {
+                channel.write(record);
+            }
+        }
+    }
+
+    /**
+     * @return 未参照の有効なレコード数
+     */
+    int pending() {
+        synchronized (index) {
+            return index.size();
+        }
+    }
+
+    /**
+     * @return ファイルのパス
+     */
+    Path getPath() {
+        return path;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        channel.close();
+    }
+
+    private static String keyHash(ByteBuffer data, int offset) {
+        byte[] hash = new byte[KEY_HASH_BYTES];
+        ByteBuffer slice = data.duplicate();
+        slice.position(offset);
+        slice.get(hash);
+        return HexFormat.of().formatHex(hash);
+    }
+
+    private static byte[] sha256(byte[] value) {
+        return TokenCipher.sha256(value);
+    }
+
+    /**
+     * レコードの位置.
+     */
+    private static final class Record {
+        private final int offset;
+        private final int length;
+        private final long expiration;
+
+        Record(int offset, int length, long expiration) {
+            this.offset = offset;
+            this.length = length;
+            this.expiration = expiration;
+        }
+    }
+}
@@ -0,0 +1,195 @@
+/**
+ * Personium
+ * Copyright 2016 FUJITSU LIMITED
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.personium.engine.extension.aws.sts;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.mozilla.javascript.ScriptRuntime;
+import org.mozilla.javascript.Scriptable;
+import org.mozilla.javascript.Undefined;
+
+/**
+ * 事前にシリアライズしたポリシーのテンプレート.
+ * <br />
+ * ポリシーの文字列の値に含まれる「${名前}」をプレースホルダとし、登録時に正規形のJSON文字列を
+ * 固定部分とプレースホルダに分割して保持する。発行時はパラメータの値をエスケープして固定部分の間に連結するだけで、
+ * オブジェクトの作成と走査は行わない。
+ * パラメータを埋め込んだポリシーは値ごとに異なるため、インターンテーブルには登録しない。
+ * インターンテーブルを共有するのは、プレースホルダを含まない(固定部分のみの)テンプレートに限る。
+ * 名前にはコロンを含められないため、「${aws:username}」などIAMのポリシー変数はそのままAWSへ送信される。
+ * <br />
+ * 登録したテンプレートは、登録した認証情報(AccessKeyIdとSecretAccessKeyのハッシュ値)ごとに管理する。
+ * 別の認証情報で登録されたテンプレートは参照・置き換えできない。
+ */
+final class PolicyTemplate {
+
+    /** 認証情報ごとに登録できるテンプレート数の上限. */
+    static final int MAX_TEMPLATES = 1024;
+
+    /** パラメータの値の長さの見込み(バッファの初期容量の計算に使用). */
+    private static final int PARAMETER_LENGTH_HINT = 32;
+    private static final Pattern PLACEHOLDER = Pattern.compile("\\$\\{([A-Za-z_][A-Za-z0-9_]*)\\}");
+    /** 認証情報のキーごとの登録済みテンプレート. */
+    private static final ConcurrentMap<String, ConcurrentMap<String, PolicyTemplate>> TEMPLATES =
+            new ConcurrentHashMap<>();
+
+    /** 固定部分. プレースホルダの数より1つ多い. */
+    private final String[] literals;
+    /** プレースホルダの名前. */
+    private final String[] names;
+    private final Set<String> parameterNames;
+    private final int literalLength;
+    /** プレースホルダを含まない場合のポリシー. 含む場合はnull. */
+    private final CanonicalPolicy constant;
+
+    private PolicyTemplate(String[] literals, String[] names) {
+        this.literals = literals;
+        this.names = names;
+        Set<String> distinct = new LinkedHashSet<>();
+        Collections.addAll(distinct, names);
+        this.parameterNames = Collections.unmodifiableSet(distinct);
+        int length = 0;
+        for (String literal : literals) {
+            length += literal.length();
+        }
+        this.literalLength = length;
+        if (names.length == 0) {
+            this.constant = CanonicalPolicy.intern(literals[0]);
+        } else {
+            this.constant = null;
+        }
+    }
+
+    /**
+     * ポリシーをテンプレートに変換する.
+     * @param policy プレースホルダを含むポリシー
+     * @param minify 要素数1の配列を縮小する場合true
+     * @return テンプレート
+     * @throws IllegalArgumentException 入れ子が深すぎる(循環参照を含む)場合
+     */
+    static PolicyTemplate compile(Scriptable policy, boolean minify) {
+        return parse(PolicyWriter.write(policy, true, minify));
+    }
+
+    /**
+     * シリアライズしたポリシーをテンプレートに変換する.
+     * @param json プレースホルダを含むシリアライズしたポリシー
+     * @return テンプレート
+     */
+    static PolicyTemplate parse(String json) {
+        List<String> literals = new ArrayList<>();
+        List<String> names = new ArrayList<>();
+        Matcher matcher = PLACEHOLDER.matcher(json);
+        int start = 0;
+        while (matcher.find()) {
+            literals.add(json.substring(start, matcher.start()));
+            names.add(matcher.group(1));
+            start = matcher.end();
+        }
+        literals.add(json.substring(start));
+        return new PolicyTemplate(literals.toArray(new String[0]), names.toArray(new String[0]));
+    }
+
+    /**
+     * テンプレートを登録する. 同じ認証情報で同じ名前のテンプレートは置き換える.
+     * @param owner 登録する認証情報のキー(FailureCache.credentialKey)
+     * @param name テンプレート名
+     * @param template テンプレート
+     * @throws IllegalArgumentException 認証情報ごとの登録数が上限に達している場合
+     */
+    static void register(String owner, String name, PolicyTemplate template) {
+        ConcurrentMap<String, PolicyTemplate> templates = TEMPLATES.computeIfAbsent(owner,
+                key -> new ConcurrentHashMap<>());
+        if (!templates.containsKey(name) && templates.size() >= MAX_TEMPLATES) {
+            throw new IllegalArgumentException("too many policy templates: " + MAX_TEMPLATES);
+        }
+        templates.put(name, template);
+    }
+
+    /**
+     * 登録済みのテンプレートを返す.
+     * @param owner 登録した認証情報のキー
+     * @param name テンプレート名
+     * @return テンプレート
+     * @throws IllegalArgumentException この認証情報で登録されていない場合
+     */
+    static PolicyTemplate get(String owner, String name) {
+        PolicyTemplate template = null;
+        ConcurrentMap<String, PolicyTemplate> templates = TEMPLATES.get(owner);
+        if (templates != null) {
+            template = templates.get(name);
+        }
+        if (template == null) {
+            throw new IllegalArgumentException("policy template is not registered: " + name);
+        }
+        return template;
+    }
+
+    /**
+     * テンプレートの登録を削除する.
+     * @param owner 登録した認証情報のキー
+     * @param name テンプレート名
+     * @return 削除した場合true
+     */
+    static boolean unregister(String owner, String name) {
+        ConcurrentMap<String, PolicyTemplate> templates = TEMPLATES.get(owner);
+        return templates != null && templates.remove(name) != null;
+    }
+
+    /**
+     * @return プレースホルダの名前(出現順、重複なし)
+     */
+    Set<String> getParameterNames() {
+        return parameterNames;
+    }
+
+    /**
+     * パラメータの値を埋め込んだポリシーを返す.
+     * <br />
+     * 値は文字列に変換し、JSONの文字列としてエスケープして埋め込む。
+     * @param parameters パラメータ(プレースホルダの名前と値)
+     * @return 正規化したポリシー
+     * @throws IllegalArgumentException パラメータが不足している場合
+     */
+    CanonicalPolicy render(Scriptable parameters) {
+        if (constant != null) {
+            return constant;
+        }
+        StringBuilder out = new StringBuilder(literalLength + names.length * PARAMETER_LENGTH_HINT);
+        out.append(literals[0]);
+        for (int i = 0; i < names.length; i++) {
+            Object value = Scriptable.NOT_FOUND;
+            if (parameters != null) {
+                value = parameters.get(names[i], parameters);
+            }
+            if (value == Scriptable.NOT_FOUND || value == null || value instanceof Undefined) {
+                throw new IllegalArgumentException("policy template parameter is missing: " + names[i]);
+            }
+            PolicyWriter.appendEscaped(out, ScriptRuntime.toString(value));
+            out.append(literals[i + 1]);
+        }
+        return new CanonicalPolicy(out.toString());
+    }
+}
@@ -0,0 +1,247 @@
+/**
+ * Personium
+ * Copyright 2016 FUJITSU LIMITED
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.personium.engine.extension.aws.sts;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.mozilla.javascript.Callable;
+import org.mozilla.javascript.NativeArray;
+import org.mozilla.javascript.ScriptRuntime;
+import org.mozilla.javascript.Scriptable;
+import org.mozilla.javascript.Undefined;
+import org.mozilla.javascript.Wrapper;
+
+/**
+ * RhinoのオブジェクトをポリシーのJSON文字列に変換する.
+ * <br />
+ * 入れ子のオブジェクト、配列、数値、真偽値、文字列(ConsStringを含む)を中間のMapを作らずに1回の走査で書き出す。
+ * 値の扱いはJSON.stringifyに合わせ、オブジェクトのundefinedと関数は出力せず、配列では null とする。
+ * 正規形を指定した場合は、オブジェクトのキーを文字列の昇順に並べて出力する。
+ * 縮小を指定した場合は、Statement、Action、Resourceなど単一の値を配列と同じ意味で受け付けるキーの
+ * 要素数1の配列を、要素そのものとして出力する。
+ * 書き出し先のバッファはスレッドごとに再利用する。
+ */
+final class PolicyWriter {
+
+    /** 入れ子の深さの上限(循環参照の検出). */
+    static final int MAX_DEPTH = 64;
+
+    /** 再利用するバッファの容量の上限(これを超えた場合は破棄する). */
+    private static final int MAX_RETAINED_CAPACITY = 64 * 1024;
+    private static final int INITIAL_CAPACITY = 1024;
+    private static final char LAST_CONTROL_CHAR = 0x1f;
+    private static final int UNICODE_ESCAPE_DIGITS = 4;
+    private static final int DECIMAL_RADIX = 10;
+    /** 要素数1の配列を要素そのものに置き換えられるキー. */
+    private static final Set<String> SINGLE_VALUE_KEYS = Collections.unmodifiableSet(new HashSet<>(Arrays.asList(
+            "Statement", "Action", "NotAction", "Resource", "NotResource")));
+
+    private static final ThreadLocal<StringBuilder> BUFFER =
+            ThreadLocal.withInitial(() -> new StringBuilder(INITIAL_CAPACITY));
+
+    private final StringBuilder out;
+    private final boolean canonical;
+    private final boolean minify;
+
+    private PolicyWriter(StringBuilder out, boolean canonical, boolean minify) {
+        this.out = out;
+        this.canonical = canonical;
+        this.minify = minify;
+    }
+
+    /**
+     * ポリシーをJSON文字列に変換する.
+     * @param policy ポリシー
+     * @return JSON文字列
+     * @throws IllegalArgumentException 入れ子が深すぎる(循環参照を含む)場合
+     */
+    static String write(Scriptable policy) {
+        return write(policy, false, false);
+    }
+
+    /**
+     * ポリシーをJSON文字列に変換する.
+     * @param policy ポリシー
+     * @param canonical 正規形(キーを昇順に並べる)で出力する場合true
+     * @param minify 要素数1の配列を縮小する場合true
+     * @return JSON文字列
+     * @throws IllegalArgumentException 入れ子が深すぎる(循環参照を含む)場合
+     */
+    static String write(Scriptable policy, boolean canonical, boolean minify) {
+        StringBuilder buffer = BUFFER.get();
+        buffer.setLength(0);
+        try {
+            new PolicyWriter(buffer, canonical, minify).writeObject(policy, 0);
+            return buffer.toString();
+        } finally {
+            if (buffer.capacity() > MAX_RETAINED_CAPACITY) {
+                BUFFER.remove();
+            }
+        }
+    }
+
+    /**
+     * 値を書き出す.
+     * @return 値を書き出した場合true、出力対象外(undefined、関数)の場合false
+     */
+    private boolean writeValue(Object value, int depth) {
+        Object target = value;
+        if (target instanceof Wrapper) {
+            target = ((Wrapper) target).unwrap();
+        }
+        if (target == null) {
+            out.append("null");
+        } else if (target instanceof Undefined || target == Scriptable.NOT_FOUND || target instanceof Callable) {
+            return false;
+        } else if (target instanceof CharSequence) {
+            writeString(out, (CharSequence) target);
+        } else if (target instanceof Boolean) {
+            out.append(((Boolean) target).booleanValue());
+        } else if (target instanceof Integer || target instanceof Long
+                || target instanceof Short || target instanceof Byte) {
+            out.append(((Number) target).longValue());
+        } else if (target instanceof Number) {
+            writeNumber(out, ((Number) target).doubleValue());
+        } else if (target instanceof NativeArray) {
+            writeArray((NativeArray) target, depth + 1);
+        } else if (target instanceof Scriptable) {
+            writeObject((Scriptable) target, depth + 1);
+        } else {
+            writeString(out, target.toString());
+        }
+        return true;
+    }
+
+    private void writeObject(Scriptable object, int depth) {
+        checkDepth(depth);
+        out.append('{');
+        boolean first = true;
+        Object[] ids = object.getIds();
+        if (canonical) {
+            Arrays.sort(ids, (a, b) -> a.toString().compareTo(b.toString()));
+        }
+        for (Object id : ids) {
+            Object value;
+            if (id instanceof Integer) {
+                value = object.get((Integer) id, object);
+            } else {
+                value = object.get(id.toString(), object);
+            }
+            if (minify && value instanceof NativeArray && ((NativeArray) value).getLength() == 1
+                    && SINGLE_VALUE_KEYS.contains(id.toString())) {
+                value = ((NativeArray) value).get(0, (NativeArray) value);
+            }
+            int mark = out.length();
+            if (!first) {
+                out.append(',');
+            }
+            writeString(out, id.toString());
+            out.append(':');
+            if (writeValue(value, depth)) {
+                first = false;
+            } else {
+                out.setLength(mark);
+            }
+        }
+        out.append('}');
+    }
+
+    private void writeArray(NativeArray array, int depth) {
+        checkDepth(depth);
+        out.append('[');
+        long length = array.getLength();
+        for (long i = 0; i < length; i++) {
+            if (i > 0) {
+                out.append(',');
+            }
+            if (!writeValue(array.get((int) i, array), depth)) {
+                out.append("null");
+            }
+        }
+        out.append(']');
+    }
+
+    private static void writeNumber(StringBuilder out, double value) {
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            out.append("null");
+        } else {
+            out.append(ScriptRuntime.numberToString(value, DECIMAL_RADIX));
+        }
+    }
+
+    private static void writeString(StringBuilder out, CharSequence value) {
+        out.append('"');
+        appendEscaped(out, value);
+        out.append('"');
+    }
+
+    /**
+     * 文字列をJSONの文字列リテラルの内容としてエスケープして書き出す(前後の引用符は書き出さない).
+     * @param out 書き出し先
+     * @param value 文字列
+     */
+    static void appendEscaped(StringBuilder out, CharSequence value) {
+        int length = value.length();
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            switch (c) {
+            case '"':
+                out.append("\\\"");
+                break;
+            case '\\':
+                out.append("\\\\");
+                break;
+            case '\b':
+                out.append("\\b");
+                break;
+            case '\f':
+                out.append("\\f");
+                break;
+            case '\n':
+                out.append("\\n");
+                break;
+            case '\r':
+                out.append("\\r");
+                break;
+            case '\t':
+                out.append("\\t");
+                break;
+            default:
+                if (c <= LAST_CONTROL_CHAR) {
+                    String hex = Integer.toHexString(c);
+                    out.append("\\u");
+                    for (int j = hex.length(); j < UNICODE_ESCAPE_DIGITS; j++) {
+                        out.append('0');
+                    }
+                    out.append(hex);
+                } else {
+                    out.append(c);
+                }
+                break;
+            }
+        }
+    }
+
+    private static void checkDepth(int depth) {
+        if (depth > MAX_DEPTH) {
+            throw new IllegalArgumentException("policy is nested too deeply or contains a cycle.");
+        }
+    }
+}
@@ -0,0 +1,188 @@
+/**
+ * Personium
+ * Copyright 2016 FUJITSU LIMITED
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.personium.engine.extension.aws.sts;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.regex.Pattern;
+import java.util.zip.Deflater;
+
+import org.mozilla.javascript.NativeArray;
+import org.mozilla.javascript.Scriptable;
+
+/**
+ * AWSへ問い合わせる前に行う入力値の検査.
+ * <br />
+ * AWSが必ずエラーとする入力(連携ユーザ名の長さと文字種、有効期間の範囲、ポリシーの未定義のキーワード、ポリシーの長さ)を
+ * ローカルで検出し、ネットワークへの問い合わせを行わずにエラーとする。
+ * PackedPolicySizeの概算はAWSの値と一致しないため、警告にのみ使用し、エラーとはしない。
+ * 制限値はAWS STSのAPIリファレンスに記載された値とする。
+ */
+final class Preflight {
+
+    /** 連携ユーザ名の最小文字数. */
+    static final int MIN_NAME_LENGTH = 2;
+    /** 連携ユーザ名の最大文字数. */
+    static final int MAX_NAME_LENGTH = 32;
+    /** 有効期間(秒)の最小値. */
+    static final int MIN_DURATION_SECONDS = 900;
+    /** 有効期間(秒)の最大値. */
+    static final int MAX_DURATION_SECONDS = 129600;
+    /** ポリシー(JSON文字列)の最大文字数. */
+    static final int MAX_POLICY_LENGTH = 2048;
+    /** PackedPolicySize(%)の上限. */
+    static final int MAX_PACKED_POLICY_SIZE = 100;
+
+    private static final Pattern NAME_PATTERN = Pattern.compile("[\\w+=,.@-]+");
+    private static final Set<String> POLICY_KEYWORDS = Collections.unmodifiableSet(new HashSet<>(Arrays.asList(
+            "Version", "Id", "Statement")));
+    private static final Set<String> STATEMENT_KEYWORDS = Collections.unmodifiableSet(new HashSet<>(Arrays.asList(
+            "Sid", "Effect", "Principal", "NotPrincipal", "Action", "NotAction", "Resource", "NotResource",
+            "Condition")));
+    private static final Set<String> EFFECTS = Collections.unmodifiableSet(new HashSet<>(Arrays.asList(
+            "Allow", "Deny")));
+    private static final Set<String> VERSIONS = Collections.unmodifiableSet(new HashSet<>(Arrays.asList(
+            "2012-10-17", "2008-10-17")));
+    private static final int PERCENT = 100;
+    private static final int DEFLATE_BUFFER_SIZE = 512;
+
+    private Preflight() {
+    }
+
+    /**
+     * 連携ユーザ名を検査する.
+     * @param name 連携ユーザ名
+     * @throws IllegalArgumentException AWSが受け付けない値の場合
+     */
+    static void checkName(String name) {
+        if (name == null) {
+            throw new IllegalArgumentException("name cannot be null.");
+        }
+        if (name.length() < MIN_NAME_LENGTH || name.length() > MAX_NAME_LENGTH) {
+            throw new IllegalArgumentException("name must be between " + MIN_NAME_LENGTH + " and "
+                    + MAX_NAME_LENGTH + " characters.");
+        }
+        if (!NAME_PATTERN.matcher(name).matches()) {
+            throw new IllegalArgumentException("name contains invalid characters: " + name);
+        }
+    }
+
+    /**
+     * 有効期間を検査する.
+     * @param durationSeconds 有効期間(秒). 省略時はnull
+     * @throws IllegalArgumentException AWSが受け付けない値の場合
+     */
+    static void checkDuration(Integer durationSeconds) {
+        if (durationSeconds == null) {
+            return;
+        }
+        if (durationSeconds < MIN_DURATION_SECONDS || durationSeconds > MAX_DURATION_SECONDS) {
+            throw new IllegalArgumentException("durationSeconds must be between " + MIN_DURATION_SECONDS + " and "
+                    + MAX_DURATION_SECONDS + ".");
+        }
+    }
+
+    /**
+     * ポリシーのキーワードを検査する.
+     * <br />
+     * 最上位とStatementのキーがIAMポリシーの文法に定義されたものであること、Statementが存在すること、
+     * EffectとVersionの値を検査する。Condition、Principalの内容は検査しない。
+     * @param policy ポリシー
+     * @throws IllegalArgumentException AWSが受け付けないポリシーの場合
+     */
+    static void checkPolicy(Scriptable policy) {
+        checkKeywords(policy, POLICY_KEYWORDS, "policy");
+        Object version = policy.get("Version", policy);
+        if (version != Scriptable.NOT_FOUND && !VERSIONS.contains(String.valueOf(version))) {
+            throw new IllegalArgumentException("policy has an unsupported Version: " + version);
+        }
+        Object statement = policy.get("Statement", policy);
+        if (statement instanceof NativeArray) {
+            NativeArray statements = (NativeArray) statement;
+            for (int i = 0; i < statements.getLength(); i++) {
+                checkStatement(statements.get(i, statements));
+            }
+        } else if (statement == Scriptable.NOT_FOUND) {
+            throw new IllegalArgumentException("policy must contain a Statement.");
+        } else {
+            checkStatement(statement);
+        }
+    }
+
+    /**
+     * シリアライズしたポリシーの長さを検査する.
+     * @param json シリアライズしたポリシー
+     * @throws IllegalArgumentException AWSの上限を超える場合
+     */
+    static void checkPolicyLength(String json) {
+        if (json.length() > MAX_POLICY_LENGTH) {
+            throw new IllegalArgumentException("policy must not exceed " + MAX_POLICY_LENGTH
+                    + " characters: " + json.length());
+        }
+    }
+
+    /**
+     * PackedPolicySize(圧縮後のポリシーの上限に対する割合(%))の概算を返す.
+     * <br />
+     * AWSの圧縮形式は公開されていないため、ポリシーの最大文字数をDeflateで圧縮した場合の上限とみなした概算とする。
+     * 圧縮率が高い(同じ文字列の繰り返しが多い)ポリシーほど小さくなる傾向はAWSの値と一致するが、値は一致しない。
+     * @param json シリアライズしたポリシー
+     * @return PackedPolicySizeの概算(%)
+     */
+    static int estimatePackedPolicySize(String json) {
+        int packed = deflatedLength(json.getBytes(StandardCharsets.UTF_8));
+        return (int) Math.ceil((double) packed * PERCENT / MAX_POLICY_LENGTH);
+    }
+
+    private static void checkStatement(Object statement) {
+        if (!(statement instanceof Scriptable) || statement instanceof NativeArray) {
+            throw new IllegalArgumentException("policy Statement must be an object.");
+        }
+        Scriptable object = (Scriptable) statement;
+        checkKeywords(object, STATEMENT_KEYWORDS, "Statement");
+        Object effect = object.get("Effect", object);
+        if (!EFFECTS.contains(String.valueOf(effect))) {
+            throw new IllegalArgumentException("Statement Effect must be Allow or Deny.");
+        }
+    }
+
+    private static void checkKeywords(Scriptable object, Set<String> keywords, String location) {
+        for (Object id : object.getIds()) {
+            if (!keywords.contains(id.toString())) {
+                throw new IllegalArgumentException(location + " contains an unknown keyword: " + id);
+            }
+        }
+    }
+
+    private static int deflatedLength(byte[] input) {
+        Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION, true);
+        try {
+            deflater.setInput(input);
+            deflater.finish();
+            byte[] buffer = new byte[DEFLATE_BUFFER_SIZE];
+            while (!deflater.finished()) {
+                deflater.deflate(buffer);
+            }
+            return (int) deflater.getBytesWritten();
+        } finally {
+            deflater.end();
+        }
+    }
+}
@@ -0,0 +1,214 @@
+/**
+ * Personium
+ * Copyright 2016 FUJITSU LIMITED
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.personium.engine.extension.aws.sts;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+/**
+ * Redisを共有ストアとするキャッシュ.
+ * <br />
+ * ロードバランサ配下の複数のエンジンで発行済みの認証情報を共有し、同じユーザの認証情報をエンジンごとに発行しないようにする。
+ * 参照はプロセス内のキャッシュを優先し、存在しない場合に共有ストアから取得してプロセス内にも保持する。
+ * 発行・再発行した認証情報は有効期限までのTTLを指定して共有ストアに書き込む。
+ * 認証情報はTokenCipherで暗号化し、キャッシュキーを追加認証データとする。
+ * 鍵導出のソルトは共有ストアのソルト用のキーに1つだけ保持し(最初に接続したエンジンが作成する)、全てのエンジンで共有する。
+ * ソルトが失われた場合(共有ストアの初期化など)は、それ以前のエントリは復号できずキャッシュミスとなる。
+ * <br />
+ * 共有ストアに接続できない場合はプロセス内のキャッシュのみで動作する。接続できない間はRespClientが一定時間
+ * 接続を試みずにエラーとするため、共有ストアの障害中も参照・発行はタイムアウトを待たずに行われる。
+ * 無効化は共有ストアと自エンジンのプロセス内キャッシュに適用され、他のエンジンのプロセス内キャッシュには適用されない。
+ * 共有ストアの無効化は、キーの認証情報の部分をSCANのMATCHで指定し、対象の認証情報のキーのみを走査する。
+ */
+final class RedisTokenCacheBackend implements TokenCacheBackend {
+
+    /** 共有ストアのキーの接頭辞の既定値. */
+    static final String DEFAULT_KEY_PREFIX = "personium:awssts:";
+
+    private static final String SCAN_COUNT = "1000";
+    /** 鍵導出のソルトを保持するキー(接頭辞以降). 区切り文字(|)を含まないため無効化の対象とならない. */
+    private static final String SALT_KEY = "salt";
+    private static final String GLOB_SPECIALS = "*?[]\\";
+
+    private final TokenCache local;
+    private final RespClient client;
+    private final String passphrase;
+    private final String keyPrefix;
+    private volatile TokenCipher cipher;
+
+    /**
+     * コンストラクタ. 暗号化の鍵は共有ストアのソルトを取得した時点で導出する.
+     * @param local プロセス内のキャッシュ
+     * @param client 共有ストアのクライアント
+     * @param passphrase 暗号鍵の元となるパスフレーズ
+     * @param keyPrefix 共有ストアのキーの接頭辞
+     */
+    RedisTokenCacheBackend(TokenCache local, RespClient client, String passphrase, String keyPrefix) {
+        this.local = local;
+        this.client = client;
+        this.passphrase = passphrase;
+        this.keyPrefix = keyPrefix;
+    }
+
+    /**
+     * 認証情報の暗号化を取得する. 初回は共有ストアのソルトを取得(存在しない場合は作成)して鍵を導出する.
+     * @return 認証情報の暗号化
+     * @throws IOException 共有ストアに接続できない場合、またはソルトの形式が正しくない場合
+     */
+    private TokenCipher cipher() throws IOException {
+        TokenCipher current = this.cipher;
+        if (current != null) {
+            return current;
+        }
+        synchronized (this) {
+            if (this.cipher == null) {
+                String saltKey = keyPrefix + SALT_KEY;
+                client.command("SET", saltKey, TokenCipher.newSalt(), "NX");
+                Object salt = client.command("GET", saltKey);
+                if (!(salt instanceof byte[]) || ((byte[]) salt).length != TokenCipher.SALT_BYTES) {
+                    throw new IOException("Invalid salt in the shared store: " + saltKey);
+                }
+                this.cipher = new TokenCipher(passphrase, (byte[]) salt);
+            }
+            return this.cipher;
+        }
+    }
+
+    @Override
+    public CachedToken get(String key, long now, long marginMillis) {
+        CachedToken token = local.get(key, now, marginMillis);
+        if (token != null) {
+            return token;
+        }
+        TokenCipher tokenCipher;
+        Object value;
+        try {
+            tokenCipher = cipher();
+            value = client.command("GET", keyPrefix + key);
+        } catch (IOException e) {
+            return null;
+        }
+        if (!(value instanceof byte[])) {
+            return null;
+        }
+        try {
+            token = CachedTokenCodec.decode(tokenCipher.open((byte[]) value, key.getBytes(StandardCharsets.UTF_8)));
+        } catch (GeneralSecurityException | IllegalArgumentException e) {
+            return null;
+        }
+        if (token.getExpiration() - now <= marginMillis) {
+            return null;
+        }
+        local.put(key, token);
+        return token;
+    }
+
+    @Override
+    public void put(final String key, CachedToken token, final Supplier<CachedToken> loader) {
+        Supplier<CachedToken> publishing = null;
+        if (loader != null) {
+            // バックグラウンドで再発行した認証情報も共有ストアに書き込む
+            publishing = () -> {
+                CachedToken renewed = loader.get();
+                publish(key, renewed);
+                return renewed;
+            };
+        }
+        local.put(key, token, publishing);
+        publish(key, token);
+    }
+
+    private void publish(String key, CachedToken token) {
+        long ttl = token.getExpiration() - System.currentTimeMillis();
+        if (ttl <= 0) {
+            return;
+        }
+        try {
+            byte[] sealed = cipher().seal(CachedTokenCodec.encode(token), key.getBytes(StandardCharsets.UTF_8));
+            client.command("SET", keyPrefix + key, sealed, "PX", Long.toString(ttl));
+        } catch (GeneralSecurityException | IOException e) {
+            // 共有できない場合もプロセス内のキャッシュは有効
+            return;
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * <br />
+     * 共有ストアはSCANの1回の応答ごとに一致したキーをまとめて削除する。コマンドは1回ずつ実行するため、
+     * 走査中も他のスレッドのGET、SETは走査の完了を待たずに実行される。
+     * 削除したエントリ数は、共有ストアで削除したキーの数とプロセス内のキャッシュで削除したエントリ数の合計とする。
+     */
+    @Override
+    public int invalidate(String accessKeyId, String secretAccessKey, Predicate<String> filter) {
+        int count = local.invalidate(accessKeyId, secretAccessKey, filter);
+        Predicate<String> scoped = TokenCache.byCredential(accessKeyId, secretAccessKey).and(filter);
+        String pattern = escapeGlob(keyPrefix) + "*|" + escapeGlob(String.valueOf(accessKeyId)) + "|"
+                + StsClientKey.hash(secretAccessKey) + "|*";
+        try {
+            String cursor = "0";
+            do {
+                List<?> reply = (List<?>) client.command("SCAN", cursor, "MATCH", pattern, "COUNT", SCAN_COUNT);
+                cursor = new String((byte[]) reply.get(0), StandardCharsets.UTF_8);
+                List<Object> del = new ArrayList<>();
+                del.add("DEL");
+                for (Object item : (List<?>) reply.get(1)) {
+                    String storeKey = new String((byte[]) item, StandardCharsets.UTF_8);
+                    if (storeKey.startsWith(keyPrefix) && scoped.test(storeKey.substring(keyPrefix.length()))) {
+                        del.add(storeKey);
+                    }
+                }
+                if (del.size() > 1) {
+                    count += ((Long) client.command(del.toArray())).intValue();
+                }
+            } while (!"0".equals(cursor));
+        } catch (IOException | ClassCastException | IndexOutOfBoundsException e) {
+            // 共有ストアに残ったエントリは他のエンジンから参照されうるため、呼び出し元に通知する
+            throw new IllegalStateException("Failed to invalidate the shared token cache: " + e.getMessage(), e);
+        }
+        return count;
+    }
+
+    /**
+     * SCANのMATCHで特別な意味を持つ文字をエスケープする.
+     */
+    private static String escapeGlob(String value) {
+        StringBuilder escaped = new StringBuilder(value.length());
+        for (char c : value.toCharArray()) {
+            if (GLOB_SPECIALS.indexOf(c) >= 0) {
+                escaped.append('\\');
+            }
+            escaped.append(c);
+        }
+        return escaped.toString();
+    }
+
+    /**
+     * 共有ストアへの接続を閉じ、プロセス内のキャッシュのバックグラウンド処理を停止する.
+     * 以降の共有ストアへのコマンドはエラーとなり、プロセス内のキャッシュのみで動作する.
+     */
+    @Override
+    public void shutdown() {
+        client.close();
+        local.shutdown();
+    }
+}
@@ -0,0 +1,95 @@
+/**
+ * Personium
+ * Copyright 2016 FUJITSU LIMITED
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.personium.engine.extension.aws.sts;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Supplier;
+
+import com.amazonaws.AmazonClientException;
+
+/**
+ * 同一リクエストの同時実行を1回にまとめる.
+ * <br />
+ * 同じキーの処理が実行中の場合は新たに実行せず、実行中の処理の結果(または例外)を待ち合わせて返す。
+ * 待ち合わせる側は各自のタイムアウトで待機を打ち切る。
+ * @param <T> 処理結果の型
+ */
+final class RequestCoalescer<T> {
+
+    private final ConcurrentMap<String, CompletableFuture<T>> inFlight = new ConcurrentHashMap<>();
+
+    /**
+     * 処理を実行する. 同じキーの処理が実行中の場合はその結果を待ち合わせる.
+     * @param key リクエストのキー
+     * @param loader 処理
+     * @param timeoutMillis 待ち合わせる場合のタイムアウト(ミリ秒). 0以下の場合は無期限
+     * @return 処理結果
+     * @throws AmazonClientException 待ち合わせがタイムアウトまたは割り込まれた場合
+     */
+    T execute(String key, Supplier<T> loader, long timeoutMillis) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        CompletableFuture<T> running = inFlight.putIfAbsent(key, future);
+        if (running == null) {
+            try {
+                T result = loader.get();
+                future.complete(result);
+                return result;
+            } catch (RuntimeException | Error e) {
+                future.completeExceptionally(e);
+                throw e;
+            } finally {
+                inFlight.remove(key, future);
+            }
+        }
+        return await(running, timeoutMillis);
+    }
+
+    private T await(CompletableFuture<T> running, long timeoutMillis) {
+        try {
+            if (timeoutMillis <= 0) {
+                return running.get();
+            }
+            return running.get(timeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new AmazonClientException(cause.getMessage(), cause);
+        } catch (TimeoutException e) {
+            throw new AmazonClientException("Timed out waiting for an identical in-flight request.", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new AmazonClientException("Interrupted while waiting for an identical in-flight request.", e);
+        }
+    }
+
+    /**
+     * @return 実行中の処理数
+     */
+    int size() {
+        return inFlight.size();
+    }
+}
@@ -0,0 +1,356 @@
+/**
+ * Personium
+ * Copyright 2016 FUJITSU LIMITED
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.personium.engine.extension.aws.sts;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * RESP(Redisシリアライゼーションプロトコル)の最小限のクライアント.
+ * <br />
+ * 上限数までの接続をプールし、コマンドは接続ごとに逐次実行する。エラー応答の場合は接続を再利用し、
+ * 通信エラーの場合は接続を破棄する。
+ * 接続・通信に失敗した場合は一定時間(失敗が続く場合は上限まで倍にする)共有ストアを使用不可とし、
+ * その間のコマンドは接続を試みずにエラーとする。呼び出し側は共有ストアを使用せずに処理を継続する。
+ * 応答は、単純文字列をString、整数をLong、バルク文字列をbyte[]、配列をList、nullをnullとして返す。
+ */
+final class RespClient implements Closeable {
+
+    /** 接続数の上限の既定値. */
+    static final int DEFAULT_POOL_SIZE = 8;
+    /** 接続・通信に失敗した後に使用不可とする時間(ミリ秒)の初期値. */
+    static final long INITIAL_BACKOFF_MILLIS = 1000L;
+    /** 接続・通信に失敗した後に使用不可とする時間(ミリ秒)の上限. */
+    static final long MAX_BACKOFF_MILLIS = 30 * 1000L;
+
+    private static final byte[] CRLF = {'\r', '\n'};
+
+    private final String host;
+    private final int port;
+    private final int timeoutMillis;
+    private final String password;
+    private final int database;
+    private final Semaphore permits;
+    private final BlockingQueue<Connection> idle;
+    private volatile long backoffMillis;
+    private volatile long unavailableUntil;
+    private volatile boolean closed;
+
+    /**
+     * コンストラクタ. 接続は最初のコマンド実行時に行う.
+     * @param host ホスト名
+     * @param port ポート番号
+     * @param timeoutMillis 接続・応答のタイムアウト(ミリ秒). 空き接続の待ち時間にも使用する
+     * @param password AUTHのパスワード. 不要な場合はnull
+     * @param database SELECTするデータベース番号
+     * @param poolSize 接続数の上限
+     */
+    RespClient(String host, int port, int timeoutMillis, String password, int database, int poolSize) {
+        this.host = host;
+        this.port = port;
+        this.timeoutMillis = timeoutMillis;
+        this.password = password;
+        this.database = database;
+        this.permits = new Semaphore(poolSize);
+        this.idle = new LinkedBlockingQueue<>(poolSize);
+    }
+
+    /**
+     * コマンドを実行する.
+     * <br />
+     * プールした接続がサーバ側で切断されている場合があるため、プールした接続で通信エラーとなった場合は
+     * 新しい接続で1回だけ再実行する。コマンドはGET、SET、DEL、SCANのみのため再実行しても結果は変わらない。
+     * @param args コマンドと引数. Stringまたはbyte[]
+     * @return 応答
+     * @throws IOException 使用不可の期間中、通信エラーまたはエラー応答の場合
+     */
+    Object command(Object... args) throws IOException {
+        if (closed) {
+            throw new IOException("Client is closed.");
+        }
+        if (isUnavailable()) {
+            throw new IOException("Redis is unavailable. Retrying after backoff.");
+        }
+        acquire();
+        try {
+            Connection pooled = idle.poll();
+            if (pooled != null) {
+                try {
+                    return execute(pooled, args);
+                } catch (ErrorReplyException e) {
+                    throw e;
+                } catch (IOException e) {
+                    // 切断済みの接続の場合があるため、新しい接続で再実行する
+                    pooled.close();
+                }
+            }
+            try {
+                return execute(open(), args);
+            } catch (ErrorReplyException e) {
+                throw e;
+            } catch (IOException e) {
+                markUnavailable();
+                throw e;
+            }
+        } finally {
+            permits.release();
+        }
+    }
+
+    private void acquire() throws IOException {
+        try {
+            if (!permits.tryAcquire(timeoutMillis, TimeUnit.MILLISECONDS)) {
+                throw new IOException("Timed out waiting for a Redis connection.");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for a Redis connection.");
+        }
+    }
+
+    /**
+     * 接続でコマンドを実行し、接続をプールに戻す. 通信エラーの場合は接続を破棄する.
+     */
+    private Object execute(Connection connection, Object... args) throws IOException {
+        Object reply;
+        try {
+            reply = connection.send(args);
+        } catch (ErrorReplyException e) {
+            recycle(connection);
+            throw e;
+        } catch (IOException e) {
+            connection.close();
+            throw e;
+        }
+        recycle(connection);
+        markAvailable();
+        return reply;
+    }
+
+    private void recycle(Connection connection) {
+        if (closed || !idle.offer(connection)) {
+            connection.close();
+        }
+    }
+
+    private Connection open() throws IOException {
+        Socket s = new Socket();
+        try {
+            s.connect(new InetSocketAddress(host, port), timeoutMillis);
+            s.setSoTimeout(timeoutMillis);
+            s.setTcpNoDelay(true);
+            Connection connection = new Connection(s);
+            if (password != null) {
+                connection.send("AUTH", password);
+            }
+            if (database != 0) {
+                connection.send("SELECT", Integer.toString(database));
+            }
+            return connection;
+        } catch (IOException e) {
+            closeQuietly(s);
+            // 認証・DB選択のエラー応答も接続の失敗として扱う
+            throw new IOException("Failed to connect to Redis: " + e.getMessage(), e);
+        }
+    }
+
+    private synchronized void markUnavailable() {
+        long backoff = INITIAL_BACKOFF_MILLIS;
+        if (backoffMillis > 0) {
+            backoff = Math.min(backoffMillis * 2, MAX_BACKOFF_MILLIS);
+        }
+        this.backoffMillis = backoff;
+        this.unavailableUntil = System.currentTimeMillis() + backoff;
+    }
+
+    private void markAvailable() {
+        if (backoffMillis == 0) {
+            return;
+        }
+        synchronized (this) {
+            this.backoffMillis = 0;
+            this.unavailableUntil = 0;
+        }
+    }
+
+    /**
+     * @return 接続・通信の失敗により使用不可の期間中の場合true
+     */
+    boolean isUnavailable() {
+        return System.currentTimeMillis() < unavailableUntil;
+    }
+
+    private static long parseLong(String value) throws IOException {
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            throw new IOException("Malformed integer: " + value, e);
+        }
+    }
+
+    private static void closeQuietly(Socket s) {
+        try {
+            s.close();
+        } catch (IOException e) {
+            // 破棄するため無視する
+            return;
+        }
+    }
+
+    @Override
+    public void close() {
+        this.closed = true;
+        Connection connection = idle.poll();
+        while (connection != null) {
+            connection.close();
+            connection = idle.poll();
+        }
+    }
+
+    /**
+     * サーバのエラー応答. 通信は正常なため接続は再利用できる.
+     */
+    private static final class ErrorReplyException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        ErrorReplyException(String message) {
+            super(message);
+        }
+    }
+
+    /**
+     * プールする1本の接続.
+     */
+    private static final class Connection {
+        private final Socket socket;
+        private final InputStream in;
+        private final OutputStream out;
+
+        Connection(Socket socket) throws IOException {
+            this.socket = socket;
+            this.in = new BufferedInputStream(socket.getInputStream());
+            this.out = new BufferedOutputStream(socket.getOutputStream());
+        }
+
+        Object send(Object... args) throws IOException {
+            writeLine('*', Integer.toString(args.length));
+            for (Object arg : args) {
+                byte[] bytes;
+                if (arg instanceof byte[]) {
+                    bytes = (byte[]) arg;
+                } else {
+                    bytes = String.valueOf(arg).getBytes(StandardCharsets.UTF_8);
+                }
+                writeLine('$', Integer.toString(bytes.length));
+                out.write(bytes);
+                out.write(CRLF);
+            }
+            out.flush();
+            return read();
+        }
+
+        private void writeLine(char type, String value) throws IOException {
+            out.write(type);
+            out.write(value.getBytes(StandardCharsets.US_ASCII));
+            out.write(CRLF);
+        }
+
+        private Object read() throws IOException {
+            int type = in.read();
+            String line = readLine();
+            switch (type) {
+            case '+':
+                return line;
+            case '-':
+                throw new ErrorReplyException("Redis error: " + line);
+            case ':':
+                return parseLong(line);
+            case '$':
+                return readBulk((int) parseLong(line));
+            case '*':
+                int count = (int) parseLong(line);
+                if (count < 0) {
+                    return null;
+                }
+                List<Object> values = new ArrayList<>(count);
+                for (int i = 0; i < count; i++) {
+                    values.add(read());
+                }
+                return values;
+            case -1:
+                throw new EOFException("Connection closed by server.");
+            default:
+                throw new IOException("Unexpected RESP type: " + type);
+            }
+        }
+
+        private byte[] readBulk(int length) throws IOException {
+            if (length < 0) {
+                return null;
+            }
+            byte[] value = new byte[length];
+            int offset = 0;
+            while (offset < length) {
+                int read = in.read(value, offset, length - offset);
+                if (read < 0) {
+                    throw new EOFException("Connection closed by server.");
+                }
+                offset += read;
+            }
+            if (in.read() != '\r' || in.read() != '\n') {
+                throw new IOException("Malformed bulk string.");
+            }
+            return value;
+        }
+
+        private String readLine() throws IOException {
+            ByteArrayOutputStream line = new ByteArrayOutputStream();
+            int c = in.read();
+            while (c != '\r') {
+                if (c < 0) {
+                    throw new EOFException("Connection closed by server.");
+                }
+                line.write(c);
+                c = in.read();
+            }
+            if (in.read() != '\n') {
+                throw new IOException("Malformed line.");
+            }
+            return new String(line.toByteArray(), StandardCharsets.UTF_8);
+        }
+
+        void close() {
+            closeQuietly(socket);
+        }
+    }
+}
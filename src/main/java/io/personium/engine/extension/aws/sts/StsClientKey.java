@@ -0,0 +1,155 @@
+/**
+ * Personium
+ * Copyright 2016 FUJITSU LIMITED
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.personium.engine.extension.aws.sts;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.Objects;
+
+import com.amazonaws.ClientConfiguration;
+
+/**
+ * STSクライアントを共有するためのキー.
+ * <br />
+ * 認証情報、接続先、Proxy、コネクションプールおよびソケット設定など、
+ * クライアントの生成に影響する設定値のスナップショットを保持する不変オブジェクト。
+ * SecretAccessKey、Proxyパスワードはハッシュ値のみを保持する。
+ */
+final class StsClientKey {
+
+    private final String accessKeyId;
+    private final String secretHash;
+    private final StsEndpoint endpoint;
+    private final String proxyHost;
+    private final int proxyPort;
+    private final String proxyUser;
+    private final String proxyPasswordHash;
+    private final int maxConnections;
+    private final long connectionTTL;
+    private final boolean useReaper;
+    private final int socketTimeout;
+    private final int connectionTimeout;
+    private final boolean tcpKeepAlive;
+    private final int socketSendBufferSize;
+    private final int socketReceiveBufferSize;
+
+    /**
+     * コンストラクタ.
+     * @param accessKeyId AWS認証情報(key)
+     * @param secretAccessKey AWS認証情報(secret)
+     * @param endpoint 接続先
+     * @param config クライアント設定
+     */
+    StsClientKey(String accessKeyId, String secretAccessKey, StsEndpoint endpoint, ClientConfiguration config) {
+        this.accessKeyId = accessKeyId;
+        this.secretHash = hash(secretAccessKey);
+        this.endpoint = endpoint;
+        this.proxyHost = config.getProxyHost();
+        this.proxyPort = config.getProxyPort();
+        this.proxyUser = config.getProxyUsername();
+        this.proxyPasswordHash = hash(config.getProxyPassword());
+        this.maxConnections = config.getMaxConnections();
+        this.connectionTTL = config.getConnectionTTL();
+        this.useReaper = config.useReaper();
+        this.socketTimeout = config.getSocketTimeout();
+        this.connectionTimeout = config.getConnectionTimeout();
+        this.tcpKeepAlive = config.useTcpKeepAlive();
+        int[] bufferSizeHints = config.getSocketBufferSizeHints();
+        this.socketSendBufferSize = bufferSizeHints[0];
+        this.socketReceiveBufferSize = bufferSizeHints[1];
+    }
+
+    /**
+     * @return AWS認証情報(key)
+     */
+    String getAccessKeyId() {
+        return accessKeyId;
+    }
+
+    /**
+     * @return AWS認証情報(secret)のハッシュ値
+     */
+    String getSecretHash() {
+        return secretHash;
+    }
+
+    /**
+     * @return 接続先
+     */
+    StsEndpoint getEndpoint() {
+        return endpoint;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (!(obj instanceof StsClientKey)) {
+            return false;
+        }
+        StsClientKey other = (StsClientKey) obj;
+        return proxyPort == other.proxyPort
+                && maxConnections == other.maxConnections
+                && connectionTTL == other.connectionTTL
+                && useReaper == other.useReaper
+                && socketTimeout == other.socketTimeout
+                && connectionTimeout == other.connectionTimeout
+                && tcpKeepAlive == other.tcpKeepAlive
+                && socketSendBufferSize == other.socketSendBufferSize
+                && socketReceiveBufferSize == other.socketReceiveBufferSize
+                && Objects.equals(accessKeyId, other.accessKeyId)
+                && Objects.equals(secretHash, other.secretHash)
+                && Objects.equals(endpoint, other.endpoint)
+                && Objects.equals(proxyHost, other.proxyHost)
+                && Objects.equals(proxyUser, other.proxyUser)
+                && Objects.equals(proxyPasswordHash, other.proxyPasswordHash);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(accessKeyId, secretHash, endpoint, proxyHost, proxyPort, proxyUser, proxyPasswordHash,
+                maxConnections, connectionTTL, useReaper, socketTimeout, connectionTimeout, tcpKeepAlive,
+                socketSendBufferSize, socketReceiveBufferSize);
+    }
+
+    @Override
+    public String toString() {
+        return "StsClientKey[accessKeyId=" + accessKeyId + ", endpoint=" + endpoint + ", proxyHost=" + proxyHost
+                + ", proxyPort=" + proxyPort + "]";
+    }
+
+    /**
+     * 文字列のSHA-256ハッシュ値(16進数表記)を返す.
+     * @param value 対象文字列
+     * @return ハッシュ値. 対象文字列がnullの場合はnull
+     */
+    static String hash(String value) {
+        if (value == null) {
+            return null;
+        }
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            return HexFormat.of().formatHex(digest.digest(value.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            // SHA-256は全てのJava実装で利用可能
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,257 @@
+/**
+ * Personium
+ * Copyright 2016 FUJITSU LIMITED
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.personium.engine.extension.aws.sts;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import com.amazonaws.ClientConfiguration;
+import com.amazonaws.auth.BasicAWSCredentials;
+import com.amazonaws.services.securitytoken.AWSSecurityTokenServiceClient;
+
+/**
+ * AWSSecurityTokenServiceClientのプロセス共有レジストリ.
+ * <br />
+ * 同一の認証情報・接続設定に対しては同じクライアントを返し、
+ * スクリプト実行やEngineのスレッドをまたいでKeep-Alive接続を再利用する。
+ * AWSSecurityTokenServiceClientはスレッドセーフであるため、複数スレッドから同時に利用できる。
+ * <br />
+ * 一定時間利用されていないクライアント、および上限数を超えたクライアントはバックグラウンドで破棄(shutdown)する。
+ * 破棄対象のクライアントが処理中の場合は、処理の完了を待ってからshutdownする。
+ */
+final class StsClientRegistry {
+
+    /** クライアントを破棄するまでのアイドル時間(秒)の既定値. */
+    static final long DEFAULT_CLIENT_IDLE_TIMEOUT_SECONDS = 600;
+    /** アイドルクライアントを検査する間隔(秒)の既定値. */
+    static final long DEFAULT_CLIENT_REAP_INTERVAL_SECONDS = 60;
+    /** 保持するクライアント数の上限の既定値. */
+    static final int DEFAULT_MAX_CLIENTS = 256;
+
+    private static final StsClientRegistry INSTANCE = createDefault();
+
+    private final ConcurrentMap<StsClientKey, PooledClient> clients = new ConcurrentHashMap<>();
+    private final long idleTimeoutMillis;
+    private final long reapIntervalMillis;
+    private final int maxClients;
+    private final AtomicBoolean reaperStarted = new AtomicBoolean(false);
+    private volatile ScheduledExecutorService reaper;
+
+    /**
+     * コンストラクタ.
+     * @param idleTimeoutMillis クライアントを破棄するまでのアイドル時間(ミリ秒)
+     * @param reapIntervalMillis アイドルクライアントを検査する間隔(ミリ秒). 0以下の場合はバックグラウンド検査を行わない
+     * @param maxClients 保持するクライアント数の上限
+     */
+    StsClientRegistry(long idleTimeoutMillis, long reapIntervalMillis, int maxClients) {
+        this.idleTimeoutMillis = idleTimeoutMillis;
+        this.reapIntervalMillis = reapIntervalMillis;
+        this.maxClients = maxClients;
+    }
+
+    private static StsClientRegistry createDefault() {
+        Properties properties = StsProperties.load();
+        return new StsClientRegistry(
+                TimeUnit.SECONDS.toMillis(StsProperties.getLong(properties, "ClientIdleTimeoutSeconds",
+                        DEFAULT_CLIENT_IDLE_TIMEOUT_SECONDS)),
+                TimeUnit.SECONDS.toMillis(StsProperties.getLong(properties, "ClientReapIntervalSeconds",
+                        DEFAULT_CLIENT_REAP_INTERVAL_SECONDS)),
+                StsProperties.getInt(properties, "MaxClients", DEFAULT_MAX_CLIENTS));
+    }
+
+    /**
+     * @return プロセス共有のレジストリ
+     */
+    static StsClientRegistry getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * 指定の設定に対応するクライアントで処理を実行する. クライアントが存在しない場合は生成して登録する.
+     * <br />
+     * 処理中のクライアントは破棄されない。
+     * @param <T> 処理結果の型
+     * @param accessKeyId AWS認証情報(key)
+     * @param secretAccessKey AWS認証情報(secret)
+     * @param endpoint 接続先
+     * @param config クライアント設定
+     * @param action クライアントを使用する処理
+     * @return 処理結果
+     * @throws IllegalArgumentException 認証情報またはエンドポイントが不正な場合
+     */
+    <T> T execute(String accessKeyId, String secretAccessKey, StsEndpoint endpoint, ClientConfiguration config,
+            Function<AWSSecurityTokenServiceClient, T> action) {
+        StsClientKey key = new StsClientKey(accessKeyId, secretAccessKey, endpoint, config);
+        while (true) {
+            PooledClient pooled = clients.get(key);
+            if (pooled == null) {
+                pooled = clients.computeIfAbsent(key,
+                        k -> new PooledClient(createClient(accessKeyId, secretAccessKey, endpoint, config)));
+                onRegistered();
+            }
+            pooled.inFlight.incrementAndGet();
+            if (pooled.retired) {
+                // 破棄と競合した場合は新しいクライアントで再試行する
+                pooled.release();
+                continue;
+            }
+            try {
+                return action.apply(pooled.client);
+            } finally {
+                pooled.lastUsed = System.currentTimeMillis();
+                pooled.release();
+            }
+        }
+    }
+
+    private AWSSecurityTokenServiceClient createClient(String accessKeyId, String secretAccessKey,
+            StsEndpoint endpoint, ClientConfiguration config) {
+        AWSSecurityTokenServiceClient client = new AWSSecurityTokenServiceClient(
+                new BasicAWSCredentials(accessKeyId, secretAccessKey), new ClientConfiguration(config));
+        try {
+            client.setEndpoint(endpoint.getUrl());
+            if (endpoint.getSigningRegion() != null) {
+                client.setSignerRegionOverride(endpoint.getSigningRegion());
+            }
+        } catch (IllegalArgumentException e) {
+            client.shutdown();
+            throw e;
+        }
+        return client;
+    }
+
+    private void onRegistered() {
+        if (clients.size() > maxClients) {
+            evictIdle(System.currentTimeMillis());
+        }
+        if (reapIntervalMillis > 0 && reaperStarted.compareAndSet(false, true)) {
+            ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "personium-awssts-client-reaper");
+                thread.setDaemon(true);
+                return thread;
+            });
+            executor.scheduleWithFixedDelay(() -> evictIdle(System.currentTimeMillis()),
+                    reapIntervalMillis, reapIntervalMillis, TimeUnit.MILLISECONDS);
+            this.reaper = executor;
+        }
+    }
+
+    /**
+     * アイドル時間を超えたクライアント、および上限数を超えた分の最も古いクライアントを破棄する.
+     * @param now 現在時刻(ミリ秒)
+     * @return 破棄したクライアント数
+     */
+    int evictIdle(long now) {
+        int evicted = 0;
+        List<Map.Entry<StsClientKey, PooledClient>> alive = new ArrayList<>();
+        for (Map.Entry<StsClientKey, PooledClient> entry : clients.entrySet()) {
+            PooledClient pooled = entry.getValue();
+            if (now - pooled.lastUsed >= idleTimeoutMillis) {
+                if (retire(entry.getKey(), pooled)) {
+                    evicted++;
+                }
+            } else {
+                alive.add(entry);
+            }
+        }
+        int excess = alive.size() - maxClients;
+        if (excess > 0) {
+            alive.sort(Comparator.comparingLong(e -> e.getValue().lastUsed));
+            for (int i = 0; i < excess; i++) {
+                if (retire(alive.get(i).getKey(), alive.get(i).getValue())) {
+                    evicted++;
+                }
+            }
+        }
+        return evicted;
+    }
+
+    private boolean retire(StsClientKey key, PooledClient pooled) {
+        if (!clients.remove(key, pooled)) {
+            return false;
+        }
+        pooled.retired = true;
+        if (pooled.inFlight.get() == 0) {
+            pooled.shutdown();
+        }
+        return true;
+    }
+
+    /**
+     * 全てのクライアントを破棄し、バックグラウンド処理を停止する.
+     * <br />
+     * Extensionのアンロード時に呼び出す。以降の呼び出しでは新たにクライアントが生成される。
+     * AWS SDKのIdleConnectionReaperはJVM内の他のクライアントと共有しているため停止せず、
+     * 破棄したクライアントの登録のみ解除される。
+     */
+    void shutdown() {
+        ScheduledExecutorService executor = this.reaper;
+        if (executor != null) {
+            executor.shutdownNow();
+            this.reaper = null;
+            reaperStarted.set(false);
+        }
+        for (Map.Entry<StsClientKey, PooledClient> entry : clients.entrySet()) {
+            retire(entry.getKey(), entry.getValue());
+        }
+    }
+
+    /**
+     * @return 登録されているクライアント数
+     */
+    int size() {
+        return clients.size();
+    }
+
+    /**
+     * レジストリに登録されたクライアントと利用状況.
+     */
+    private static final class PooledClient {
+        private final AWSSecurityTokenServiceClient client;
+        private final AtomicInteger inFlight = new AtomicInteger();
+        private final AtomicBoolean closed = new AtomicBoolean(false);
+        private volatile long lastUsed = System.currentTimeMillis();
+        private volatile boolean retired;
+
+        PooledClient(AWSSecurityTokenServiceClient client) {
+            this.client = client;
+        }
+
+        void release() {
+            if (inFlight.decrementAndGet() == 0 && retired) {
+                shutdown();
+            }
+        }
+
+        void shutdown() {
+            if (closed.compareAndSet(false, true)) {
+                client.shutdown();
+            }
+        }
+    }
+}
@@ -0,0 +1,129 @@
+/**
+ * Personium
+ * Copyright 2016 FUJITSU LIMITED
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.personium.engine.extension.aws.sts;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+
+import com.amazonaws.regions.Regions;
+
+/**
+ * 接続先のSTSエンドポイント.
+ * <br />
+ * リージョン指定から対応するリージョナルエンドポイントを解決する。
+ * 解決できないリージョン指定(null、空文字、DEFAULT_REGION、不明な名前)はグローバルエンドポイントとなる。
+ */
+final class StsEndpoint {
+
+    /** グローバルエンドポイント. */
+    static final StsEndpoint GLOBAL = new StsEndpoint("https://sts.amazonaws.com", null);
+
+    private static final String CHINA_REGION_PREFIX = "cn-";
+
+    /** リージョン指定(列挙名およびリージョン名)とリージョナルエンドポイントの対応. */
+    private static final Map<String, StsEndpoint> REGIONAL = new HashMap<String, StsEndpoint>();
+
+    static {
+        // Regions.DEFAULT_REGIONはUS_WEST_2の別名で列挙値ではないため、全ての列挙値を登録する。
+        // 「DEFAULT_REGION」という指定は列挙名として登録されないため、グローバルエンドポイントとなる
+        for (Regions regions : Regions.values()) {
+            String name = regions.getName();
+            String domain = "amazonaws.com";
+            if (name.startsWith(CHINA_REGION_PREFIX)) {
+                domain = "amazonaws.com.cn";
+            }
+            StsEndpoint endpoint = new StsEndpoint("https://sts." + name + "." + domain, name);
+            REGIONAL.put(regions.name(), endpoint);
+            REGIONAL.put(name, endpoint);
+        }
+    }
+
+    private final String url;
+    private final String signingRegion;
+
+    private StsEndpoint(String url, String signingRegion) {
+        this.url = url;
+        this.signingRegion = signingRegion;
+    }
+
+    /**
+     * @return エンドポイントURL
+     */
+    String getUrl() {
+        return url;
+    }
+
+    /**
+     * @return 署名に使用するリージョン名. エンドポイントから判断させる場合はnull
+     */
+    String getSigningRegion() {
+        return signingRegion;
+    }
+
+    /**
+     * リージョン指定とエンドポイント指定から接続先を決定する.
+     * @param region リージョン指定(Regionsの列挙名またはリージョン名)
+     * @param endpointOverride 明示的なエンドポイント指定. nullまたは空文字の場合はリージョンから決定する
+     * @return 接続先
+     */
+    static StsEndpoint resolve(String region, String endpointOverride) {
+        StsEndpoint regional = resolve(region);
+        if (endpointOverride == null || endpointOverride.isEmpty()) {
+            return regional;
+        }
+        return new StsEndpoint(endpointOverride, regional.signingRegion);
+    }
+
+    /**
+     * リージョン指定から接続先を決定する.
+     * @param region リージョン指定(Regionsの列挙名またはリージョン名)
+     * @return 接続先
+     */
+    static StsEndpoint resolve(String region) {
+        if (region == null || region.isEmpty()) {
+            return GLOBAL;
+        }
+        StsEndpoint endpoint = REGIONAL.get(region);
+        if (endpoint == null) {
+            return GLOBAL;
+        }
+        return endpoint;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (!(obj instanceof StsEndpoint)) {
+            return false;
+        }
+        StsEndpoint other = (StsEndpoint) obj;
+        return url.equals(other.url) && Objects.equals(signingRegion, other.signingRegion);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(url, signingRegion);
+    }
+
+    @Override
+    public String toString() {
+        return url;
+    }
+}
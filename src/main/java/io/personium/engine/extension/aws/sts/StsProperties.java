@@ -0,0 +1,140 @@
+/**
+ * Personium
+ * Copyright 2016 FUJITSU LIMITED
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.personium.engine.extension.aws.sts;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Properties;
+
+/**
+ * Ext_AWSSecurityTokenService.propertiesの読み込みユーティリティ.
+ * <br />
+ * 未設定または不正な値の場合は既定値を返す。
+ */
+final class StsProperties {
+
+    /** Engine側で配置するプロパティファイル名. */
+    static final String RESOURCE_NAME = "Ext_AWSSecurityTokenService.properties";
+
+    private StsProperties() {
+    }
+
+    /**
+     * クラスパスからプロパティファイルを読み込む. 存在しない場合は空のプロパティを返す.
+     * <br />
+     * インスタンスを生成する前(static初期化時)にプロセス共通の設定を参照するために使用する。
+     * @return プロパティ
+     */
+    static Properties load() {
+        Properties properties = new Properties();
+        ClassLoader loader = StsProperties.class.getClassLoader();
+        if (loader == null) {
+            return properties;
+        }
+        try (InputStream in = loader.getResourceAsStream(RESOURCE_NAME)) {
+            if (in != null) {
+                properties.load(in);
+            }
+        } catch (IOException e) {
+            // 読み込めない場合は既定値で動作する
+            return new Properties();
+        }
+        return properties;
+    }
+
+    /**
+     * @param properties プロパティ
+     * @param key キー
+     * @param defaultValue 既定値
+     * @return プロパティ値
+     */
+    static String getString(Properties properties, String key, String defaultValue) {
+        String value = properties.getProperty(key);
+        if (value == null || value.trim().isEmpty()) {
+            return defaultValue;
+        }
+        return value.trim();
+    }
+
+    /**
+     * @param properties プロパティ
+     * @param key キー
+     * @param defaultValue 既定値
+     * @return プロパティ値
+     */
+    static int getInt(Properties properties, String key, int defaultValue) {
+        String value = getString(properties, key, null);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+
+    /**
+     * @param properties プロパティ
+     * @param key キー
+     * @param defaultValue 既定値
+     * @return プロパティ値
+     */
+    static long getLong(Properties properties, String key, long defaultValue) {
+        String value = getString(properties, key, null);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+
+    /**
+     * @param properties プロパティ
+     * @param key キー
+     * @param defaultValue 既定値
+     * @return プロパティ値
+     */
+    static boolean getBoolean(Properties properties, String key, boolean defaultValue) {
+        String value = getString(properties, key, null);
+        if (value == null) {
+            return defaultValue;
+        }
+        return Boolean.parseBoolean(value);
+    }
+
+    /**
+     * @param properties プロパティ
+     * @param key キー
+     * @param defaultValue 既定値
+     * @return プロパティ値
+     */
+    static double getDouble(Properties properties, String key, double defaultValue) {
+        String value = getString(properties, key, null);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Double.parseDouble(value);
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+}
@@ -0,0 +1,223 @@
+/**
+ * Personium
+ * Copyright 2016 FUJITSU LIMITED
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.personium.engine.extension.aws.sts;
+
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.URI;
+import java.security.NoSuchAlgorithmException;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.SSLSocketFactory;
+import javax.xml.stream.XMLInputFactory;
+
+import org.apache.http.HttpException;
+import org.apache.http.HttpHost;
+import org.apache.http.client.HttpClient;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.utils.URIUtils;
+import org.apache.http.conn.ClientConnectionManager;
+import org.apache.http.conn.ManagedClientConnection;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.impl.client.AbstractHttpClient;
+import org.apache.http.protocol.BasicHttpContext;
+
+import com.amazonaws.AmazonWebServiceClient;
+import com.amazonaws.auth.AWS4Signer;
+import com.amazonaws.http.AmazonHttpClient;
+import com.amazonaws.services.securitytoken.AWSSecurityTokenServiceClient;
+import com.amazonaws.services.securitytoken.model.GetFederationTokenRequest;
+import com.amazonaws.services.securitytoken.model.GetSessionTokenRequest;
+import com.amazonaws.services.securitytoken.model.transform.GetFederationTokenRequestMarshaller;
+import com.amazonaws.services.securitytoken.model.transform.GetFederationTokenResultStaxUnmarshaller;
+import com.amazonaws.services.securitytoken.model.transform.GetSessionTokenRequestMarshaller;
+import com.amazonaws.services.securitytoken.model.transform.GetSessionTokenResultStaxUnmarshaller;
+
+/**
+ * 初回呼び出しの遅延を解消するためのウォームアップ処理.
+ * <br />
+ * AWS SDKのクラスロード、Marshaller/Unmarshaller・署名器の初期化、SSLコンテキストの生成、
+ * DNSの名前解決およびエンドポイントへの接続(TLSハンドシェイク)を事前に行う。
+ */
+final class StsWarmUp {
+
+    /** ウォームアップ時の接続タイムアウト(ミリ秒). */
+    static final int CONNECT_TIMEOUT_MILLIS = 5000;
+
+    private static final int HTTPS_PORT = 443;
+    private static final int HTTP_PORT = 80;
+
+    private StsWarmUp() {
+    }
+
+    /**
+     * Ext_AWSSecurityTokenService.propertiesの設定でウォームアップをバックグラウンドで開始する.
+     * @param properties プロパティ
+     */
+    static void startAsync(final Properties properties) {
+        final StsEndpoint endpoint = StsEndpoint.resolve(StsProperties.getString(properties, "Region", null),
+                StsProperties.getString(properties, "Endpoint", null));
+        final String proxyHost = StsProperties.getString(properties, "ProxyHost", null);
+        final int proxyPort = StsProperties.getInt(properties, "ProxyPort", -1);
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                preload();
+                connect(endpoint, proxyHost, proxyPort);
+            }
+        }, "personium-awssts-warmup");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * AWS SDKのクラスおよびSSLコンテキストを初期化する.
+     * @return SSLコンテキストを初期化できた場合true
+     */
+    static boolean preload() {
+        new GetSessionTokenRequestMarshaller().marshall(new GetSessionTokenRequest());
+        new GetFederationTokenRequestMarshaller().marshall(new GetFederationTokenRequest().withName("warmup"));
+        GetSessionTokenResultStaxUnmarshaller.getInstance();
+        GetFederationTokenResultStaxUnmarshaller.getInstance();
+        new AWS4Signer();
+        XMLInputFactory.newInstance();
+        try {
+            SSLContext.getDefault();
+            return true;
+        } catch (NoSuchAlgorithmException e) {
+            // 初回リクエスト時に改めてエラーとなるため、ここでは無視する
+            return false;
+        }
+    }
+
+    /**
+     * エンドポイント(Proxy指定時はProxy)の名前解決と接続を行う.
+     * <br />
+     * Proxyを使用しない場合はTLSハンドシェイクまで行い、JSSEの初期化を済ませる。
+     * @param endpoint 接続先
+     * @param proxyHost Proxyのホスト名. 使用しない場合はnull
+     * @param proxyPort Proxyのポート番号
+     * @return 接続できた場合true
+     */
+    static boolean connect(StsEndpoint endpoint, String proxyHost, int proxyPort) {
+        try {
+            if (proxyHost != null && !proxyHost.isEmpty()) {
+                InetAddress address = InetAddress.getByName(proxyHost);
+                try (Socket socket = new Socket()) {
+                    socket.connect(new InetSocketAddress(address, proxyPort), CONNECT_TIMEOUT_MILLIS);
+                }
+                return true;
+            }
+            URI uri = URI.create(endpoint.getUrl());
+            boolean secure = "https".equalsIgnoreCase(uri.getScheme());
+            int port = uri.getPort();
+            if (port < 0) {
+                port = HTTP_PORT;
+                if (secure) {
+                    port = HTTPS_PORT;
+                }
+            }
+            InetAddress address = InetAddress.getByName(uri.getHost());
+            try (Socket socket = new Socket()) {
+                socket.connect(new InetSocketAddress(address, port), CONNECT_TIMEOUT_MILLIS);
+                if (secure) {
+                    SSLSocketFactory factory = (SSLSocketFactory) SSLSocketFactory.getDefault();
+                    try (SSLSocket ssl = (SSLSocket) factory.createSocket(socket, uri.getHost(), port, false)) {
+                        ssl.setSoTimeout(CONNECT_TIMEOUT_MILLIS);
+                        ssl.startHandshake();
+                    }
+                }
+            }
+            return true;
+        } catch (IOException | IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    /**
+     * プール済みクライアントのコネクションプールに、エンドポイントへのコネクションを確立して返却する.
+     * <br />
+     * クライアントが使用するコネクションマネージャから、実際のリクエストと同じ経路のコネクションを取得して接続
+     * (HTTPSの場合はTLSハンドシェイク)のみを行い、Keep-Alive接続としてプールに戻す。
+     * リクエストは送信しないため、認証情報が使用されることはない。
+     * プールに接続済みのコネクションがある場合は何もせずに返却する。
+     * Proxyを使用する場合はProxyへの接続までを行い、残りの経路は初回リクエスト時に確立される。
+     * @param client STSクライアント
+     * @param endpoint 接続先
+     * @return コネクションを確立できた場合true
+     */
+    static boolean prime(AWSSecurityTokenServiceClient client, StsEndpoint endpoint) {
+        AbstractHttpClient httpClient = httpClientOf(client);
+        if (httpClient == null) {
+            return false;
+        }
+        try {
+            URI uri = URI.create(endpoint.getUrl());
+            HttpHost target = URIUtils.extractHost(uri);
+            HttpPost request = new HttpPost(uri);
+            request.setParams(httpClient.getParams());
+            BasicHttpContext context = new BasicHttpContext();
+            HttpRoute route = httpClient.getRoutePlanner().determineRoute(target, request, context);
+            ClientConnectionManager manager = httpClient.getConnectionManager();
+            ManagedClientConnection connection = manager.requestConnection(route, null)
+                    .getConnection(CONNECT_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+            try {
+                if (!connection.isOpen()) {
+                    connection.open(route, context, httpClient.getParams());
+                }
+                connection.markReusable();
+            } finally {
+                manager.releaseConnection(connection, 0, TimeUnit.MILLISECONDS);
+            }
+            return true;
+        } catch (IOException | HttpException | IllegalArgumentException | IllegalStateException e) {
+            return false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /**
+     * AWS SDKのクライアントが内部で使用するHttpClientを取得する.
+     * <br />
+     * AWS SDK 1.9系はHttpClientを公開していないため、リフレクションで参照する。
+     * @param client STSクライアント
+     * @return HttpClient. 取得できない場合はnull
+     */
+    private static AbstractHttpClient httpClientOf(AmazonWebServiceClient client) {
+        try {
+            Field sdkClient = AmazonWebServiceClient.class.getDeclaredField("client");
+            sdkClient.setAccessible(true);
+            Field httpClient = AmazonHttpClient.class.getDeclaredField("httpClient");
+            httpClient.setAccessible(true);
+            HttpClient http = (HttpClient) httpClient.get(sdkClient.get(client));
+            if (http instanceof AbstractHttpClient) {
+                return (AbstractHttpClient) http;
+            }
+            return null;
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,828 @@
+/**
+ * Personium
+ * Copyright 2016 FUJITSU LIMITED
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.personium.engine.extension.aws.sts;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+import com.amazonaws.services.securitytoken.model.Credentials;
+
+/**
+ * 発行済み一時認証情報のプロセス共有キャッシュ.
+ * <br />
+ * 残りの有効期間が指定のマージンを下回ったエントリはヒットしない。
+ * エントリの推定サイズの合計またはエントリ数が上限を超えた場合は、期限切れのエントリを削除したうえで、
+ * 参照頻度(FrequencySketch)の低いエントリ、同じ頻度の場合は有効期限の近いエントリから削除する。
+ * 追加したばかりのエントリも削除の候補とするため(TinyLFUの受け入れ判定に相当)、
+ * 一度しか参照されない連携ユーザの認証情報が、繰り返し参照される認証情報を追い出すことはない。
+ * <br />
+ * 再発行処理とともに登録されたエントリは、利用可能期間(発行から有効期限のマージン手前まで)のうち
+ * 一定の割合(ジッタ付き)を経過した後にヒットすると、専用スレッドでバックグラウンドに再発行する。再発行が完了するまでは、有効な既存の認証情報を返し続ける。
+ * <br />
+ * オフヒープの容量を指定した場合、認証情報はバイナリ形式(CachedTokenCodec)で容量分を事前に確保した
+ * 格納領域(OffHeapSlab)に格納し、ヒープ上にはキーと有効期限などの索引のみを保持する。格納領域に空きがない場合も、
+ * 参照頻度の低いエントリ、同じ頻度の場合は有効期限の近いエントリから削除する。
+ * <br />
+ * 永続化ファイル(PersistentTokenStore)を設定した場合は、キャッシュした認証情報をファイルにも書き出し、
+ * メモリ上に存在しないキーは起動時にファイルに記録されていた認証情報から補う。
+ */
+final class TokenCache implements TokenCacheBackend {
+
+    /** エントリ数の上限の既定値. */
+    static final int DEFAULT_MAX_ENTRIES = 10000;
+    /** 再発行を開始する利用可能期間の経過割合の既定値. */
+    static final double DEFAULT_REFRESH_RATIO = 0.75;
+    /** 再発行開始時期を前倒しする幅(利用可能期間に対する割合)の既定値. */
+    static final double DEFAULT_REFRESH_JITTER_RATIO = 0.1;
+    /** 再発行スレッド数の既定値. */
+    static final int DEFAULT_REFRESH_THREADS = 2;
+    /** 再発行に失敗した場合に再試行するまでの時間(ミリ秒). */
+    static final long REFRESH_RETRY_MILLIS = 30000;
+    /** エントリの推定サイズの合計の上限(バイト)の既定値. */
+    static final long DEFAULT_MAX_BYTES = 32L * 1024 * 1024;
+    /** エントリの推定サイズのうち、文字列以外のオブジェクトの分(バイト). */
+    static final int ENTRY_OVERHEAD_BYTES = 256;
+    /** オフヒープ格納時の容量(バイト)の既定値. */
+    static final long DEFAULT_MAX_OFF_HEAP_BYTES = 64L * 1024 * 1024;
+
+    /** キャッシュキー中のAccessKeyIdの位置. */
+    private static final int KEY_ACCESS_KEY_ID = 1;
+    /** キャッシュキー中のSecretAccessKeyのハッシュ値の位置. */
+    private static final int KEY_SECRET_HASH = 2;
+    /** キャッシュキー中の連携ユーザ名の位置(GetFederationTokenのみ). */
+    private static final int KEY_FEDERATED_NAME = 3;
+    /** キャッシュキー中のポリシーのハッシュ値の位置(GetFederationTokenのみ). */
+    private static final int KEY_POLICY_HASH = 4;
+    private static final String FEDERATION_PREFIX = "federation|";
+
+    /** 再発行しないことを表す割合. */
+    private static final double NO_REFRESH = -1;
+
+    /** 上限を超えた際に削除後のエントリ数を上限の何割にするか. */
+    private static final double EVICTION_RATIO = 0.9;
+
+    private static final TokenCache INSTANCE = createDefault();
+
+    private final ConcurrentMap<String, Entry> entries = new ConcurrentHashMap<>();
+    private final int maxEntries;
+    private final double refreshRatio;
+    private final double refreshJitterRatio;
+    private final int refreshThreads;
+    private final OffHeapSlab slab;
+    private final long maxWeightBytes;
+    private final AtomicLong weightBytes = new AtomicLong();
+    private final FrequencySketch sketch;
+    private volatile ScheduledExecutorService refresher;
+    private volatile PersistentTokenStore store;
+
+    /**
+     * コンストラクタ. バックグラウンドでの再発行は行わない.
+     * @param maxEntries エントリ数の上限
+     */
+    TokenCache(int maxEntries) {
+        this(maxEntries, 0, 0, 0);
+    }
+
+    /**
+     * コンストラクタ.
+     * @param maxEntries エントリ数の上限
+     * @param refreshRatio 再発行を開始する利用可能期間の経過割合. 0以下または1以上の場合は再発行しない
+     * @param refreshJitterRatio 再発行開始時期を前倒しする幅(利用可能期間に対する割合)
+     * @param refreshThreads 再発行スレッド数
+     */
+    TokenCache(int maxEntries, double refreshRatio, double refreshJitterRatio, int refreshThreads) {
+        this(maxEntries, refreshRatio, refreshJitterRatio, refreshThreads, 0);
+    }
+
+    /**
+     * コンストラクタ.
+     * @param maxEntries エントリ数の上限
+     * @param refreshRatio 再発行を開始する利用可能期間の経過割合. 0以下または1以上の場合は再発行しない
+     * @param refreshJitterRatio 再発行開始時期を前倒しする幅(利用可能期間に対する割合)
+     * @param refreshThreads 再発行スレッド数
+     * @param maxOffHeapBytes オフヒープ格納時の容量(バイト). 0以下の場合はヒープ上に格納する
+     */
+    TokenCache(int maxEntries, double refreshRatio, double refreshJitterRatio, int refreshThreads,
+            long maxOffHeapBytes) {
+        this(maxEntries, 0, refreshRatio, refreshJitterRatio, refreshThreads, maxOffHeapBytes);
+    }
+
+    /**
+     * コンストラクタ.
+     * @param maxEntries エントリ数の上限
+     * @param maxWeightBytes エントリの推定サイズの合計の上限(バイト). 0以下の場合はエントリ数のみで制限する
+     * @param refreshRatio 再発行を開始する利用可能期間の経過割合. 0以下または1以上の場合は再発行しない
+     * @param refreshJitterRatio 再発行開始時期を前倒しする幅(利用可能期間に対する割合)
+     * @param refreshThreads 再発行スレッド数
+     * @param maxOffHeapBytes オフヒープ格納時の容量(バイト). 0以下の場合はヒープ上に格納する
+     */
+    TokenCache(int maxEntries, long maxWeightBytes, double refreshRatio, double refreshJitterRatio,
+            int refreshThreads, long maxOffHeapBytes) {
+        this.maxEntries = maxEntries;
+        this.maxWeightBytes = maxWeightBytes;
+        this.sketch = new FrequencySketch(maxEntries);
+        this.refreshRatio = refreshRatio;
+        this.refreshJitterRatio = refreshJitterRatio;
+        this.refreshThreads = refreshThreads;
+        if (maxOffHeapBytes > 0) {
+            this.slab = new OffHeapSlab(maxOffHeapBytes);
+        } else {
+            this.slab = null;
+        }
+    }
+
+    private static TokenCache createDefault() {
+        Properties properties = StsProperties.load();
+        long maxOffHeapBytes = 0;
+        int defaultMaxEntries = DEFAULT_MAX_ENTRIES;
+        if (StsProperties.getBoolean(properties, "TokenCacheOffHeap", false)) {
+            maxOffHeapBytes = StsProperties.getLong(properties, "TokenCacheMaxOffHeapBytes",
+                    DEFAULT_MAX_OFF_HEAP_BYTES);
+            // オフヒープ格納時は格納領域の容量で制限するため、エントリ数の上限は格納できる最大数とする
+            defaultMaxEntries = (int) Math.min(Integer.MAX_VALUE, maxOffHeapBytes / OffHeapSlab.BLOCK_BYTES);
+        }
+        TokenCache cache = new TokenCache(
+                StsProperties.getInt(properties, "TokenCacheMaxEntries", defaultMaxEntries),
+                StsProperties.getLong(properties, "TokenCacheMaxBytes", DEFAULT_MAX_BYTES),
+                StsProperties.getDouble(properties, "TokenRefreshRatio", DEFAULT_REFRESH_RATIO),
+                StsProperties.getDouble(properties, "TokenRefreshJitterRatio", DEFAULT_REFRESH_JITTER_RATIO),
+                StsProperties.getInt(properties, "TokenRefreshThreads", DEFAULT_REFRESH_THREADS),
+                maxOffHeapBytes);
+        String file = StsProperties.getString(properties, "TokenCachePersistFile", null);
+        String passphrase = StsProperties.getString(properties, "TokenCachePersistPassphrase", null);
+        if (file != null && passphrase != null) {
+            try {
+                cache.persistTo(PersistentTokenStore.open(Paths.get(file), passphrase,
+                        StsProperties.getLong(properties, "TokenCachePersistMaxBytes",
+                                PersistentTokenStore.DEFAULT_MAX_BYTES),
+                        System.currentTimeMillis()));
+            } catch (IOException | RuntimeException e) {
+                // 永続化ファイルが使用できない場合はメモリ上のキャッシュのみで動作する
+                return cache;
+            }
+        }
+        return cache;
+    }
+
+    /**
+     * 永続化ファイルを設定する.
+     * @param persistentStore 永続化ファイル. nullの場合は永続化しない
+     */
+    void persistTo(PersistentTokenStore persistentStore) {
+        this.store = persistentStore;
+    }
+
+    /**
+     * @return プロセス共有のキャッシュ
+     */
+    static TokenCache getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * GetSessionToken用のキャッシュキーを作成する.
+     * <br />
+     * SecretAccessKeyのハッシュ値を含めるため、誤ったSecretAccessKeyでキャッシュがヒットすることはない。
+     * @param accessKeyId AWS認証情報(key)
+     * @param secretAccessKey AWS認証情報(secret)
+     * @param endpoint 接続先のSTSエンドポイント
+     * @param durationSeconds 認証情報の有効期間（秒）. 省略時はnull
+     * @return キャッシュキー
+     */
+    static String sessionTokenKey(String accessKeyId, String secretAccessKey, StsEndpoint endpoint,
+            Integer durationSeconds) {
+        return "session|" + accessKeyId + "|" + StsClientKey.hash(secretAccessKey) + "|" + durationSeconds
+                + "|" + endpointField(endpoint);
+    }
+
+    /**
+     * GetFederationToken用のキャッシュキーを作成する.
+     * @param accessKeyId AWS認証情報(key)
+     * @param secretAccessKey AWS認証情報(secret)
+     * @param endpoint 接続先のSTSエンドポイント
+     * @param name 連携ユーザ名
+     * @param policy シリアライズされたポリシー
+     * @param durationSeconds 認証情報の有効期間（秒）. 省略時はnull
+     * @return キャッシュキー
+     */
+    static String federationTokenKey(String accessKeyId, String secretAccessKey, StsEndpoint endpoint, String name,
+            String policy, Integer durationSeconds) {
+        return federationTokenKeyOf(accessKeyId, secretAccessKey, endpoint, name, StsClientKey.hash(policy),
+                durationSeconds);
+    }
+
+    /**
+     * GetFederationToken用のキャッシュキーを作成する.
+     * <br />
+     * ポリシーのハッシュ値は正規化時に計算済みのものを使用する。
+     * @param accessKeyId AWS認証情報(key)
+     * @param secretAccessKey AWS認証情報(secret)
+     * @param endpoint 接続先のSTSエンドポイント
+     * @param name 連携ユーザ名
+     * @param policy 正規化したポリシー
+     * @param durationSeconds 認証情報の有効期間（秒）. 省略時はnull
+     * @return キャッシュキー
+     */
+    static String federationTokenKey(String accessKeyId, String secretAccessKey, StsEndpoint endpoint, String name,
+            CanonicalPolicy policy, Integer durationSeconds) {
+        return federationTokenKeyOf(accessKeyId, secretAccessKey, endpoint, name, policy.getHash(), durationSeconds);
+    }
+
+    private static String federationTokenKeyOf(String accessKeyId, String secretAccessKey, StsEndpoint endpoint,
+            String name, String policyHash, Integer durationSeconds) {
+        return FEDERATION_PREFIX + accessKeyId + "|" + StsClientKey.hash(secretAccessKey) + "|" + name + "|"
+                + policyHash + "|" + durationSeconds + "|" + endpointField(endpoint);
+    }
+
+    /**
+     * キーに含めるエンドポイントの表現を作成する.
+     * <br />
+     * パーティションが異なると同じ認証情報でも発行結果が異なるため、URLと署名リージョンをキーに含める。
+     * URLには区切り文字(|)が含まれうるため、キーの最後のフィールドとする。
+     */
+    private static String endpointField(StsEndpoint endpoint) {
+        return endpoint.getUrl() + "#" + endpoint.getSigningRegion();
+    }
+
+    /**
+     * 指定の連携ユーザ名のGetFederationTokenのキーに一致する条件を作成する.
+     * @param name 連携ユーザ名
+     * @return 条件
+     */
+    static Predicate<String> byFederatedName(String name) {
+        return key -> key.startsWith(FEDERATION_PREFIX) && name.equals(field(key, KEY_FEDERATED_NAME));
+    }
+
+    /**
+     * 指定のポリシーのGetFederationTokenのキーに一致する条件を作成する.
+     * @param policy シリアライズされたポリシー
+     * @return 条件
+     */
+    static Predicate<String> byPolicy(String policy) {
+        return byPolicyHash(StsClientKey.hash(policy));
+    }
+
+    /**
+     * 指定のポリシーのGetFederationTokenのキーに一致する条件を作成する.
+     * @param policy 正規化したポリシー
+     * @return 条件
+     */
+    static Predicate<String> byPolicy(CanonicalPolicy policy) {
+        return byPolicyHash(policy.getHash());
+    }
+
+    private static Predicate<String> byPolicyHash(final String policyHash) {
+        return key -> key.startsWith(FEDERATION_PREFIX) && policyHash.equals(field(key, KEY_POLICY_HASH));
+    }
+
+    /**
+     * 指定のAccessKeyIdのキーに一致する条件を作成する.
+     * <br />
+     * FailureCacheの認証情報単位のキーも同じ位置にAccessKeyIdを持つため、共通して使用できる。
+     * @param accessKeyId AWS認証情報(key)
+     * @return 条件
+     */
+    static Predicate<String> byAccessKeyId(String accessKeyId) {
+        return key -> accessKeyId.equals(field(key, KEY_ACCESS_KEY_ID));
+    }
+
+    /**
+     * 指定の認証情報(AccessKeyIdとSecretAccessKey)のキーに一致する条件を作成する.
+     * <br />
+     * FailureCacheの認証情報単位のキーも同じ位置に認証情報を持つため、共通して使用できる。
+     * @param accessKeyId AWS認証情報(key)
+     * @param secretAccessKey AWS認証情報(secret)
+     * @return 条件
+     */
+    static Predicate<String> byCredential(String accessKeyId, String secretAccessKey) {
+        // キー作成時と同様に、未設定(null)の場合も文字列として照合する
+        final String accessKey = String.valueOf(accessKeyId);
+        final String secretHash = String.valueOf(StsClientKey.hash(secretAccessKey));
+        return key -> accessKey.equals(field(key, KEY_ACCESS_KEY_ID)) && secretHash.equals(field(key, KEY_SECRET_HASH));
+    }
+
+    /**
+     * 区切り文字(|)で区切られたキーのフィールドを取得する.
+     * 連携ユーザ名、AccessKeyIdには区切り文字が含まれないため、区切り文字の出現位置で判定できる.
+     */
+    private static String field(String key, int position) {
+        int start = 0;
+        for (int i = 0; i < position; i++) {
+            start = key.indexOf('|', start) + 1;
+            if (start == 0) {
+                return null;
+            }
+        }
+        int end = key.indexOf('|', start);
+        if (end < 0) {
+            end = key.length();
+        }
+        return key.substring(start, end);
+    }
+
+    /**
+     * キャッシュされた認証情報を取得する.
+     * <br />
+     * 再発行時期を過ぎたエントリの場合は、バックグラウンドでの再発行を開始したうえで既存の認証情報を返す。
+     * @param key キャッシュキー
+     * @param now 現在時刻(ミリ秒)
+     * @param marginMillis 必要な残り有効期間(ミリ秒)
+     * @return 残り有効期間がマージンを上回る認証情報. 存在しない場合はnull
+     */
+    @Override
+    public CachedToken get(String key, long now, long marginMillis) {
+        sketch.increment(key);
+        Entry entry = entries.get(key);
+        if (entry == null) {
+            entry = reload(key, now);
+            if (entry == null) {
+                return null;
+            }
+        }
+        if (entry.expiration - now <= marginMillis) {
+            if (entry.expiration <= now) {
+                remove(key, entry);
+            }
+            return null;
+        }
+        if (entry.loader != null && now >= entry.refreshAt(marginMillis)) {
+            scheduleRefresh(key, entry);
+        }
+        CachedToken token = read(entry);
+        if (token == null) {
+            // 読み出し中に置換または削除されたエントリは、現在のエントリから読み直す
+            return get(key, now, marginMillis);
+        }
+        return token;
+    }
+
+    /**
+     * 認証情報をキャッシュする. バックグラウンドでの再発行は行わない.
+     * @param key キャッシュキー
+     * @param token 認証情報
+     */
+    void put(String key, CachedToken token) {
+        put(key, token, null);
+    }
+
+    /**
+     * 認証情報を再発行処理とともにキャッシュする.
+     * @param key キャッシュキー
+     * @param token 認証情報
+     * @param loader 認証情報の再発行処理. nullの場合は再発行しない. 保持しているエラーの確認と同時実行の待ち合わせは
+     *        再発行処理の側で行う
+     */
+    @Override
+    public void put(String key, CachedToken token, Supplier<CachedToken> loader) {
+        release(entries.put(key, newEntry(key, token, loader)));
+        if (entries.size() > maxEntries || isOverBudget()) {
+            evict(System.currentTimeMillis());
+        }
+        persist(key, token);
+    }
+
+    /**
+     * 起動時に永続化ファイルに記録されていた認証情報をメモリ上に読み込む.
+     * 再発行処理は引き継がれないため、読み込んだエントリはバックグラウンドでの再発行を行わない.
+     */
+    private Entry reload(String key, long now) {
+        PersistentTokenStore persistentStore = this.store;
+        if (persistentStore == null) {
+            return null;
+        }
+        CachedToken token = persistentStore.load(key, now);
+        if (token == null) {
+            return null;
+        }
+        Entry entry = newEntry(key, token, null);
+        Entry existing = entries.putIfAbsent(key, entry);
+        if (existing != null) {
+            release(entry);
+            return existing;
+        }
+        if (entries.size() > maxEntries || isOverBudget()) {
+            evict(now);
+        }
+        return entry;
+    }
+
+    private void persist(String key, CachedToken token) {
+        PersistentTokenStore persistentStore = this.store;
+        if (persistentStore == null) {
+            return;
+        }
+        try {
+            persistentStore.append(key, token);
+        } catch (IOException e) {
+            // 永続化に失敗してもメモリ上のキャッシュは有効なため処理を継続する
+            return;
+        }
+    }
+
+    private Entry newEntry(String key, CachedToken token, Supplier<CachedToken> loader) {
+        if (slab == null) {
+            return newHeapEntry(key, token, loader);
+        }
+        byte[] bytes = CachedTokenCodec.encode(token);
+        int[] blocks = slab.allocate(bytes);
+        if (blocks == null) {
+            // 格納領域に空きがない場合は、使用量が容量の一定割合を下回るまで削除してから確保し直す
+            evict(System.currentTimeMillis(), true);
+            blocks = slab.allocate(bytes);
+        }
+        if (blocks == null) {
+            // 削除しても確保できない(1件で容量を超える)認証情報はヒープ上に格納する
+            return newHeapEntry(key, token, loader);
+        }
+        // 認証情報はオフヒープの容量で制限するため、ヒープの上限にはキーと索引の分のみを計上する
+        int weight = weighIndex(key);
+        weightBytes.addAndGet(weight);
+        return new Entry(null, blocks, bytes.length, token.getIssuedAt(), token.getExpiration(), weight, loader,
+                refreshFraction());
+    }
+
+    private Entry newHeapEntry(String key, CachedToken token, Supplier<CachedToken> loader) {
+        int weight = weigh(key, token);
+        weightBytes.addAndGet(weight);
+        return new Entry(token, null, 0, token.getIssuedAt(), token.getExpiration(), weight, loader,
+                refreshFraction());
+    }
+
+    /**
+     * エントリの認証情報を取得する.
+     * <br />
+     * オフヒープのブロックは解放後に別のエントリに再利用されるため、読み出し後に解放されていないことを確認する。
+     * 解放はフラグを設定してからブロックを空きリストに戻すため、読み出し後にフラグが未設定であれば内容は有効である。
+     * @return 認証情報. 読み出し中に解放された場合はnull
+     */
+    private CachedToken read(Entry entry) {
+        if (entry.blocks == null) {
+            return entry.token;
+        }
+        byte[] bytes = slab.read(entry.blocks, entry.length);
+        if (entry.released.get()) {
+            return null;
+        }
+        return CachedTokenCodec.decode(ByteBuffer.wrap(bytes));
+    }
+
+    /**
+     * エントリの推定サイズを算出する. SessionTokenなどの文字列の長さ(UTF-16)とオブジェクトの固定分の合計とする.
+     * @param key キャッシュキー
+     * @param token 認証情報
+     * @return 推定サイズ(バイト)
+     */
+    static int weigh(String key, CachedToken token) {
+        Credentials credentials = token.getCredentials();
+        long chars = length(key) + length(credentials.getAccessKeyId()) + length(credentials.getSecretAccessKey())
+                + length(credentials.getSessionToken());
+        if (token.getFederatedUser() != null) {
+            chars += length(token.getFederatedUser().getFederatedUserId()) + length(token.getFederatedUser().getArn());
+        }
+        return (int) Math.min(Integer.MAX_VALUE, ENTRY_OVERHEAD_BYTES + chars * Character.BYTES);
+    }
+
+    /**
+     * オフヒープに格納したエントリのヒープ上の推定サイズを算出する. キーの長さ(UTF-16)とオブジェクトの固定分の合計とする.
+     * @param key キャッシュキー
+     * @return 推定サイズ(バイト)
+     */
+    static int weighIndex(String key) {
+        return (int) Math.min(Integer.MAX_VALUE, ENTRY_OVERHEAD_BYTES + (long) length(key) * Character.BYTES);
+    }
+
+    private static int length(String value) {
+        if (value == null) {
+            return 0;
+        }
+        return value.length();
+    }
+
+    private boolean remove(String key, Entry entry) {
+        if (entries.remove(key, entry)) {
+            release(entry);
+            return true;
+        }
+        return false;
+    }
+
+    private void release(Entry entry) {
+        if (entry != null && entry.released.compareAndSet(false, true)) {
+            if (entry.blocks != null) {
+                slab.free(entry.blocks);
+            }
+            weightBytes.addAndGet(-entry.weight);
+        }
+    }
+
+    private boolean isOverBudget() {
+        return maxWeightBytes > 0 && weightBytes.get() > maxWeightBytes;
+    }
+
+    /**
+     * 再発行を開始する時期を、利用可能期間に対する割合として決定する.
+     * <br />
+     * 同時期に発行されたエントリの再発行が集中しないよう、ジッタ分をランダムに前倒しする。
+     * @return 割合. 再発行しない場合は負の値
+     */
+    double refreshFraction() {
+        if (refreshRatio <= 0 || refreshRatio >= 1) {
+            return NO_REFRESH;
+        }
+        double jitter = 0;
+        if (refreshJitterRatio > 0) {
+            jitter = ThreadLocalRandom.current().nextDouble(refreshJitterRatio);
+        }
+        return Math.max(0, refreshRatio - jitter);
+    }
+
+    /**
+     * 再発行を開始する時刻を算出する.
+     * <br />
+     * 残り有効期間がマージン以下となった認証情報は返却されないため、発行から有効期限のマージン手前までを
+     * 利用可能期間とし、その経過割合で再発行を開始する。これにより、最短の有効期間(900秒)でも
+     * 呼び出し元が再発行を待つ前にバックグラウンドで再発行される。
+     * @param issuedAt 発行時刻(ミリ秒)
+     * @param expiration 有効期限(ミリ秒)
+     * @param marginMillis 必要な残り有効期間(ミリ秒)
+     * @param fraction 利用可能期間に対する割合. 負の値の場合は再発行しない
+     * @return 再発行を開始する時刻(ミリ秒)
+     */
+    static long refreshAt(long issuedAt, long expiration, long marginMillis, double fraction) {
+        if (fraction < 0) {
+            return Long.MAX_VALUE;
+        }
+        long usable = expiration - marginMillis - issuedAt;
+        if (usable <= 0) {
+            return Long.MAX_VALUE;
+        }
+        return issuedAt + (long) (usable * fraction);
+    }
+
+    private void scheduleRefresh(final String key, final Entry entry) {
+        if (!entry.refreshing.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            getRefresher().execute(() -> refresh(key, entry));
+        } catch (RejectedExecutionException e) {
+            entry.refreshing.set(false);
+        }
+    }
+
+    private void refresh(String key, Entry entry) {
+        try {
+            CachedToken token = entry.loader.get();
+            Entry renewed = newEntry(key, token, entry.loader);
+            if (entries.replace(key, entry, renewed)) {
+                release(entry);
+                persist(key, token);
+            } else {
+                release(renewed);
+            }
+        } catch (RuntimeException e) {
+            // 既存の認証情報は有効なため、一定時間後に再試行する
+            entry.retryAt = System.currentTimeMillis() + REFRESH_RETRY_MILLIS;
+        } finally {
+            entry.refreshing.set(false);
+        }
+    }
+
+    private ScheduledExecutorService getRefresher() {
+        ScheduledExecutorService executor = this.refresher;
+        if (executor != null) {
+            return executor;
+        }
+        synchronized (this) {
+            if (this.refresher == null) {
+                final AtomicInteger count = new AtomicInteger();
+                this.refresher = Executors.newScheduledThreadPool(Math.max(1, refreshThreads), r -> {
+                    Thread thread = new Thread(r, "personium-awssts-token-refresh-" + count.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+            }
+            return this.refresher;
+        }
+    }
+
+    @Override
+    public int invalidate(String accessKeyId, String secretAccessKey, Predicate<String> filter) {
+        return invalidate(byCredential(accessKeyId, secretAccessKey).and(filter));
+    }
+
+    /**
+     * 条件に一致するエントリを削除する.
+     * <br />
+     * 読み込み側はロックせず、削除と並行してキャッシュを参照できる。削除したエントリの再発行中の結果は破棄される。
+     * 永続化ファイルには削除したキーの無効化を記録し、まだ読み込まれていない起動時のレコードは(条件を判定できないため)
+     * 全て無効化する。
+     * @param filter キャッシュキーの条件
+     * @return 削除したエントリ数
+     */
+    public int invalidate(Predicate<String> filter) {
+        int count = 0;
+        PersistentTokenStore persistentStore = this.store;
+        boolean writable = persistentStore != null;
+        for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+            if (filter.test(entry.getKey()) && remove(entry.getKey(), entry.getValue())) {
+                count++;
+                if (writable) {
+                    try {
+                        persistentStore.delete(entry.getKey());
+                    } catch (IOException e) {
+                        // ファイルへの記録に失敗した場合もメモリ上のエントリは削除済みのため処理を継続する
+                        writable = false;
+                    }
+                }
+            }
+        }
+        if (persistentStore != null) {
+            try {
+                persistentStore.discardPending();
+            } catch (IOException e) {
+                // 起動時のレコードは索引から削除済みのため、この起動中に読み込まれることはない
+                return count;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * 期限切れのエントリを削除し、なおエントリ数または容量の上限を超えている場合は
+     * 参照頻度の低いエントリ、同じ頻度の場合は有効期限の近いエントリから削除する.
+     * @param now 現在時刻(ミリ秒)
+     */
+    void evict(long now) {
+        evict(now, false);
+    }
+
+    /**
+     * 期限切れのエントリを削除し、なお上限を超えている場合は参照頻度と有効期限の順に削除する.
+     * @param now 現在時刻(ミリ秒)
+     * @param offHeapFull オフヒープの格納領域に空きがない場合はtrue
+     */
+    private synchronized void evict(long now, boolean offHeapFull) {
+        List<Candidate> alive = new ArrayList<>();
+        for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+            if (entry.getValue().expiration <= now) {
+                remove(entry.getKey(), entry.getValue());
+            } else {
+                alive.add(new Candidate(entry.getKey(), entry.getValue(), sketch.frequency(entry.getKey())));
+            }
+        }
+        boolean overEntries = alive.size() > maxEntries;
+        boolean overBytes = isOverBudget() || offHeapFull;
+        if (!overEntries && !overBytes) {
+            return;
+        }
+        int targetEntries = (int) (maxEntries * EVICTION_RATIO);
+        int remaining = alive.size();
+        alive.sort(Comparator.comparingInt((Candidate c) -> c.frequency)
+                .thenComparingLong(c -> c.entry.expiration));
+        for (Candidate candidate : alive) {
+            boolean entriesExceeded = overEntries && remaining > targetEntries;
+            if (!entriesExceeded && !isOverTarget()) {
+                break;
+            }
+            if (remove(candidate.key, candidate.entry)) {
+                remaining--;
+            }
+        }
+    }
+
+    private boolean isOverTarget() {
+        return maxWeightBytes > 0 && weightBytes.get() > (long) (maxWeightBytes * EVICTION_RATIO)
+                || slab != null && slab.used() > (long) (slab.capacity() * EVICTION_RATIO);
+    }
+
+    /**
+     * バックグラウンドでの再発行を停止し、永続化ファイルを閉じる.
+     * <br />
+     * Ext_AWSSecurityTokenService.shutdown()から呼び出される。以降はメモリ上のキャッシュのみで動作する。
+     */
+    @Override
+    public synchronized void shutdown() {
+        if (this.refresher != null) {
+            this.refresher.shutdownNow();
+            this.refresher = null;
+        }
+        PersistentTokenStore persistentStore = this.store;
+        if (persistentStore != null) {
+            this.store = null;
+            try {
+                persistentStore.close();
+            } catch (IOException e) {
+                // 終了処理のため無視する
+                return;
+            }
+        }
+    }
+
+    /**
+     * @return キャッシュされているエントリ数
+     */
+    int size() {
+        return entries.size();
+    }
+
+    /**
+     * @return キャッシュされているエントリのヒープ上の推定サイズの合計(バイト)
+     */
+    long weightBytes() {
+        return weightBytes.get();
+    }
+
+    /**
+     * @return オフヒープの格納領域で使用中のバイト数(ブロック単位)
+     */
+    long offHeapBytes() {
+        if (slab == null) {
+            return 0;
+        }
+        return slab.used();
+    }
+
+    /**
+     * キャッシュエントリ. 認証情報はヒープ上(token)またはオフヒープの格納領域のブロック(blocks)のいずれかに保持する.
+     */
+    private static final class Entry {
+        private final CachedToken token;
+        private final int[] blocks;
+        /** オフヒープに格納したバイト数. */
+        private final int length;
+        private final long issuedAt;
+        private final long expiration;
+        private final int weight;
+        private final Supplier<CachedToken> loader;
+        private final double refreshFraction;
+        private final AtomicBoolean refreshing = new AtomicBoolean(false);
+        /** キャッシュから取り除かれ、ブロックを解放済みの場合はtrue. */
+        private final AtomicBoolean released = new AtomicBoolean(false);
+        /** 再発行に失敗した後、次に再発行を試みる時刻(ミリ秒). */
+        private volatile long retryAt;
+
+        Entry(CachedToken token, int[] blocks, int length, long issuedAt, long expiration, int weight,
+                Supplier<CachedToken> loader, double refreshFraction) {
+            this.token = token;
+            this.blocks = blocks;
+            this.length = length;
+            this.issuedAt = issuedAt;
+            this.expiration = expiration;
+            this.weight = weight;
+            this.loader = loader;
+            this.refreshFraction = refreshFraction;
+        }
+
+        long refreshAt(long marginMillis) {
+            return Math.max(retryAt, TokenCache.refreshAt(issuedAt, expiration, marginMillis, refreshFraction));
+        }
+    }
+
+    /**
+     * 削除の候補. 並べ替え中に頻度が変わらないよう、頻度は候補の作成時に確定する.
+     */
+    private static final class Candidate {
+        private final String key;
+        private final Entry entry;
+        private final int frequency;
+
+        Candidate(String key, Entry entry, int frequency) {
+            this.key = key;
+            this.entry = entry;
+            this.frequency = frequency;
+        }
+    }
+}
@@ -0,0 +1,62 @@
+/**
+ * Personium
+ * Copyright 2016 FUJITSU LIMITED
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.personium.engine.extension.aws.sts;
+
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+/**
+ * 発行済み一時認証情報のキャッシュの実装.
+ * <br />
+ * プロセス内のキャッシュ(TokenCache)と、複数のエンジンで共有するキャッシュ(RedisTokenCacheBackend)がある。
+ * 使用する実装はExt_AWSSecurityTokenService.propertiesのTokenCacheBackendで選択する(TokenCacheBackends)。
+ */
+interface TokenCacheBackend {
+
+    /**
+     * キャッシュされた認証情報を取得する.
+     * @param key キャッシュキー
+     * @param now 現在時刻(ミリ秒)
+     * @param marginMillis 必要な残り有効期間(ミリ秒)
+     * @return 残り有効期間がマージンを上回る認証情報. 存在しない場合はnull
+     */
+    CachedToken get(String key, long now, long marginMillis);
+
+    /**
+     * 認証情報を再発行処理とともにキャッシュする.
+     * @param key キャッシュキー
+     * @param token 認証情報
+     * @param loader 認証情報の再発行処理. nullの場合は再発行しない
+     */
+    void put(String key, CachedToken token, Supplier<CachedToken> loader);
+
+    /**
+     * 指定の認証情報で発行したエントリのうち、条件に一致するものを削除する.
+     * @param accessKeyId AWS認証情報(key)
+     * @param secretAccessKey AWS認証情報(secret)
+     * @param filter キャッシュキーの条件
+     * @return 削除したエントリ数
+     * @throws IllegalStateException 共有ストアの無効化に失敗した場合. プロセス内のエントリは削除済み
+     */
+    int invalidate(String accessKeyId, String secretAccessKey, Predicate<String> filter);
+
+    /**
+     * バックグラウンドの再発行、永続化ファイル、共有ストアへの接続を解放する.
+     * 以降もプロセス内のキャッシュとしては動作する.
+     */
+    void shutdown();
+}
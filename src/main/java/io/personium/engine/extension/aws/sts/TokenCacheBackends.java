@@ -0,0 +1,81 @@
+/**
+ * Personium
+ * Copyright 2016 FUJITSU LIMITED
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.personium.engine.extension.aws.sts;
+
+import java.util.Properties;
+
+/**
+ * キャッシュの実装の選択.
+ * <br />
+ * Ext_AWSSecurityTokenService.propertiesのTokenCacheBackendに、local(既定値)またはredisを指定する。
+ * redisの場合はTokenCacheRedisHostとTokenCacheRedisPassphrase(共有ストア上の暗号化に使用)が必須で、
+ * 未指定の場合はlocalで動作する。
+ */
+final class TokenCacheBackends {
+
+    /** Redisのポート番号の既定値. */
+    static final int DEFAULT_REDIS_PORT = 6379;
+    /** Redisの接続・応答タイムアウト(ミリ秒)の既定値. */
+    static final int DEFAULT_REDIS_TIMEOUT_MILLIS = 1000;
+
+    private static final TokenCacheBackend INSTANCE = create(StsProperties.load(), TokenCache.getInstance());
+
+    private TokenCacheBackends() {
+    }
+
+    /**
+     * @return プロセス共有のキャッシュ
+     */
+    static TokenCacheBackend getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * プロセス共有のキャッシュが保持するスレッド、ファイル、接続を解放する.
+     * Ext_AWSSecurityTokenService.shutdown()から呼び出される.
+     */
+    static void shutdown() {
+        INSTANCE.shutdown();
+    }
+
+    /**
+     * 設定に従ってキャッシュを作成する.
+     * @param properties プロパティ
+     * @param local プロセス内のキャッシュ
+     * @return キャッシュ
+     */
+    static TokenCacheBackend create(Properties properties, TokenCache local) {
+        String backend = StsProperties.getString(properties, "TokenCacheBackend", "local");
+        if (!"redis".equalsIgnoreCase(backend)) {
+            return local;
+        }
+        String host = StsProperties.getString(properties, "TokenCacheRedisHost", null);
+        String passphrase = StsProperties.getString(properties, "TokenCacheRedisPassphrase", null);
+        if (host == null || passphrase == null) {
+            return local;
+        }
+        RespClient client = new RespClient(host,
+                StsProperties.getInt(properties, "TokenCacheRedisPort", DEFAULT_REDIS_PORT),
+                StsProperties.getInt(properties, "TokenCacheRedisTimeoutMillis", DEFAULT_REDIS_TIMEOUT_MILLIS),
+                StsProperties.getString(properties, "TokenCacheRedisPassword", null),
+                StsProperties.getInt(properties, "TokenCacheRedisDatabase", 0),
+                StsProperties.getInt(properties, "TokenCacheRedisPoolSize", RespClient.DEFAULT_POOL_SIZE));
+        return new RedisTokenCacheBackend(local, client, passphrase,
+                StsProperties.getString(properties, "TokenCacheRedisKeyPrefix",
+                        RedisTokenCacheBackend.DEFAULT_KEY_PREFIX));
+    }
+}
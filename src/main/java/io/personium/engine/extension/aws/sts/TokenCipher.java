@@ -0,0 +1,179 @@
+/**
+ * Personium
+ * Copyright 2016 FUJITSU LIMITED
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.personium.engine.extension.aws.sts;
+
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.Arrays;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.PBEKeySpec;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * キャッシュした認証情報をプロセス外(ファイル、共有ストア)に保存する際の暗号化.
+ * <br />
+ * パスフレーズとソルトからPBKDF2WithHmacSHA256で導出した鍵を使用し、AES-GCMで暗号化する。
+ * ソルトは保存先ごとに生成し、保存先に平文で記録する(ファイルのヘッダ、共有ストアのソルト用のキー)。
+ * キャッシュキーなどを追加認証データとして指定することで、別のキーのレコードとの入れ替えを検出する。
+ */
+final class TokenCipher {
+
+    /** IVのバイト数. */
+    static final int IV_BYTES = 12;
+    /** ソルトのバイト数. */
+    static final int SALT_BYTES = 16;
+
+    /** PBKDF2の反復回数. */
+    private static final int ITERATIONS = 600000;
+    private static final int KEY_BITS = 256;
+    private static final String KDF = "PBKDF2WithHmacSHA256";
+    private static final SecureRandom SALT_RANDOM = new SecureRandom();
+
+    private static final int TAG_BITS = 128;
+    private static final String CIPHER = "AES/GCM/NoPadding";
+
+    private final SecretKey secretKey;
+    private final SecureRandom random = new SecureRandom();
+
+    /**
+     * コンストラクタ. 鍵の導出に時間を要するため、保存先ごとに1回だけ作成する.
+     * @param passphrase 暗号鍵の元となるパスフレーズ
+     * @param salt ソルト(SALT_BYTESバイト)
+     */
+    TokenCipher(String passphrase, byte[] salt) {
+        this.secretKey = deriveKey(passphrase, salt);
+    }
+
+    private static SecretKey deriveKey(String passphrase, byte[] salt) {
+        if (salt.length != SALT_BYTES) {
+            throw new IllegalArgumentException("salt must be " + SALT_BYTES + " bytes.");
+        }
+        PBEKeySpec spec = new PBEKeySpec(passphrase.toCharArray(), salt, ITERATIONS, KEY_BITS);
+        try {
+            byte[] key = SecretKeyFactory.getInstance(KDF).generateSecret(spec).getEncoded();
+            try {
+                return new SecretKeySpec(key, "AES");
+            } finally {
+                Arrays.fill(key, (byte) 0);
+            }
+        } catch (GeneralSecurityException e) {
+            // PBKDF2WithHmacSHA256は全てのJava実装で利用可能
+            throw new IllegalStateException(e);
+        } finally {
+            spec.clearPassword();
+        }
+    }
+
+    /**
+     * @return 新しいソルト
+     */
+    static byte[] newSalt() {
+        byte[] salt = new byte[SALT_BYTES];
+        SALT_RANDOM.nextBytes(salt);
+        return salt;
+    }
+
+    /**
+     * @return 新しいIV
+     */
+    byte[] newIv() {
+        byte[] iv = new byte[IV_BYTES];
+        random.nextBytes(iv);
+        return iv;
+    }
+
+    /**
+     * 暗号化する.
+     * @param iv IV
+     * @param plain 平文
+     * @param aad 追加認証データ
+     * @return 暗号文(タグを含む)
+     * @throws GeneralSecurityException 暗号化に失敗した場合
+     */
+    byte[] encrypt(byte[] iv, byte[] plain, byte[] aad) throws GeneralSecurityException {
+        Cipher cipher = Cipher.getInstance(CIPHER);
+        cipher.init(Cipher.ENCRYPT_MODE, secretKey, new GCMParameterSpec(TAG_BITS, iv));
+        cipher.updateAAD(aad);
+        return cipher.doFinal(plain);
+    }
+
+    /**
+     * 復号する.
+     * @param iv IV
+     * @param cipherText 暗号文(タグを含む)
+     * @param aad 追加認証データ
+     * @return 平文
+     * @throws GeneralSecurityException 復号に失敗した場合(鍵の不一致、改ざんなど)
+     */
+    ByteBuffer decrypt(byte[] iv, ByteBuffer cipherText, ByteBuffer aad) throws GeneralSecurityException {
+        Cipher cipher = Cipher.getInstance(CIPHER);
+        cipher.init(Cipher.DECRYPT_MODE, secretKey, new GCMParameterSpec(TAG_BITS, iv));
+        cipher.updateAAD(aad);
+        ByteBuffer plain = ByteBuffer.allocate(cipher.getOutputSize(cipherText.remaining()));
+        cipher.doFinal(cipherText, plain);
+        plain.flip();
+        return plain;
+    }
+
+    /**
+     * IVと暗号文を連結した形式で暗号化する.
+     * @param plain 平文
+     * @param aad 追加認証データ
+     * @return IVと暗号文
+     * @throws GeneralSecurityException 暗号化に失敗した場合
+     */
+    byte[] seal(byte[] plain, byte[] aad) throws GeneralSecurityException {
+        byte[] iv = newIv();
+        byte[] cipherText = encrypt(iv, plain, aad);
+        return ByteBuffer.allocate(IV_BYTES + cipherText.length).put(iv).put(cipherText).array();
+    }
+
+    /**
+     * sealで暗号化したデータを復号する.
+     * @param sealed IVと暗号文
+     * @param aad 追加認証データ
+     * @return 平文
+     * @throws GeneralSecurityException 復号に失敗した場合
+     */
+    ByteBuffer open(byte[] sealed, byte[] aad) throws GeneralSecurityException {
+        if (sealed.length < IV_BYTES) {
+            throw new GeneralSecurityException("Sealed data is too short.");
+        }
+        byte[] iv = new byte[IV_BYTES];
+        System.arraycopy(sealed, 0, iv, 0, IV_BYTES);
+        return decrypt(iv, ByteBuffer.wrap(sealed, IV_BYTES, sealed.length - IV_BYTES), ByteBuffer.wrap(aad));
+    }
+
+    /**
+     * @param value 値
+     * @return SHA-256のハッシュ値
+     */
+    static byte[] sha256(byte[] value) {
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(value);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
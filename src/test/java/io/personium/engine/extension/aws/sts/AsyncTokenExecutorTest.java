@@ -0,0 +1,116 @@
+/**
+ * Personium
+ * Copyright 2016 FUJITSU LIMITED
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.personium.engine.extension.aws.sts;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import com.amazonaws.AmazonClientException;
+
+/**
+ * AsyncTokenExecutorTest.
+ */
+public class AsyncTokenExecutorTest {
+
+    private static final int JAVA_VIRTUAL_THREADS = 21;
+
+    /**
+     * 仮想スレッドの指定が実行環境の対応状況に従うこと.
+     * @throws Exception 実行中エラー
+     */
+    @Test
+    public void 仮想スレッドの指定が実行環境の対応状況に従うこと() throws Exception {
+        boolean supported = Runtime.version().feature() >= JAVA_VIRTUAL_THREADS;
+        AsyncTokenExecutor executor = AsyncTokenExecutor.create(true, 2, 2, 100);
+        try {
+            assertThat(executor.usesVirtualThreads()).isEqualTo(supported);
+            assertThat(AsyncTokenExecutor.newVirtualThreadExecutor() != null).isEqualTo(supported);
+            if (supported) {
+                assertThat(executor.maxConcurrency()).isEqualTo(100);
+            } else {
+                assertThat(executor.maxConcurrency()).isEqualTo(4);
+            }
+            assertThat(executor.submit(() -> "token").get(5, TimeUnit.SECONDS)).isEqualTo("token");
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * 仮想スレッドを指定しない場合スレッドプールを使用すること.
+     */
+    @Test
+    public void 仮想スレッドを指定しない場合スレッドプールを使用すること() {
+        AsyncTokenExecutor executor = AsyncTokenExecutor.create(false, 2, 2, 100);
+        try {
+            assertThat(executor.usesVirtualThreads()).isFalse();
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * 要求ごとにスレッドを作成する場合も同時に実行する要求数が制限されること.
+     * @throws Exception 実行中エラー
+     */
+    @Test
+    public void 要求ごとにスレッドを作成する場合も同時に実行する要求数が制限されること() throws Exception {
+        // 仮想スレッドの代わりに要求ごとにスレッドを作成するExecutorServiceを使用する
+        ExecutorService perTask = Executors.newCachedThreadPool();
+        AsyncTokenExecutor executor = new AsyncTokenExecutor(perTask, 2);
+        final CountDownLatch release = new CountDownLatch(1);
+        try {
+            CompletableFuture<String> first = executor.submit(() -> await(release));
+            CompletableFuture<String> second = executor.submit(() -> await(release));
+            assertThat(executor.pending()).isEqualTo(2);
+            try {
+                executor.submit(() -> "third");
+                throw new AssertionError("AmazonClientException was not thrown.");
+            } catch (AmazonClientException e) {
+                assertThat(e.getMessage()).contains("Too many");
+            }
+            release.countDown();
+            assertThat(first.get(5, TimeUnit.SECONDS)).isEqualTo("done");
+            assertThat(second.get(5, TimeUnit.SECONDS)).isEqualTo("done");
+            long deadline = System.currentTimeMillis() + 5000;
+            while (executor.pending() > 0 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            assertThat(executor.pending()).isEqualTo(0);
+            assertThat(executor.submit(() -> "next").get(5, TimeUnit.SECONDS)).isEqualTo("next");
+        } finally {
+            release.countDown();
+            executor.shutdown();
+        }
+    }
+
+    private static String await(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return "done";
+    }
+}
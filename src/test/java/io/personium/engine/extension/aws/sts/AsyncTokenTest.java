@@ -0,0 +1,169 @@
+/**
+ * Personium
+ * Copyright 2016 FUJITSU LIMITED
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.personium.engine.extension.aws.sts;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.mozilla.javascript.EcmaError;
+import org.mozilla.javascript.NativeObject;
+import org.mozilla.javascript.ScriptableObject;
+
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.services.securitytoken.model.FederatedUser;
+
+/**
+ * AsyncTokenTest.
+ * <br />
+ * キャッシュ済みの認証情報を使用し、AWSへ接続せずに非同期版の関数を検証する。
+ */
+public class AsyncTokenTest {
+
+    private static final String ACCESS_KEY_ID = "AKIAASYNCTEST";
+    private static final String SECRET = "secret";
+    private static final long HOUR = TokenFixture.HOUR;
+
+    /** キャッシュとRhinoのContext. */
+    @Rule
+    public TokenFixture fixture = new TokenFixture(ACCESS_KEY_ID, SECRET).withScriptContext();
+
+    /**
+     * 非同期に取得したSessionTokenをjoinで取得できること.
+     */
+    @Test
+    public void 非同期に取得したSessionTokenをjoinで取得できること() {
+        long expiration = System.currentTimeMillis() + HOUR;
+        fixture.cacheSessionToken(TokenFixture.sessionToken(expiration));
+
+        NativeObject handle = fixture.service().getSessionTokenAsync();
+        ScriptableObject.putProperty(fixture.scope(), "handle", handle);
+        Object result = fixture.eval("var res = handle.join(5000); handle.isDone() + '|'"
+                + " + res.Credentials.AccessKeyId + '|' + Object.keys(handle).length");
+        assertThat(result).isEqualTo("true|ASIAEXAMPLE|0");
+    }
+
+    /**
+     * 非同期に取得したFederationTokenが同期版と同じ内容であること.
+     */
+    @Test
+    public void 非同期に取得したFederationTokenが同期版と同じ内容であること() {
+        long expiration = System.currentTimeMillis() + HOUR;
+        NativeObject policy = (NativeObject) fixture.eval(
+                "({Statement: [{Effect: 'Allow', Action: 'sqs:*', Resource: '*'}]})");
+        FederatedUser user = new FederatedUser("123456789012:user", "arn:aws:sts::123456789012:federated-user/user");
+        fixture.cacheFederationToken("user", policy, null, TokenFixture.federationToken(expiration, user, 7));
+
+        NativeObject sync = fixture.service().getFederationToken("user", policy);
+        AsyncTokenRequest handle = (AsyncTokenRequest) fixture.service().getFederationTokenAsync("user", policy);
+        NativeObject async = handle.join(5000);
+        ScriptableObject.putProperty(fixture.scope(), "sync", sync);
+        ScriptableObject.putProperty(fixture.scope(), "async", async);
+        assertThat(fixture.eval("JSON.stringify(sync) === JSON.stringify(async)")).isEqualTo(Boolean.TRUE);
+    }
+
+    /**
+     * 発行時のエラーがjoinの呼び出し時に返却されること.
+     */
+    @Test
+    public void 発行時のエラーがjoinの呼び出し時に返却されること() {
+        FailureCache failures = new FailureCache(HOUR);
+        AmazonServiceException error = new AmazonServiceException("The security token included in the request"
+                + " is invalid.");
+        error.setErrorCode("InvalidClientTokenId");
+        failures.record("credential", "request", error, System.currentTimeMillis());
+        CompletableFuture<CachedToken> future = AsyncTokenExecutor.getInstance().submit(() -> {
+            failures.check("credential", "request", System.currentTimeMillis());
+            return null;
+        });
+        AsyncTokenRequest handle = new AsyncTokenRequest(fixture.scope(), future, token -> null,
+                e -> new IllegalStateException(e.getMessage(), e));
+        try {
+            handle.join(5000);
+            throw new AssertionError("IllegalStateException was not thrown.");
+        } catch (IllegalStateException e) {
+            assertThat(e.getCause()).isInstanceOf(AmazonServiceException.class);
+        }
+    }
+
+    /**
+     * 入力値の誤りは呼び出し時にEcmaErrorとなること.
+     */
+    @Test(expected = EcmaError.class)
+    public void 入力値の誤りは呼び出し時にEcmaErrorとなること() {
+        Ext_AWSSecurityTokenService stsService = fixture.service();
+        stsService.jsSet_PreflightValidation(true);
+        stsService.getSessionTokenAsyncWithDuration(1);
+    }
+
+    /**
+     * 待ち合わせがタイムアウトした場合AmazonClientExceptionとなること.
+     * @throws Exception 実行中エラー
+     */
+    @Test
+    public void 待ち合わせがタイムアウトした場合AmazonClientExceptionとなること() throws Exception {
+        CompletableFuture<CachedToken> future = new CompletableFuture<>();
+        AsyncTokenRequest handle = new AsyncTokenRequest(fixture.scope(), future, token -> null, e -> e);
+        try {
+            handle.join(50);
+            throw new AssertionError("AmazonClientException was not thrown.");
+        } catch (AmazonClientException e) {
+            assertThat(e.getMessage()).contains("Timed out");
+        }
+        assertThat(handle.cancel()).isTrue();
+        assertThat(handle.isDone()).isTrue();
+    }
+
+    /**
+     * 要求数が上限を超えた場合AmazonClientExceptionとなること.
+     * @throws Exception 実行中エラー
+     */
+    @Test
+    public void 要求数が上限を超えた場合AmazonClientExceptionとなること() throws Exception {
+        AsyncTokenExecutor executor = new AsyncTokenExecutor(1, 1);
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        try {
+            executor.submit(() -> {
+                started.countDown();
+                try {
+                    release.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return null;
+            });
+            assertThat(started.await(5, TimeUnit.SECONDS)).isTrue();
+            executor.submit(() -> null);
+            try {
+                executor.submit(() -> null);
+                throw new AssertionError("AmazonClientException was not thrown.");
+            } catch (AmazonClientException e) {
+                assertThat(e.getMessage()).contains("Too many");
+            }
+            assertThat(executor.pending()).isEqualTo(2);
+        } finally {
+            release.countDown();
+            executor.shutdown();
+        }
+    }
+}
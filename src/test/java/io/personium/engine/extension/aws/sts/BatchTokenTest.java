@@ -0,0 +1,165 @@
+/**
+ * Personium
+ * Copyright 2016 FUJITSU LIMITED
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.personium.engine.extension.aws.sts;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.mozilla.javascript.NativeArray;
+import org.mozilla.javascript.NativeObject;
+import org.mozilla.javascript.ScriptableObject;
+
+import com.amazonaws.services.securitytoken.model.Credentials;
+import com.amazonaws.services.securitytoken.model.FederatedUser;
+
+/**
+ * BatchTokenTest.
+ * <br />
+ * キャッシュ済みの認証情報を使用し、AWSへ接続せずに一括発行を検証する。
+ */
+public class BatchTokenTest {
+
+    private static final String ACCESS_KEY_ID = "AKIABATCHTEST";
+    private static final String SECRET = "secret";
+    private static final long HOUR = TokenFixture.HOUR;
+    private static final String POLICY = "{Statement: [{Effect: 'Allow', Action: 'sqs:*', Resource: '*'}]}";
+
+    /** キャッシュとRhinoのContext. */
+    @Rule
+    public TokenFixture fixture = new TokenFixture(ACCESS_KEY_ID, SECRET).withScriptContext();
+
+    /**
+     * 指定と同じ順序で結果とエラーが返却されること.
+     */
+    @Test
+    public void 指定と同じ順序で結果とエラーが返却されること() {
+        long expiration = System.currentTimeMillis() + HOUR;
+        NativeObject policy = (NativeObject) fixture.eval("(" + POLICY + ")");
+        for (int i = 0; i < 3; i++) {
+            String name = "user" + i;
+            fixture.cacheFederationToken(name, policy, 900, new CachedToken(new Credentials("ASIA" + name,
+                    "temporarySecret", "sessionToken", new Date(expiration)),
+                    new FederatedUser("123456789012:" + name, "arn:" + name), i, expiration - HOUR));
+        }
+
+        Ext_AWSSecurityTokenService stsService = fixture.service();
+        stsService.jsSet_BatchConcurrency(2);
+        stsService.jsSet_PreflightValidation(true);
+        NativeArray specs = (NativeArray) fixture.eval("(["
+                + "{name: 'user0', policy: " + POLICY + ", durationSeconds: 900},"
+                + "{name: 'x', policy: " + POLICY + "},"
+                + "{name: 'user1', policy: " + POLICY + ", durationSeconds: 900},"
+                + "{name: 'user2'},"
+                + "{name: 'user2', policy: " + POLICY + ", durationSeconds: 900}])");
+        NativeArray results = stsService.getFederationTokens(specs);
+        ScriptableObject.putProperty(fixture.scope(), "results", results);
+
+        Object summary = fixture.eval("results.map(function (r) {"
+                + " return r.Name + ':' + (r.Result ? r.Result.Credentials.AccessKeyId : 'error'); }).join(',')");
+        assertThat(summary).isEqualTo("user0:ASIAuser0,x:error,user1:ASIAuser1,user2:error,user2:ASIAuser2");
+        assertThat((String) ((NativeObject) results.get(1)).get("Error")).contains("name must be between");
+        assertThat((String) ((NativeObject) results.get(3)).get("Error")).contains("policy cannot be null");
+    }
+
+    /**
+     * 並列数の上限を超えずに並列に実行されること.
+     * @throws Exception 実行中エラー
+     */
+    @Test
+    public void 並列数の上限を超えずに並列に実行されること() throws Exception {
+        final AtomicInteger running = new AtomicInteger();
+        final AtomicInteger maxRunning = new AtomicInteger();
+        final CountDownLatch overlapped = new CountDownLatch(2);
+        List<Supplier<Integer>> tasks = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            final int value = i;
+            tasks.add(() -> {
+                int current = running.incrementAndGet();
+                maxRunning.accumulateAndGet(current, Math::max);
+                overlapped.countDown();
+                try {
+                    overlapped.await(5, TimeUnit.SECONDS);
+                    Thread.sleep(20);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                running.decrementAndGet();
+                return value;
+            });
+        }
+        AsyncTokenExecutor executor = new AsyncTokenExecutor(4, 4);
+        try {
+            List<CompletableFuture<Integer>> results = executor.submitAll(tasks, 2);
+            for (int i = 0; i < tasks.size(); i++) {
+                assertThat(results.get(i).get(5, TimeUnit.SECONDS)).isEqualTo(i);
+            }
+        } finally {
+            executor.shutdown();
+        }
+        assertThat(maxRunning.get()).isEqualTo(2);
+    }
+
+    /**
+     * スレッドプールが埋まっている場合呼び出し元のスレッドで実行されること.
+     * @throws Exception 実行中エラー
+     */
+    @Test
+    public void スレッドプールが埋まっている場合呼び出し元のスレッドで実行されること() throws Exception {
+        AsyncTokenExecutor executor = new AsyncTokenExecutor(1, 1);
+        final CountDownLatch release = new CountDownLatch(1);
+        try {
+            executor.submit(() -> {
+                try {
+                    release.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return null;
+            });
+            executor.submit(() -> null);
+            final Thread caller = Thread.currentThread();
+            List<Supplier<Boolean>> tasks = new ArrayList<>();
+            tasks.add(() -> Thread.currentThread() == caller);
+            tasks.add(() -> {
+                throw new IllegalStateException("failed");
+            });
+            List<CompletableFuture<Boolean>> results = executor.submitAll(tasks, 2);
+            assertThat(results.get(0).isDone()).isTrue();
+            assertThat(results.get(0).get()).isTrue();
+            try {
+                results.get(1).get();
+                throw new AssertionError("ExecutionException was not thrown.");
+            } catch (ExecutionException e) {
+                assertThat(e.getCause()).isInstanceOf(IllegalStateException.class);
+            }
+        } finally {
+            release.countDown();
+            executor.shutdown();
+        }
+    }
+}
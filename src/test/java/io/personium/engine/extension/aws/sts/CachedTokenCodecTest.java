@@ -0,0 +1,79 @@
+/**
+ * Personium
+ * Copyright 2016 FUJITSU LIMITED
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.personium.engine.extension.aws.sts;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+import java.nio.ByteBuffer;
+import java.util.Date;
+
+import org.junit.Test;
+
+import com.amazonaws.services.securitytoken.model.Credentials;
+import com.amazonaws.services.securitytoken.model.FederatedUser;
+
+/**
+ * CachedTokenCodecTest.
+ */
+public class CachedTokenCodecTest {
+
+    private static final long NOW = 1000000000000L;
+    private static final long HOUR = 3600 * 1000L;
+
+    /**
+     * GetFederationTokenの結果を変換後に復元できること.
+     */
+    @Test
+    public void GetFederationTokenの結果を変換後に復元できること() {
+        Credentials credentials = new Credentials("ASIAEXAMPLE", "secret", "セッション", new Date(NOW + HOUR));
+        FederatedUser user = new FederatedUser("123456789012:user", "arn:aws:sts::123456789012:federated-user/user");
+        CachedToken token = new CachedToken(credentials, user, 12, NOW);
+
+        ByteBuffer buffer = ByteBuffer.wrap(CachedTokenCodec.encode(token));
+        CachedToken decoded = CachedTokenCodec.decode(buffer);
+
+        assertThat(decoded.getCredentials()).isEqualTo(credentials);
+        assertThat(decoded.getFederatedUser()).isEqualTo(user);
+        assertThat(decoded.getPackedPolicySize()).isEqualTo(12);
+        assertThat(decoded.getIssuedAt()).isEqualTo(NOW);
+        assertThat(buffer.position()).isEqualTo(0);
+    }
+
+    /**
+     * GetSessionTokenの結果を変換後に復元できること.
+     */
+    @Test
+    public void GetSessionTokenの結果を変換後に復元できること() {
+        Credentials credentials = new Credentials("ASIAEXAMPLE", "secret", null, new Date(NOW + HOUR));
+        CachedToken decoded = CachedTokenCodec.decode(
+                ByteBuffer.wrap(CachedTokenCodec.encode(new CachedToken(credentials, NOW))));
+
+        assertThat(decoded.getCredentials()).isEqualTo(credentials);
+        assertThat(decoded.getFederatedUser()).isNull();
+        assertThat(decoded.getPackedPolicySize()).isNull();
+    }
+
+    /**
+     * 途中で切れたバイト列の場合IllegalArgumentExceptionとなること.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void 途中で切れたバイト列の場合IllegalArgumentExceptionとなること() {
+        Credentials credentials = new Credentials("ASIAEXAMPLE", "secret", "session", new Date(NOW + HOUR));
+        byte[] bytes = CachedTokenCodec.encode(new CachedToken(credentials, NOW));
+        CachedTokenCodec.decode(ByteBuffer.wrap(bytes, 0, bytes.length - 1).slice());
+    }
+}
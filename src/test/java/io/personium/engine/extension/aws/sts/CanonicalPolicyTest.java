@@ -0,0 +1,121 @@
+/**
+ * Personium
+ * Copyright 2016 FUJITSU LIMITED
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.personium.engine.extension.aws.sts;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mozilla.javascript.Context;
+import org.mozilla.javascript.Scriptable;
+
+/**
+ * CanonicalPolicyTest.
+ */
+public class CanonicalPolicyTest {
+
+    private Context cx;
+    private Scriptable scope;
+
+    /**
+     * 前処理.
+     */
+    @Before
+    public void before() {
+        cx = Context.enter();
+        scope = cx.initStandardObjects();
+    }
+
+    /**
+     * 後処理.
+     */
+    @After
+    public void after() {
+        Context.exit();
+    }
+
+    /**
+     * キーの順序と空白が異なる同じポリシーが同じインスタンスとなること.
+     */
+    @Test
+    public void キーの順序と空白が異なる同じポリシーが同じインスタンスとなること() {
+        CanonicalPolicy first = CanonicalPolicy.of(eval(
+                "({Version: '2012-10-17', Statement: [{Effect: 'Allow', Action: ['s3:Get*'], Resource: '*'}]})"));
+        CanonicalPolicy second = CanonicalPolicy.of(eval(
+                "({ Statement : [ { Resource : '*', Action : [ 's3:Get*' ], Effect : 'Allow' } ],"
+                + " Version : '2012-10-17' })"));
+        assertThat(second).isSameAs(first);
+        assertThat(first.getJson()).isEqualTo(
+                "{\"Statement\":[{\"Action\":[\"s3:Get*\"],\"Effect\":\"Allow\",\"Resource\":\"*\"}],"
+                + "\"Version\":\"2012-10-17\"}");
+        assertThat(first.getHash()).isEqualTo(StsClientKey.hash(first.getJson()));
+    }
+
+    /**
+     * 配列の順序が異なるポリシーは別のポリシーとなること.
+     */
+    @Test
+    public void 配列の順序が異なるポリシーは別のポリシーとなること() {
+        CanonicalPolicy first = CanonicalPolicy.of(eval("({Action: ['s3:GetObject', 's3:PutObject']})"));
+        CanonicalPolicy second = CanonicalPolicy.of(eval("({Action: ['s3:PutObject', 's3:GetObject']})"));
+        assertThat(second.getHash()).isNotEqualTo(first.getHash());
+    }
+
+    /**
+     * インターンテーブルが上限を超えないこと.
+     */
+    @Test
+    public void インターンテーブルが上限を超えないこと() {
+        for (int i = 0; i < CanonicalPolicy.MAX_ENTRIES * 2; i++) {
+            CanonicalPolicy.intern("{\"Sid\":\"" + i + "\"}");
+        }
+        assertThat(CanonicalPolicy.size()).isLessThanOrEqualTo(CanonicalPolicy.MAX_ENTRIES);
+    }
+
+    /**
+     * インターンテーブルの上限を超えた場合は最も長く参照されていないポリシーから破棄されること.
+     */
+    @Test
+    public void インターンテーブルの上限を超えた場合は最も長く参照されていないポリシーから破棄されること() {
+        CanonicalPolicy hot = CanonicalPolicy.intern("{\"Sid\":\"hot\"}");
+        CanonicalPolicy cold = CanonicalPolicy.intern("{\"Sid\":\"cold\"}");
+        for (int i = 0; i < CanonicalPolicy.MAX_ENTRIES; i++) {
+            assertThat(CanonicalPolicy.intern("{\"Sid\":\"hot\"}")).isSameAs(hot);
+            CanonicalPolicy.intern("{\"Sid\":\"lru" + i + "\"}");
+        }
+        assertThat(CanonicalPolicy.size()).isEqualTo(CanonicalPolicy.MAX_ENTRIES);
+        assertThat(CanonicalPolicy.intern("{\"Sid\":\"hot\"}")).isSameAs(hot);
+        assertThat(CanonicalPolicy.intern("{\"Sid\":\"cold\"}")).isNotSameAs(cold);
+    }
+
+    /**
+     * 正規化したポリシーのキャッシュキーが文字列から作成したキーと一致すること.
+     */
+    @Test
+    public void 正規化したポリシーのキャッシュキーが文字列から作成したキーと一致すること() {
+        CanonicalPolicy policy = CanonicalPolicy.of(eval("({Statement: [{Effect: 'Deny'}]})"));
+        String key = TokenCache.federationTokenKey("AKIAEXAMPLE", "secret", StsEndpoint.GLOBAL, "user", policy, null);
+        assertThat(key).isEqualTo(TokenCache.federationTokenKey("AKIAEXAMPLE", "secret", StsEndpoint.GLOBAL, "user",
+                policy.getJson(), null));
+        assertThat(TokenCache.byPolicy(policy).test(key)).isTrue();
+    }
+
+    private Scriptable eval(String script) {
+        return (Scriptable) cx.evaluateString(scope, script, "test", 1, null);
+    }
+}
@@ -0,0 +1,111 @@
+/**
+ * Personium
+ * Copyright 2016 FUJITSU LIMITED
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.personium.engine.extension.aws.sts;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+import org.junit.Test;
+
+import com.amazonaws.AmazonServiceException;
+
+/**
+ * FailureCacheTest.
+ */
+public class FailureCacheTest {
+
+    private static final long NOW = 1000000000000L;
+    private static final long TTL = 30 * 1000L;
+    private static final String CREDENTIAL = FailureCache.credentialKey("AKIAEXAMPLE", "secret");
+
+    private static AmazonServiceException error(String errorCode) {
+        AmazonServiceException e = new AmazonServiceException("error message");
+        e.setErrorCode(errorCode);
+        e.setStatusCode(403);
+        e.setServiceName("AWSSecurityTokenService");
+        return e;
+    }
+
+    private static AmazonServiceException check(FailureCache cache, String credentialKey, String requestKey,
+            long now) {
+        try {
+            cache.check(credentialKey, requestKey, now);
+            return null;
+        } catch (AmazonServiceException e) {
+            return e;
+        }
+    }
+
+    /**
+     * 認証情報のエラーが同じ認証情報の全リクエストに適用されること.
+     */
+    @Test
+    public void 認証情報のエラーが同じ認証情報の全リクエストに適用されること() {
+        FailureCache cache = new FailureCache(TTL);
+        AmazonServiceException original = error("InvalidClientTokenId");
+        cache.record(CREDENTIAL, "request1", original, NOW);
+
+        AmazonServiceException cached = check(cache, CREDENTIAL, "request2", NOW);
+        assertThat(cached).isNotNull();
+        assertThat(cached).isNotSameAs(original);
+        assertThat(cached.toString()).isEqualTo(original.toString());
+        assertThat(check(cache, FailureCache.credentialKey("AKIAEXAMPLE", "other"), "request2", NOW)).isNull();
+    }
+
+    /**
+     * ポリシーのエラーが同じリクエストにのみ適用されること.
+     */
+    @Test
+    public void ポリシーのエラーが同じリクエストにのみ適用されること() {
+        FailureCache cache = new FailureCache(TTL);
+        cache.record(CREDENTIAL, "request1", error("MalformedPolicyDocument"), NOW);
+
+        assertThat(check(cache, CREDENTIAL, "request1", NOW)).isNotNull();
+        assertThat(check(cache, CREDENTIAL, "request2", NOW)).isNull();
+    }
+
+    /**
+     * 一時的なエラーは保持されないこと.
+     */
+    @Test
+    public void 一時的なエラーは保持されないこと() {
+        FailureCache cache = new FailureCache(TTL);
+        cache.record(CREDENTIAL, "request1", error("Throttling"), NOW);
+        assertThat(cache.size()).isEqualTo(0);
+    }
+
+    /**
+     * 保持期間を過ぎたエラーは適用されないこと.
+     */
+    @Test
+    public void 保持期間を過ぎたエラーは適用されないこと() {
+        FailureCache cache = new FailureCache(TTL);
+        cache.record(CREDENTIAL, "request1", error("SignatureDoesNotMatch"), NOW);
+        assertThat(check(cache, CREDENTIAL, "request1", NOW + TTL - 1)).isNotNull();
+        assertThat(check(cache, CREDENTIAL, "request1", NOW + TTL)).isNull();
+        assertThat(cache.size()).isEqualTo(0);
+    }
+
+    /**
+     * 保持期間が0の場合は保持されないこと.
+     */
+    @Test
+    public void 保持期間が0の場合は保持されないこと() {
+        FailureCache cache = new FailureCache(0);
+        cache.record(CREDENTIAL, "request1", error("InvalidClientTokenId"), NOW);
+        assertThat(check(cache, CREDENTIAL, "request1", NOW)).isNull();
+    }
+}
@@ -0,0 +1,69 @@
+/**
+ * Personium
+ * Copyright 2016 FUJITSU LIMITED
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.personium.engine.extension.aws.sts;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+import org.junit.Test;
+
+/**
+ * FrequencySketchTest.
+ */
+public class FrequencySketchTest {
+
+    /**
+     * 参照回数に応じた頻度が返却されること.
+     */
+    @Test
+    public void 参照回数に応じた頻度が返却されること() {
+        FrequencySketch sketch = new FrequencySketch(1000);
+        for (int i = 0; i < 5; i++) {
+            sketch.increment("hot");
+        }
+        sketch.increment("cold");
+        assertThat(sketch.frequency("hot")).isEqualTo(5);
+        assertThat(sketch.frequency("cold")).isEqualTo(1);
+        assertThat(sketch.frequency("unknown")).isEqualTo(0);
+    }
+
+    /**
+     * 頻度の上限が15であること.
+     */
+    @Test
+    public void 頻度の上限が15であること() {
+        FrequencySketch sketch = new FrequencySketch(1000);
+        for (int i = 0; i < 100; i++) {
+            sketch.increment("hot");
+        }
+        assertThat(sketch.frequency("hot")).isEqualTo(15);
+    }
+
+    /**
+     * 標本数に達すると頻度が半減すること.
+     */
+    @Test
+    public void 標本数に達すると頻度が半減すること() {
+        FrequencySketch sketch = new FrequencySketch(16);
+        for (int i = 0; i < 8; i++) {
+            sketch.increment("hot");
+        }
+        for (int i = 0; sketch.frequency("hot") >= 8 && i < 16 * FrequencySketch.SAMPLE_FACTOR; i++) {
+            sketch.increment("key" + i);
+        }
+        assertThat(sketch.frequency("hot")).isLessThan(8);
+    }
+}
@@ -0,0 +1,93 @@
+/**
+ * Personium
+ * Copyright 2016 FUJITSU LIMITED
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.personium.engine.extension.aws.sts;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Test;
+
+/**
+ * OffHeapSlabTest.
+ */
+public class OffHeapSlabTest {
+
+    private static final int BLOCK = OffHeapSlab.BLOCK_BYTES;
+
+    /**
+     * 複数のブロックにまたがるバイト列を読み出せること.
+     */
+    @Test
+    public void 複数のブロックにまたがるバイト列を読み出せること() {
+        OffHeapSlab slab = new OffHeapSlab(BLOCK * 4L);
+        byte[] data = new byte[BLOCK * 2 + 1];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) i;
+        }
+        int[] blocks = slab.allocate(data);
+        assertThat(blocks).hasSize(3);
+        assertThat(slab.read(blocks, data.length)).isEqualTo(data);
+        assertThat(slab.used()).isEqualTo(BLOCK * 3L);
+    }
+
+    /**
+     * 空きブロックが不足する場合はnullが返却されること.
+     */
+    @Test
+    public void 空きブロックが不足する場合はnullが返却されること() {
+        OffHeapSlab slab = new OffHeapSlab(BLOCK * 2L);
+        assertThat(slab.allocate(new byte[BLOCK])).isNotNull();
+        assertThat(slab.allocate(new byte[BLOCK + 1])).isNull();
+        assertThat(slab.used()).isEqualTo((long) BLOCK);
+    }
+
+    /**
+     * 解放したブロックが再利用されること.
+     */
+    @Test
+    public void 解放したブロックが再利用されること() {
+        OffHeapSlab slab = new OffHeapSlab(BLOCK * 2L);
+        int[] first = slab.allocate(new byte[BLOCK * 2]);
+        slab.free(first);
+        assertThat(slab.used()).isEqualTo(0L);
+
+        byte[] data = "reused".getBytes(StandardCharsets.UTF_8);
+        for (int i = 0; i < 100; i++) {
+            int[] blocks = slab.allocate(data);
+            assertThat(slab.read(blocks, data.length)).isEqualTo(data);
+            slab.free(blocks);
+        }
+        assertThat(slab.allocate(new byte[BLOCK * 2])).isNotNull();
+    }
+
+    /**
+     * 容量はブロックのサイズ単位に切り捨てられること.
+     */
+    @Test
+    public void 容量はブロックのサイズ単位に切り捨てられること() {
+        assertThat(new OffHeapSlab(BLOCK * 3L - 1).capacity()).isEqualTo(BLOCK * 2L);
+    }
+
+    /**
+     * 容量がブロックのサイズ未満の場合IllegalArgumentExceptionとなること.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void 容量がブロックのサイズ未満の場合IllegalArgumentExceptionとなること() {
+        new OffHeapSlab(BLOCK - 1);
+    }
+}
@@ -0,0 +1,211 @@
+/**
+ * Personium
+ * Copyright 2016 FUJITSU LIMITED
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.personium.engine.extension.aws.sts;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Date;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.amazonaws.services.securitytoken.model.Credentials;
+
+/**
+ * PersistentTokenStoreTest.
+ */
+public class PersistentTokenStoreTest {
+
+    private static final long HOUR = 3600 * 1000L;
+    private static final long MAX_BYTES = 1024 * 1024L;
+    /** ヘッダ中のソルトの位置(マジックとバージョンの後). */
+    private static final int SALT_OFFSET = 5;
+    /** 旧形式のファイルのサイズ(ヘッダとレコード1件分程度). */
+    private static final int LEGACY_BYTES = 128;
+
+    /** 一時ディレクトリ. */
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static CachedToken token(String sessionToken, long expiration) {
+        Credentials credentials = new Credentials("ASIAEXAMPLE", "secret", sessionToken, new Date(expiration));
+        return new CachedToken(credentials, expiration - HOUR);
+    }
+
+    /**
+     * 再オープン後に有効期限内の認証情報を取得できること.
+     * @throws Exception 実行中エラー
+     */
+    @Test
+    public void 再オープン後に有効期限内の認証情報を取得できること() throws Exception {
+        Path path = folder.getRoot().toPath().resolve("tokens.bin");
+        long now = System.currentTimeMillis();
+        try (PersistentTokenStore store = PersistentTokenStore.open(path, "passphrase", MAX_BYTES, now)) {
+            store.append("valid", token("old", now + HOUR));
+            store.append("valid", token("new", now + HOUR));
+            store.append("expired", token("expired", now - 1));
+        }
+        assertThat(new String(Files.readAllBytes(path), StandardCharsets.ISO_8859_1)).doesNotContain("ASIAEXAMPLE");
+
+        try (PersistentTokenStore store = PersistentTokenStore.open(path, "passphrase", MAX_BYTES, now)) {
+            assertThat(store.pending()).isEqualTo(1);
+            assertThat(store.load("expired", now)).isNull();
+            assertThat(store.load("valid", now).getCredentials().getSessionToken()).isEqualTo("new");
+            // 一度読み込んだレコードは索引から削除される
+            assertThat(store.load("valid", now)).isNull();
+        }
+    }
+
+    /**
+     * パスフレーズが異なる場合認証情報を取得できないこと.
+     * @throws Exception 実行中エラー
+     */
+    @Test
+    public void パスフレーズが異なる場合認証情報を取得できないこと() throws Exception {
+        Path path = folder.getRoot().toPath().resolve("tokens.bin");
+        long now = System.currentTimeMillis();
+        try (PersistentTokenStore store = PersistentTokenStore.open(path, "passphrase", MAX_BYTES, now)) {
+            store.append("valid", token("session", now + HOUR));
+        }
+        try (PersistentTokenStore store = PersistentTokenStore.open(path, "other", MAX_BYTES, now)) {
+            assertThat(store.load("valid", now)).isNull();
+        }
+    }
+
+    /**
+     * 末尾が壊れたファイルでも有効なレコードを取得できること.
+     * @throws Exception 実行中エラー
+     */
+    @Test
+    public void 末尾が壊れたファイルでも有効なレコードを取得できること() throws Exception {
+        Path path = folder.getRoot().toPath().resolve("tokens.bin");
+        long now = System.currentTimeMillis();
+        try (PersistentTokenStore store = PersistentTokenStore.open(path, "passphrase", MAX_BYTES, now)) {
+            store.append("first", token("first", now + HOUR));
+            store.append("second", token("second", now + HOUR));
+        }
+        byte[] bytes = Files.readAllBytes(path);
+        Files.write(path, Arrays.copyOf(bytes, bytes.length - 1));
+
+        try (PersistentTokenStore store = PersistentTokenStore.open(path, "passphrase", MAX_BYTES, now)) {
+            assertThat(store.load("first", now)).isNotNull();
+            assertThat(store.load("second", now)).isNull();
+        }
+    }
+
+    /**
+     * メモリ上に存在しないキーを永続化ファイルから補うこと.
+     * @throws Exception 実行中エラー
+     */
+    @Test
+    public void メモリ上に存在しないキーを永続化ファイルから補うこと() throws Exception {
+        Path path = folder.getRoot().toPath().resolve("tokens.bin");
+        long now = System.currentTimeMillis();
+        TokenCache before = new TokenCache(100);
+        before.persistTo(PersistentTokenStore.open(path, "passphrase", MAX_BYTES, now));
+        before.put("key", token("session", now + HOUR));
+        before.shutdown();
+
+        TokenCache after = new TokenCache(100);
+        after.persistTo(PersistentTokenStore.open(path, "passphrase", MAX_BYTES, now));
+        try {
+            assertThat(after.size()).isEqualTo(0);
+            assertThat(after.get("key", now, 0).getCredentials().getSessionToken()).isEqualTo("session");
+            assertThat(after.size()).isEqualTo(1);
+        } finally {
+            after.shutdown();
+        }
+    }
+
+    /**
+     * 無効化したキーが再オープン後に読み込まれないこと.
+     * @throws Exception 実行中エラー
+     */
+    @Test
+    public void 無効化したキーが再オープン後に読み込まれないこと() throws Exception {
+        Path path = folder.getRoot().toPath().resolve("tokens.bin");
+        long now = System.currentTimeMillis();
+        try (PersistentTokenStore store = PersistentTokenStore.open(path, "passphrase", MAX_BYTES, now)) {
+            store.append("deleted", token("deleted", now + HOUR));
+            store.append("pending", token("pending", now + HOUR));
+            store.delete("deleted");
+        }
+        try (PersistentTokenStore store = PersistentTokenStore.open(path, "passphrase", MAX_BYTES, now)) {
+            assertThat(store.pending()).isEqualTo(1);
+            store.discardPending();
+            assertThat(store.load("pending", now)).isNull();
+        }
+        try (PersistentTokenStore store = PersistentTokenStore.open(path, "passphrase", MAX_BYTES, now)) {
+            assertThat(store.pending()).isEqualTo(0);
+        }
+    }
+
+    /**
+     * ファイルごとに生成したソルトをヘッダに記録し再オープン後も使用すること.
+     * @throws Exception 実行中エラー
+     */
+    @Test
+    public void ファイルごとに生成したソルトをヘッダに記録し再オープン後も使用すること() throws Exception {
+        Path first = folder.getRoot().toPath().resolve("first.bin");
+        Path second = folder.getRoot().toPath().resolve("second.bin");
+        long now = System.currentTimeMillis();
+        try (PersistentTokenStore store = PersistentTokenStore.open(first, "passphrase", MAX_BYTES, now)) {
+            store.append("valid", token("session", now + HOUR));
+            store.append("expired", token("expired", now - 1));
+        }
+        PersistentTokenStore.open(second, "passphrase", MAX_BYTES, now).close();
+        byte[] salt = salt(first);
+        assertThat(salt).isNotEqualTo(salt(second));
+
+        // 期限切れのレコードを取り除く整理後も同じソルトで復号できる
+        try (PersistentTokenStore store = PersistentTokenStore.open(first, "passphrase", MAX_BYTES, now)) {
+            assertThat(store.load("valid", now).getCredentials().getSessionToken()).isEqualTo("session");
+        }
+        assertThat(salt(first)).isEqualTo(salt);
+    }
+
+    /**
+     * 旧形式のファイルのレコードは破棄されること.
+     * @throws Exception 実行中エラー
+     */
+    @Test
+    public void 旧形式のファイルのレコードは破棄されること() throws Exception {
+        Path path = folder.getRoot().toPath().resolve("tokens.bin");
+        long now = System.currentTimeMillis();
+        byte[] legacy = Arrays.copyOf("PSTS\u0001".getBytes(StandardCharsets.US_ASCII), LEGACY_BYTES);
+        Files.write(path, legacy);
+
+        try (PersistentTokenStore store = PersistentTokenStore.open(path, "passphrase", MAX_BYTES, now)) {
+            assertThat(store.pending()).isEqualTo(0);
+            store.append("key", token("session", now + HOUR));
+        }
+        try (PersistentTokenStore store = PersistentTokenStore.open(path, "passphrase", MAX_BYTES, now)) {
+            assertThat(store.load("key", now).getCredentials().getSessionToken()).isEqualTo("session");
+        }
+    }
+
+    private static byte[] salt(Path path) throws IOException {
+        byte[] bytes = Files.readAllBytes(path);
+        return Arrays.copyOfRange(bytes, SALT_OFFSET, SALT_OFFSET + TokenCipher.SALT_BYTES);
+    }
+}
@@ -0,0 +1,175 @@
+/**
+ * Personium
+ * Copyright 2016 FUJITSU LIMITED
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.personium.engine.extension.aws.sts;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.mozilla.javascript.EcmaError;
+import org.mozilla.javascript.NativeObject;
+import org.mozilla.javascript.Scriptable;
+
+import com.amazonaws.services.securitytoken.model.FederatedUser;
+
+/**
+ * PolicyTemplateTest.
+ */
+public class PolicyTemplateTest {
+
+    private static final String ACCESS_KEY_ID = "AKIATEMPLATETEST";
+    private static final String SECRET = "secret";
+    private static final String OTHER_ACCESS_KEY_ID = "AKIATEMPLATEOTHER";
+    private static final String OTHER_SECRET = "otherSecret";
+    private static final long HOUR = TokenFixture.HOUR;
+    private static final String TEMPLATE = "({Version: '2012-10-17', Statement: [{Effect: 'Allow',"
+            + " Action: 's3:*', Resource: 'arn:aws:s3:::bucket/${prefix}/*',"
+            + " Condition: {StringLike: {'s3:prefix': '${prefix}/${aws:username}'}}}]})";
+
+    /** キャッシュとRhinoのContext. */
+    @Rule
+    public TokenFixture fixture = new TokenFixture(ACCESS_KEY_ID, SECRET).withScriptContext();
+
+    /**
+     * 登録したテンプレートを削除する.
+     */
+    @After
+    public void after() {
+        PolicyTemplate.unregister(FailureCache.credentialKey(ACCESS_KEY_ID, SECRET), "test");
+        PolicyTemplate.unregister(FailureCache.credentialKey(ACCESS_KEY_ID, OTHER_SECRET), "test");
+        PolicyTemplate.unregister(FailureCache.credentialKey(OTHER_ACCESS_KEY_ID, SECRET), "test");
+    }
+
+    /**
+     * パラメータを埋め込んだポリシーがオブジェクトから作成したポリシーと一致すること.
+     */
+    @Test
+    public void パラメータを埋め込んだポリシーがオブジェクトから作成したポリシーと一致すること() {
+        PolicyTemplate template = PolicyTemplate.compile(eval(TEMPLATE), false);
+        assertThat(template.getParameterNames()).containsOnly("prefix");
+
+        CanonicalPolicy rendered = template.render(eval("({prefix: 'user1'})"));
+        CanonicalPolicy expected = CanonicalPolicy.of(eval(TEMPLATE.replace("${prefix}", "user1")));
+        assertThat(rendered.getJson()).isEqualTo(expected.getJson());
+        assertThat(rendered.getHash()).isEqualTo(expected.getHash());
+        assertThat(rendered.getJson()).contains("\"user1/${aws:username}\"");
+    }
+
+    /**
+     * パラメータを埋め込んだポリシーはインターンテーブルに登録されないこと.
+     */
+    @Test
+    public void パラメータを埋め込んだポリシーはインターンテーブルに登録されないこと() {
+        PolicyTemplate template = PolicyTemplate.compile(eval(TEMPLATE), false);
+        int size = CanonicalPolicy.size();
+        for (int i = 0; i < 100; i++) {
+            template.render(eval("({prefix: 'user" + i + "'})"));
+        }
+        assertThat(CanonicalPolicy.size()).isEqualTo(size);
+    }
+
+    /**
+     * パラメータの値がJSONの文字列としてエスケープされること.
+     */
+    @Test
+    public void パラメータの値がJSONの文字列としてエスケープされること() {
+        PolicyTemplate template = PolicyTemplate.parse("{\"Resource\":\"${a}-${b}\"}");
+        assertThat(template.render(eval("({a: 'x\"y\\\\z', b: 12})")).getJson())
+                .isEqualTo("{\"Resource\":\"x\\\"y\\\\z-12\"}");
+    }
+
+    /**
+     * プレースホルダのないテンプレートはそのまま返却されること.
+     */
+    @Test
+    public void プレースホルダのないテンプレートはそのまま返却されること() {
+        PolicyTemplate template = PolicyTemplate.parse("{\"Statement\":[]}");
+        assertThat(template.getParameterNames()).isEmpty();
+        assertThat(template.render(null).getJson()).isEqualTo("{\"Statement\":[]}");
+        assertThat(template.render(null)).isSameAs(CanonicalPolicy.intern("{\"Statement\":[]}"));
+    }
+
+    /**
+     * パラメータが不足している場合IllegalArgumentExceptionとなること.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void パラメータが不足している場合IllegalArgumentExceptionとなること() {
+        PolicyTemplate.compile(eval(TEMPLATE), false).render(eval("({other: 'x'})"));
+    }
+
+    /**
+     * 登録したテンプレートでFederationTokenを取得できること.
+     */
+    @Test
+    public void 登録したテンプレートでFederationTokenを取得できること() {
+        long expiration = System.currentTimeMillis() + HOUR;
+        FederatedUser user = new FederatedUser("123456789012:user", "arn:aws:sts::123456789012:federated-user/user");
+        CanonicalPolicy policy = CanonicalPolicy.of(eval(TEMPLATE.replace("${prefix}", "user1")));
+        fixture.cacheFederationToken("user", policy, null, TokenFixture.federationToken(expiration, user, 7));
+
+        Ext_AWSSecurityTokenService stsService = fixture.service();
+        stsService.registerPolicyTemplate("test", (NativeObject) eval(TEMPLATE));
+        NativeObject res = stsService.getFederationTokenFromTemplate("user", "test",
+                (NativeObject) eval("({prefix: 'user1'})"));
+
+        NativeObject credentials = (NativeObject) res.get("Credentials");
+        assertThat(credentials.get("AccessKeyId")).isEqualTo("ASIAEXAMPLE");
+        assertThat(res.get("PackedPolicySize")).isEqualTo(Integer.valueOf(7));
+    }
+
+    /**
+     * 登録されていないテンプレートを指定した場合EcmaErrorとなること.
+     */
+    @Test
+    public void 登録されていないテンプレートを指定した場合EcmaErrorとなること() {
+        Ext_AWSSecurityTokenService stsService = fixture.service();
+        try {
+            stsService.getFederationTokenFromTemplate("user", "unknown", (NativeObject) eval("({})"));
+            throw new AssertionError("EcmaError was not thrown.");
+        } catch (EcmaError e) {
+            assertThat(e.getMessage()).contains("policy template is not registered");
+        }
+    }
+
+    /**
+     * 別の認証情報で登録したテンプレートは参照も置き換えもできないこと.
+     */
+    @Test
+    public void 別の認証情報で登録したテンプレートは参照も置き換えもできないこと() {
+        Ext_AWSSecurityTokenService owner = fixture.service(ACCESS_KEY_ID, SECRET);
+        owner.registerPolicyTemplate("test", (NativeObject) eval(TEMPLATE));
+
+        for (Ext_AWSSecurityTokenService other : new Ext_AWSSecurityTokenService[] {
+            fixture.service(ACCESS_KEY_ID, OTHER_SECRET), fixture.service(OTHER_ACCESS_KEY_ID, SECRET)}) {
+            try {
+                other.getFederationTokenFromTemplate("user", "test", (NativeObject) eval("({prefix: 'user1'})"));
+                throw new AssertionError("EcmaError was not thrown.");
+            } catch (EcmaError e) {
+                assertThat(e.getMessage()).contains("policy template is not registered");
+            }
+            // 同じ名前で登録しても登録元のテンプレートは置き換わらない
+            other.registerPolicyTemplate("test", (NativeObject) eval(TEMPLATE.replace("${prefix}", "${other}")));
+        }
+        assertThat(PolicyTemplate.get(FailureCache.credentialKey(ACCESS_KEY_ID, SECRET), "test").getParameterNames())
+                .containsOnly("prefix");
+    }
+
+    private Scriptable eval(String script) {
+        return (Scriptable) fixture.eval(script);
+    }
+}
@@ -0,0 +1,113 @@
+/**
+ * Personium
+ * Copyright 2016 FUJITSU LIMITED
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.personium.engine.extension.aws.sts;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mozilla.javascript.Context;
+import org.mozilla.javascript.NativeObject;
+import org.mozilla.javascript.Scriptable;
+import org.mozilla.javascript.ScriptableObject;
+
+/**
+ * PolicyWriterTest.
+ */
+public class PolicyWriterTest {
+
+    private Context cx;
+    private Scriptable scope;
+
+    /**
+     * 前処理.
+     */
+    @Before
+    public void before() {
+        cx = Context.enter();
+        scope = cx.initStandardObjects();
+    }
+
+    /**
+     * 後処理.
+     */
+    @After
+    public void after() {
+        Context.exit();
+    }
+
+    /**
+     * 入れ子の配列とオブジェクトがJSONとして出力されること.
+     */
+    @Test
+    public void 入れ子の配列とオブジェクトがJSONとして出力されること() {
+        String json = "{\"Version\":\"2012-10-17\",\"Statement\":[{\"Effect\":\"Allow\","
+                + "\"Action\":[\"s3:GetObject\",\"s3:PutObject\"],\"Resource\":\"arn:aws:s3:::bucket/*\","
+                + "\"Condition\":{\"NumericLessThan\":{\"s3:max-keys\":10}}}]}";
+        assertThat(PolicyWriter.write(eval("(" + json + ")"))).isEqualTo(json);
+    }
+
+    /**
+     * JSON.stringifyと同じ文字列が出力されること.
+     */
+    @Test
+    public void JSON_stringifyと同じ文字列が出力されること() {
+        String script = "({a: 'x' + String(1) + 'y', b: 1.5, c: 3, d: true, e: null, f: undefined,"
+                + " g: function () {}, h: [1, undefined, function () {}, 'z'], i: 0.1 + 0.2, j: 1e21,"
+                + " k: NaN, l: '\"\\\\\\n\\t\\u0001/\\u3042', m: {}, n: [], 10: 'index'})";
+        Scriptable policy = eval(script);
+        ScriptableObject.putProperty(scope, "p", policy);
+        Object expected = cx.evaluateString(scope, "JSON.stringify(p)", "test", 1, null);
+        assertThat(PolicyWriter.write(policy)).isEqualTo(expected.toString());
+    }
+
+    /**
+     * 循環参照を含む場合IllegalArgumentExceptionとなること.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void 循環参照を含む場合IllegalArgumentExceptionとなること() {
+        PolicyWriter.write(eval("var o = {Statement: []}; o.Statement.push(o); o"));
+    }
+
+    /**
+     * 大きなポリシーの後も正しく出力されること.
+     */
+    @Test
+    public void 大きなポリシーの後も正しく出力されること() {
+        String large = "var p = {Statement: []};"
+                + " for (var i = 0; i < 5000; i++) {"
+                + " p.Statement.push({Effect: 'Allow', Action: 's3:GetObject', Resource: 'arn:aws:s3:::b' + i});"
+                + " } p";
+        assertThat(PolicyWriter.write(eval(large))).startsWith("{\"Statement\":[{\"Effect\"");
+        assertThat(PolicyWriter.write(eval("({Version: '2012-10-17'})"))).isEqualTo("{\"Version\":\"2012-10-17\"}");
+    }
+
+    /**
+     * serializePolicyが入れ子のポリシーを正規形で出力すること.
+     */
+    @Test
+    public void serializePolicyが入れ子のポリシーを正規形で出力すること() {
+        NativeObject policy = (NativeObject) eval("({Statement: [{Effect: 'Allow', Action: 'sqs:*', Resource: '*'}]})");
+        assertThat(Ext_AWSSecurityTokenService.serializePolicy(policy))
+                .isEqualTo("{\"Statement\":[{\"Action\":\"sqs:*\",\"Effect\":\"Allow\",\"Resource\":\"*\"}]}");
+    }
+
+    private Scriptable eval(String script) {
+        return (Scriptable) cx.evaluateString(scope, script, "test", 1, null);
+    }
+}
@@ -0,0 +1,212 @@
+/**
+ * Personium
+ * Copyright 2016 FUJITSU LIMITED
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.personium.engine.extension.aws.sts;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.mozilla.javascript.Context;
+import org.mozilla.javascript.EcmaError;
+import org.mozilla.javascript.NativeObject;
+import org.mozilla.javascript.Scriptable;
+
+import io.personium.engine.extension.support.ExtensionLogger;
+
+/**
+ * PreflightTest.
+ */
+public class PreflightTest {
+
+    private static final String POLICY = "({Statement: [{Effect: 'Allow', Action: 'sqs:*', Resource: '*'}]})";
+
+    private Context cx;
+    private Scriptable scope;
+
+    /**
+     * すべてのテスト実行前に１度だけ実行する.
+     */
+    @BeforeClass
+    public static void beforeClass() {
+        Ext_AWSSecurityTokenService.setLogger(Ext_AWSSecurityTokenService.class, new ExtensionLogger(
+                Ext_AWSSecurityTokenService.class));
+    }
+
+    /**
+     * 前処理.
+     */
+    @Before
+    public void before() {
+        cx = Context.enter();
+        scope = cx.initStandardObjects();
+    }
+
+    /**
+     * 後処理.
+     */
+    @After
+    public void after() {
+        Context.exit();
+    }
+
+    /**
+     * 連携ユーザ名の長さと文字種が検査されること.
+     */
+    @Test
+    public void 連携ユーザ名の長さと文字種が検査されること() {
+        Preflight.checkName("12");
+        Preflight.checkName("12345678901234567890123456789012");
+        Preflight.checkName("user+=,.@-_1");
+        assertRejected(() -> Preflight.checkName(null));
+        assertRejected(() -> Preflight.checkName(""));
+        assertRejected(() -> Preflight.checkName("1"));
+        assertRejected(() -> Preflight.checkName("123456789012345678901234567890123"));
+        assertRejected(() -> Preflight.checkName("user name"));
+    }
+
+    /**
+     * 有効期間の範囲が検査されること.
+     */
+    @Test
+    public void 有効期間の範囲が検査されること() {
+        Preflight.checkDuration(null);
+        Preflight.checkDuration(Preflight.MIN_DURATION_SECONDS);
+        Preflight.checkDuration(Preflight.MAX_DURATION_SECONDS);
+        assertRejected(() -> Preflight.checkDuration(Preflight.MIN_DURATION_SECONDS - 1));
+        assertRejected(() -> Preflight.checkDuration(Preflight.MAX_DURATION_SECONDS + 1));
+    }
+
+    /**
+     * ポリシーのキーワードが検査されること.
+     */
+    @Test
+    public void ポリシーのキーワードが検査されること() {
+        Preflight.checkPolicy(eval(POLICY));
+        Preflight.checkPolicy(eval("({Version: '2012-10-17', Id: 'p', Statement: {Sid: 's', Effect: 'Deny',"
+                + " NotAction: 's3:*', NotResource: '*', Condition: {Bool: {'aws:SecureTransport': 'false'}}}})"));
+        assertRejected(() -> Preflight.checkPolicy(
+                eval("({Sttement: [{Effect: 'Allow', Action: 'sqs:*', Resource: '*'}]})")));
+        assertRejected(() -> Preflight.checkPolicy(
+                eval("({Statement: [{Effect: 'Allow', Acton: 'sqs:*', Resource: '*'}]})")));
+        assertRejected(() -> Preflight.checkPolicy(
+                eval("({Statement: [{Effect: 'Permit', Action: 'sqs:*', Resource: '*'}]})")));
+        assertRejected(() -> Preflight.checkPolicy(
+                eval("({Version: '2020-01-01', Statement: [{Effect: 'Allow', Action: 'sqs:*'}]})")));
+        Preflight.checkPolicy(eval("({Statement: []})"));
+        assertRejected(() -> Preflight.checkPolicy(eval("({Version: '2012-10-17'})")));
+    }
+
+    /**
+     * ポリシーの長さが検査されること.
+     */
+    @Test
+    public void ポリシーの長さが検査されること() {
+        StringBuilder json = new StringBuilder();
+        for (int i = 0; i < Preflight.MAX_POLICY_LENGTH; i++) {
+            json.append('x');
+        }
+        Preflight.checkPolicyLength(json.toString());
+        json.append('x');
+        assertRejected(() -> Preflight.checkPolicyLength(json.toString()));
+    }
+
+    /**
+     * PackedPolicySizeの概算が繰り返しの多いポリシーほど小さくなること.
+     */
+    @Test
+    public void PackedPolicySizeの概算が繰り返しの多いポリシーほど小さくなること() {
+        StringBuilder repeated = new StringBuilder("{\"Statement\":[");
+        StringBuilder random = new StringBuilder("{\"Statement\":[");
+        Random rnd = new Random(0);
+        for (int i = 0; i < 20; i++) {
+            repeated.append("{\"Action\":\"s3:GetObject\",\"Effect\":\"Allow\",\"Resource\":\"*\"},");
+            random.append("{\"Sid\":\"").append(Long.toHexString(rnd.nextLong()))
+                    .append(Long.toHexString(rnd.nextLong())).append("\"},");
+        }
+        int small = Preflight.estimatePackedPolicySize(repeated.toString());
+        int large = Preflight.estimatePackedPolicySize(random.toString());
+        assertThat(small).isGreaterThan(0);
+        assertThat(small).isLessThan(large);
+        assertThat(Preflight.estimatePackedPolicySize("{}")).isLessThanOrEqualTo(1);
+    }
+
+    /**
+     * ポリシーの縮小で要素数1の配列が要素そのものとなること.
+     */
+    @Test
+    public void ポリシーの縮小で要素数1の配列が要素そのものとなること() {
+        Scriptable policy = eval("({Statement: [{Effect: 'Allow', Action: ['sqs:*'], Resource: ['a', 'b'],"
+                + " Condition: {StringEquals: {'aws:username': ['u']}}}]})");
+        assertThat(PolicyWriter.write(policy, true, true)).isEqualTo("{\"Statement\":{\"Action\":\"sqs:*\","
+                + "\"Condition\":{\"StringEquals\":{\"aws:username\":[\"u\"]}},\"Effect\":\"Allow\","
+                + "\"Resource\":[\"a\",\"b\"]}}");
+    }
+
+    /**
+     * 入力値の検査は既定で無効であること.
+     */
+    @Test
+    public void 入力値の検査は既定で無効であること() {
+        assertThat(new Ext_AWSSecurityTokenService().PreflightValidation()).isFalse();
+    }
+
+    /**
+     * 不正な入力がAWSへ問い合わせずにエラーとなること.
+     */
+    @Test
+    public void 不正な入力がAWSへ問い合わせずにエラーとなること() {
+        Ext_AWSSecurityTokenService stsService = new Ext_AWSSecurityTokenService();
+        stsService.jsSet_AccessKeyId("AKIAPREFLIGHTTEST");
+        stsService.jsSet_SecretAccessKey("secret");
+        stsService.jsSet_Endpoint("https://127.0.0.1:1");
+        stsService.jsSet_PreflightValidation(true);
+        NativeObject policy = (NativeObject) eval(POLICY);
+        assertThat(errorOf(() -> stsService.getFederationToken("1", policy))).contains("name must be between");
+        assertThat(errorOf(() -> stsService.getFederationTokenWithDuration("user", policy, 100)))
+                .contains("durationSeconds must be between");
+        assertThat(errorOf(() -> stsService.getSessionTokenWithDuration(100)))
+                .contains("durationSeconds must be between");
+        NativeObject unknown = (NativeObject) eval("({Sttement: [{Effect: 'Allow'}]})");
+        assertThat(errorOf(() -> stsService.getFederationToken("user", unknown))).contains("unknown keyword");
+    }
+
+    private Scriptable eval(String script) {
+        return (Scriptable) cx.evaluateString(scope, script, "test", 1, null);
+    }
+
+    private static void assertRejected(Runnable check) {
+        try {
+            check.run();
+        } catch (IllegalArgumentException e) {
+            return;
+        }
+        throw new AssertionError("IllegalArgumentException was not thrown.");
+    }
+
+    private static String errorOf(Runnable call) {
+        try {
+            call.run();
+        } catch (EcmaError e) {
+            return e.getMessage();
+        }
+        throw new AssertionError("EcmaError was not thrown.");
+    }
+}
@@ -0,0 +1,479 @@
+/**
+ * Personium
+ * Copyright 2016 FUJITSU LIMITED
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.personium.engine.extension.aws.sts;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Pattern;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.amazonaws.services.securitytoken.model.Credentials;
+
+/**
+ * RedisTokenCacheBackendTest.
+ * <br />
+ * RESPの最小限のコマンド(AUTH、SELECT、GET、SET、DEL、SCAN)に応答するスタブサーバに対して検証する。
+ */
+public class RedisTokenCacheBackendTest {
+
+    private static final long HOUR = 3600 * 1000L;
+    private static final long MARGIN = 300 * 1000L;
+    private static final int TIMEOUT = 1000;
+    private static final String PREFIX = "test:";
+    private static final int POOL_SIZE = 2;
+    private static final int THREADS = 8;
+
+    private StubServer server;
+
+    /**
+     * スタブサーバを起動する.
+     * @throws IOException 起動に失敗した場合
+     */
+    @Before
+    public void setUp() throws IOException {
+        server = new StubServer();
+    }
+
+    /**
+     * スタブサーバを停止する.
+     * @throws IOException 停止に失敗した場合
+     */
+    @After
+    public void tearDown() throws IOException {
+        server.close();
+    }
+
+    private RedisTokenCacheBackend node(String passphrase) {
+        RespClient client = new RespClient("127.0.0.1", server.port(), TIMEOUT, "password", 1, POOL_SIZE);
+        return new RedisTokenCacheBackend(new TokenCache(100), client, passphrase, PREFIX);
+    }
+
+    private static CachedToken token(long expiration) {
+        Credentials credentials = new Credentials("ASIAEXAMPLE", "secret", "session", new Date(expiration));
+        return new CachedToken(credentials, expiration - HOUR);
+    }
+
+    /**
+     * 他のノードで発行した認証情報を取得できること.
+     */
+    @Test
+    public void 他のノードで発行した認証情報を取得できること() {
+        RedisTokenCacheBackend first = node("passphrase");
+        RedisTokenCacheBackend second = node("passphrase");
+        long now = System.currentTimeMillis();
+        CachedToken token = token(now + HOUR);
+        first.put("key", token, null);
+
+        CachedToken shared = second.get("key", now, MARGIN);
+        assertThat(shared.getCredentials()).isEqualTo(token.getCredentials());
+        // 2回目以降はプロセス内のキャッシュから返す
+        int gets = server.gets.get();
+        assertThat(second.get("key", now, MARGIN)).isSameAs(shared);
+        assertThat(server.gets.get()).isEqualTo(gets);
+        // 共有ストア上は暗号化されている
+        assertThat(new String(server.data.get(PREFIX + "key"), StandardCharsets.ISO_8859_1))
+                .doesNotContain("ASIAEXAMPLE");
+        assertThat(server.authenticated).isTrue();
+        // 鍵導出のソルトは最初のノードが作成し、全てのノードで共有する
+        assertThat(server.data.get(PREFIX + "salt")).hasSize(TokenCipher.SALT_BYTES);
+        first.shutdown();
+        second.shutdown();
+    }
+
+    /**
+     * パスフレーズが異なる場合共有ストアの認証情報を使用しないこと.
+     */
+    @Test
+    public void パスフレーズが異なる場合共有ストアの認証情報を使用しないこと() {
+        RedisTokenCacheBackend first = node("passphrase");
+        RedisTokenCacheBackend second = node("other");
+        long now = System.currentTimeMillis();
+        first.put("key", token(now + HOUR), null);
+        assertThat(second.get("key", now, MARGIN)).isNull();
+        first.shutdown();
+        second.shutdown();
+    }
+
+    /**
+     * 無効化が共有ストアにも適用されること.
+     */
+    @Test
+    public void 無効化が共有ストアにも適用されること() {
+        RedisTokenCacheBackend first = node("passphrase");
+        RedisTokenCacheBackend second = node("passphrase");
+        long now = System.currentTimeMillis();
+        String user1 = TokenCache.federationTokenKey("AKIAEXAMPLE", "secret", StsEndpoint.GLOBAL, "user1", "{}", null);
+        String user2 = TokenCache.federationTokenKey("AKIAEXAMPLE", "secret", StsEndpoint.GLOBAL, "user2", "{}", null);
+        first.put(user1, token(now + HOUR), null);
+        first.put(user2, token(now + HOUR), null);
+
+        // 共有ストアとプロセス内のキャッシュで1件ずつ削除する
+        assertThat(first.invalidate("AKIAEXAMPLE", "secret", TokenCache.byFederatedName("user1"))).isEqualTo(2);
+        assertThat(second.get(user1, now, MARGIN)).isNull();
+        assertThat(second.get(user2, now, MARGIN)).isNotNull();
+        first.shutdown();
+        second.shutdown();
+    }
+
+    /**
+     * 共有ストアで削除したキーの数が削除数に含まれること.
+     */
+    @Test
+    public void 共有ストアで削除したキーの数が削除数に含まれること() {
+        RedisTokenCacheBackend first = node("passphrase");
+        RedisTokenCacheBackend second = node("passphrase");
+        long now = System.currentTimeMillis();
+        String user = TokenCache.federationTokenKey("AKIAEXAMPLE", "secret", StsEndpoint.GLOBAL, "user", "{}", null);
+        first.put(user, token(now + HOUR), null);
+
+        assertThat(second.invalidate("AKIAEXAMPLE", "secret", key -> true)).isEqualTo(1);
+        assertThat(server.data.containsKey(PREFIX + user)).isFalse();
+        assertThat(second.invalidate("AKIAEXAMPLE", "secret", key -> true)).isEqualTo(0);
+        first.shutdown();
+        second.shutdown();
+    }
+
+    /**
+     * 共有ストアの無効化に失敗した場合IllegalStateExceptionとなること.
+     * @throws IOException 停止に失敗した場合
+     */
+    @Test
+    public void 共有ストアの無効化に失敗した場合IllegalStateExceptionとなること() throws IOException {
+        RedisTokenCacheBackend backend = node("passphrase");
+        server.close();
+        long now = System.currentTimeMillis();
+        String session = TokenCache.sessionTokenKey("AKIAEXAMPLE", "secret", StsEndpoint.GLOBAL, null);
+        backend.put(session, token(now + HOUR), null);
+        try {
+            backend.invalidate("AKIAEXAMPLE", "secret", key -> true);
+            throw new AssertionError("IllegalStateException was not thrown.");
+        } catch (IllegalStateException e) {
+            assertThat(e.getMessage()).contains("shared token cache");
+        }
+        // プロセス内のキャッシュは削除済み
+        assertThat(backend.get(session, now, MARGIN)).isNull();
+        backend.shutdown();
+    }
+
+    /**
+     * 共有ストアの無効化は指定の認証情報のキーのみを走査すること.
+     */
+    @Test
+    public void 共有ストアの無効化は指定の認証情報のキーのみを走査すること() {
+        RedisTokenCacheBackend first = node("passphrase");
+        RedisTokenCacheBackend second = node("passphrase");
+        long now = System.currentTimeMillis();
+        StsEndpoint global = StsEndpoint.GLOBAL;
+        String own = TokenCache.federationTokenKey("AKIAEXAMPLE", "secret", global, "user", "{}", null);
+        String session = TokenCache.sessionTokenKey("AKIAEXAMPLE", "secret", global, null);
+        String otherSecret = TokenCache.federationTokenKey("AKIAEXAMPLE", "other", global, "user", "{}", null);
+        String otherAccessKey = TokenCache.federationTokenKey("AKIAOTHER", "secret", global, "user", "{}", null);
+        for (String key : new String[] {own, session, otherSecret, otherAccessKey}) {
+            first.put(key, token(now + HOUR), null);
+        }
+
+        assertThat(first.invalidate("AKIAEXAMPLE", "secret", key -> true)).isEqualTo(4);
+        assertThat(server.scanned).containsOnly(PREFIX + own, PREFIX + session);
+        assertThat(second.get(own, now, MARGIN)).isNull();
+        assertThat(second.get(session, now, MARGIN)).isNull();
+        assertThat(second.get(otherSecret, now, MARGIN)).isNotNull();
+        assertThat(second.get(otherAccessKey, now, MARGIN)).isNotNull();
+        first.shutdown();
+        second.shutdown();
+    }
+
+    /**
+     * 共有ストアに接続できない場合プロセス内のキャッシュで動作すること.
+     * @throws IOException 停止に失敗した場合
+     */
+    @Test
+    public void 共有ストアに接続できない場合プロセス内のキャッシュで動作すること() throws IOException {
+        RedisTokenCacheBackend backend = node("passphrase");
+        server.close();
+        long now = System.currentTimeMillis();
+        CachedToken token = token(now + HOUR);
+        backend.put("key", token, null);
+        assertThat(backend.get("key", now, MARGIN)).isSameAs(token);
+        assertThat(backend.get("other", now, MARGIN)).isNull();
+        backend.shutdown();
+    }
+
+    /**
+     * 同時に実行しても接続数が上限を超えないこと.
+     * @throws Exception 実行中エラー
+     */
+    @Test
+    public void 同時に実行しても接続数が上限を超えないこと() throws Exception {
+        final RedisTokenCacheBackend first = node("passphrase");
+        RedisTokenCacheBackend second = node("passphrase");
+        final long now = System.currentTimeMillis();
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        try {
+            List<Future<?>> results = new ArrayList<>();
+            for (int i = 0; i < THREADS; i++) {
+                final String key = "key" + i;
+                results.add(executor.submit(() -> first.put(key, token(now + HOUR), null)));
+            }
+            for (Future<?> result : results) {
+                result.get(5, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        for (int i = 0; i < THREADS; i++) {
+            assertThat(second.get("key" + i, now, MARGIN)).isNotNull();
+        }
+        assertThat(server.connections.get()).isLessThanOrEqualTo(POOL_SIZE * 2);
+        first.shutdown();
+        second.shutdown();
+    }
+
+    /**
+     * 共有ストアへの接続に失敗した後は一定時間接続を試みないこと.
+     */
+    @Test
+    public void 共有ストアへの接続に失敗した後は一定時間接続を試みないこと() {
+        RespClient client = new RespClient("127.0.0.1", server.port(), TIMEOUT, "password", 1, POOL_SIZE);
+        RedisTokenCacheBackend backend = new RedisTokenCacheBackend(new TokenCache(100), client, "passphrase",
+                PREFIX);
+        server.down = true;
+        long now = System.currentTimeMillis();
+        assertThat(backend.get("key", now, MARGIN)).isNull();
+        assertThat(client.isUnavailable()).isTrue();
+        int connections = server.connections.get();
+
+        // 使用不可の期間中は接続せずにプロセス内のキャッシュで動作する
+        CachedToken token = token(now + HOUR);
+        backend.put("key", token, null);
+        assertThat(backend.get("key", now, MARGIN)).isSameAs(token);
+        assertThat(backend.get("other", now, MARGIN)).isNull();
+        assertThat(server.connections.get()).isEqualTo(connections);
+        backend.shutdown();
+    }
+
+    /**
+     * RESPの最小限のスタブサーバ.
+     */
+    private static final class StubServer {
+        private final ServerSocket serverSocket = new ServerSocket(0);
+        private final Map<String, byte[]> data = new ConcurrentHashMap<>();
+        private final AtomicInteger gets = new AtomicInteger();
+        private final AtomicInteger connections = new AtomicInteger();
+        private volatile boolean down;
+        private final List<String> scanned = new CopyOnWriteArrayList<>();
+        private volatile boolean authenticated;
+
+        StubServer() throws IOException {
+            Thread thread = new Thread(this::accept, "resp-stub");
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        int port() {
+            return serverSocket.getLocalPort();
+        }
+
+        void close() throws IOException {
+            serverSocket.close();
+        }
+
+        private void accept() {
+            while (!serverSocket.isClosed()) {
+                try {
+                    final Socket socket = serverSocket.accept();
+                    connections.incrementAndGet();
+                    Thread thread = new Thread(() -> serve(socket), "resp-stub-connection");
+                    thread.setDaemon(true);
+                    thread.start();
+                } catch (IOException e) {
+                    return;
+                }
+            }
+        }
+
+        private void serve(Socket socket) {
+            try (Socket s = socket) {
+                if (down) {
+                    return;
+                }
+                InputStream in = new BufferedInputStream(s.getInputStream());
+                OutputStream out = s.getOutputStream();
+                while (true) {
+                    List<byte[]> command = readCommand(in);
+                    if (command == null) {
+                        return;
+                    }
+                    out.write(handle(command));
+                    out.flush();
+                }
+            } catch (IOException e) {
+                return;
+            }
+        }
+
+        private byte[] handle(List<byte[]> command) {
+            String name = new String(command.get(0), StandardCharsets.UTF_8).toUpperCase();
+            switch (name) {
+            case "AUTH":
+                authenticated = "password".equals(string(command.get(1)));
+                return simple("OK");
+            case "SELECT":
+                return simple("OK");
+            case "GET":
+                gets.incrementAndGet();
+                return bulk(data.get(string(command.get(1))));
+            case "SET":
+                if (command.size() > 3 && "NX".equals(string(command.get(3)))) {
+                    if (data.putIfAbsent(string(command.get(1)), command.get(2)) != null) {
+                        return bulk(null);
+                    }
+                    return simple("OK");
+                }
+                data.put(string(command.get(1)), command.get(2));
+                return simple("OK");
+            case "DEL":
+                int deleted = 0;
+                for (byte[] key : command.subList(1, command.size())) {
+                    if (data.remove(string(key)) != null) {
+                        deleted++;
+                    }
+                }
+                return (":" + deleted + "\r\n").getBytes(StandardCharsets.US_ASCII);
+            case "SCAN":
+                Pattern pattern = glob(string(command.get(3)));
+                ByteArrayOutputStream reply = new ByteArrayOutputStream();
+                List<String> keys = new ArrayList<>();
+                for (String key : data.keySet()) {
+                    if (pattern.matcher(key).matches()) {
+                        keys.add(key);
+                    }
+                }
+                scanned.addAll(keys);
+                write(reply, "*2\r\n");
+                byte[] cursor = bulk("0".getBytes(StandardCharsets.UTF_8));
+                reply.write(cursor, 0, cursor.length);
+                write(reply, "*" + keys.size() + "\r\n");
+                for (String key : keys) {
+                    byte[] item = bulk(key.getBytes(StandardCharsets.UTF_8));
+                    reply.write(item, 0, item.length);
+                }
+                return reply.toByteArray();
+            default:
+                return ("-ERR unknown command '" + name + "'\r\n").getBytes(StandardCharsets.UTF_8);
+            }
+        }
+
+        /**
+         * SCANのMATCHのパターン(*とエスケープのみ)を正規表現に変換する.
+         */
+        private static Pattern glob(String pattern) {
+            StringBuilder regex = new StringBuilder();
+            for (int i = 0; i < pattern.length(); i++) {
+                char c = pattern.charAt(i);
+                if (c == '*') {
+                    regex.append(".*");
+                } else if (c == '\\') {
+                    i++;
+                    regex.append(Pattern.quote(String.valueOf(pattern.charAt(i))));
+                } else {
+                    regex.append(Pattern.quote(String.valueOf(c)));
+                }
+            }
+            return Pattern.compile(regex.toString());
+        }
+
+        private static List<byte[]> readCommand(InputStream in) throws IOException {
+            String header = readLine(in);
+            if (header == null) {
+                return null;
+            }
+            int count = Integer.parseInt(header.substring(1));
+            List<byte[]> args = new ArrayList<>();
+            for (int i = 0; i < count; i++) {
+                int length = Integer.parseInt(readLine(in).substring(1));
+                byte[] arg = new byte[length];
+                int offset = 0;
+                while (offset < length) {
+                    offset += in.read(arg, offset, length - offset);
+                }
+                readLine(in);
+                args.add(arg);
+            }
+            return args;
+        }
+
+        private static String readLine(InputStream in) throws IOException {
+            ByteArrayOutputStream line = new ByteArrayOutputStream();
+            int c = in.read();
+            while (c != '\r') {
+                if (c < 0) {
+                    return null;
+                }
+                line.write(c);
+                c = in.read();
+            }
+            in.read();
+            return new String(line.toByteArray(), StandardCharsets.UTF_8);
+        }
+
+        private static String string(byte[] value) {
+            return new String(value, StandardCharsets.UTF_8);
+        }
+
+        private static byte[] simple(String value) {
+            return ("+" + value + "\r\n").getBytes(StandardCharsets.UTF_8);
+        }
+
+        private static byte[] bulk(byte[] value) {
+            if (value == null) {
+                return "$-1\r\n".getBytes(StandardCharsets.US_ASCII);
+            }
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            write(out, "$" + value.length + "\r\n");
+            out.write(value, 0, value.length);
+            write(out, "\r\n");
+            return out.toByteArray();
+        }
+
+        private static void write(ByteArrayOutputStream out, String value) {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            out.write(bytes, 0, bytes.length);
+        }
+    }
+}
@@ -0,0 +1,185 @@
+/**
+ * Personium
+ * Copyright 2016 FUJITSU LIMITED
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.personium.engine.extension.aws.sts;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.AmazonServiceException;
+
+/**
+ * RequestCoalescerTest.
+ */
+public class RequestCoalescerTest {
+
+    private static final int THREADS = 8;
+
+    /**
+     * 同じキーの同時実行が1回にまとめられること.
+     * @throws Exception 実行中エラー
+     */
+    @Test
+    public void 同じキーの同時実行が1回にまとめられること() throws Exception {
+        final RequestCoalescer<String> coalescer = new RequestCoalescer<>();
+        final AtomicInteger calls = new AtomicInteger();
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        try {
+            List<Future<String>> results = new ArrayList<>();
+            results.add(executor.submit(() -> coalescer.execute("key", () -> {
+                calls.incrementAndGet();
+                started.countDown();
+                await(release);
+                return "token";
+            }, 0)));
+            assertThat(started.await(5, TimeUnit.SECONDS)).isTrue();
+            for (int i = 1; i < THREADS; i++) {
+                results.add(executor.submit(() -> coalescer.execute("key", () -> {
+                    calls.incrementAndGet();
+                    return "other";
+                }, 0)));
+            }
+            Thread.sleep(100);
+            release.countDown();
+            for (Future<String> result : results) {
+                assertThat(result.get(5, TimeUnit.SECONDS)).isEqualTo("token");
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        assertThat(calls.get()).isEqualTo(1);
+        assertThat(coalescer.size()).isEqualTo(0);
+    }
+
+    /**
+     * 接続先のエンドポイントが異なるリクエストはまとめられないこと.
+     * @throws Exception 実行中エラー
+     */
+    @Test
+    public void 接続先のエンドポイントが異なるリクエストはまとめられないこと() throws Exception {
+        final RequestCoalescer<String> coalescer = new RequestCoalescer<>();
+        final String globalKey = TokenCache.sessionTokenKey("AKIAEXAMPLE", "secret", StsEndpoint.GLOBAL, null);
+        final String regionalKey = TokenCache.sessionTokenKey("AKIAEXAMPLE", "secret",
+                StsEndpoint.resolve("us-west-2"), null);
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(1);
+        try {
+            Future<String> global = executor.submit(() -> coalescer.execute(globalKey, () -> {
+                started.countDown();
+                await(release);
+                return "global";
+            }, 0));
+            assertThat(started.await(5, TimeUnit.SECONDS)).isTrue();
+
+            // 実行中のリクエストを待ち合わせず、自身で発行すること
+            assertThat(coalescer.execute(regionalKey, () -> "regional", 0)).isEqualTo("regional");
+            release.countDown();
+            assertThat(global.get(5, TimeUnit.SECONDS)).isEqualTo("global");
+        } finally {
+            release.countDown();
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * 実行中の処理のエラーが待ち合わせ側にも返却されること.
+     * @throws Exception 実行中エラー
+     */
+    @Test
+    public void 実行中の処理のエラーが待ち合わせ側にも返却されること() throws Exception {
+        final RequestCoalescer<String> coalescer = new RequestCoalescer<>();
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final AmazonServiceException error = new AmazonServiceException("InvalidClientTokenId");
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            Future<String> leader = executor.submit(() -> coalescer.execute("key", () -> {
+                started.countDown();
+                await(release);
+                throw error;
+            }, 0));
+            assertThat(started.await(5, TimeUnit.SECONDS)).isTrue();
+            Future<String> waiter = executor.submit(() -> coalescer.execute("key", () -> "other", 0));
+            Thread.sleep(100);
+            release.countDown();
+            assertThat(causeOf(leader)).isSameAs(error);
+            assertThat(causeOf(waiter)).isSameAs(error);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * 待ち合わせがタイムアウトした場合AmazonClientExceptionとなること.
+     * @throws Exception 実行中エラー
+     */
+    @Test
+    public void 待ち合わせがタイムアウトした場合AmazonClientExceptionとなること() throws Exception {
+        final RequestCoalescer<String> coalescer = new RequestCoalescer<>();
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(1);
+        try {
+            executor.submit(() -> coalescer.execute("key", () -> {
+                started.countDown();
+                await(release);
+                return "token";
+            }, 0));
+            assertThat(started.await(5, TimeUnit.SECONDS)).isTrue();
+            try {
+                coalescer.execute("key", () -> "other", 50);
+                throw new AssertionError("AmazonClientException was not thrown.");
+            } catch (AmazonClientException e) {
+                assertThat(e.getMessage()).contains("Timed out");
+            }
+        } finally {
+            release.countDown();
+            executor.shutdownNow();
+        }
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static Throwable causeOf(Future<String> future) throws Exception {
+        try {
+            future.get(5, TimeUnit.SECONDS);
+        } catch (ExecutionException e) {
+            return e.getCause();
+        }
+        return null;
+    }
+}
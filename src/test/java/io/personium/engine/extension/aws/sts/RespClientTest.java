@@ -0,0 +1,310 @@
+/**
+ * Personium
+ * Copyright 2016 FUJITSU LIMITED
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.personium.engine.extension.aws.sts;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * RespClientTest.
+ * <br />
+ * 受信したコマンドごとに、あらかじめ指定した応答を分割して返すスタブサーバに対してプロトコルの処理を検証する。
+ */
+public class RespClientTest {
+
+    private static final int TIMEOUT = 1000;
+    private static final int POOL_SIZE = 2;
+    /** 分割した応答を送信する間隔(ミリ秒). */
+    private static final long CHUNK_INTERVAL_MILLIS = 20;
+
+    private ScriptedServer server;
+    private RespClient client;
+
+    /**
+     * スタブサーバを起動する.
+     * @throws IOException 起動に失敗した場合
+     */
+    @Before
+    public void setUp() throws IOException {
+        server = new ScriptedServer();
+        client = new RespClient("127.0.0.1", server.port(), TIMEOUT, null, 0, POOL_SIZE);
+    }
+
+    /**
+     * クライアントとスタブサーバを停止する.
+     * @throws IOException 停止に失敗した場合
+     */
+    @After
+    public void tearDown() throws IOException {
+        client.close();
+        server.close();
+    }
+
+    /**
+     * 分割して届いた応答を組み立てられること.
+     * @throws IOException 通信エラー
+     */
+    @Test
+    public void 分割して届いた応答を組み立てられること() throws IOException {
+        server.reply("+O", "K\r", "\n");
+        server.reply("$1", "1\r\nhel", "lo world", "\r\n");
+        server.reply("*3\r\n:4", "2\r\n$-", "1\r\n*-1\r\n");
+        assertThat(client.command("SET", "key", "value")).isEqualTo("OK");
+        assertThat((byte[]) client.command("GET", "key")).isEqualTo("hello world".getBytes(StandardCharsets.UTF_8));
+        assertThat((List<?>) client.command("SCAN", "0")).isEqualTo(Arrays.asList(42L, null, null));
+        assertThat(server.connections.get()).isEqualTo(1);
+        assertThat(new ArrayList<>(server.commands)).isEqualTo(Arrays.asList("SET", "GET", "SCAN"));
+    }
+
+    /**
+     * エラー応答の場合は例外となり接続が再利用されること.
+     * @throws IOException 通信エラー
+     */
+    @Test
+    public void エラー応答の場合は例外となり接続が再利用されること() throws IOException {
+        server.reply("-WRONGTYPE Operation against a key", "\r\n");
+        server.reply("+OK\r\n");
+        try {
+            client.command("GET", "key");
+            throw new AssertionError("IOException was not thrown.");
+        } catch (IOException e) {
+            assertThat(e.getMessage()).contains("WRONGTYPE");
+        }
+        assertThat(client.isUnavailable()).isFalse();
+        assertThat(client.command("SET", "key", "value")).isEqualTo("OK");
+        assertThat(server.connections.get()).isEqualTo(1);
+    }
+
+    /**
+     * プールした接続が応答の途中で切断された場合は新しい接続で再実行すること.
+     * @throws IOException 通信エラー
+     */
+    @Test
+    public void プールした接続が応答の途中で切断された場合は新しい接続で再実行すること() throws IOException {
+        server.reply("+OK\r\n");
+        server.replyAndDisconnect("$5\r\nhe");
+        server.reply("$5\r\nhello\r\n");
+        assertThat(client.command("SET", "key", "hello")).isEqualTo("OK");
+        assertThat((byte[]) client.command("GET", "key")).isEqualTo("hello".getBytes(StandardCharsets.UTF_8));
+        assertThat(server.connections.get()).isEqualTo(2);
+        assertThat(new ArrayList<>(server.commands)).isEqualTo(Arrays.asList("SET", "GET", "GET"));
+        assertThat(client.isUnavailable()).isFalse();
+    }
+
+    /**
+     * 新しい接続が応答の途中で切断された場合は使用不可となること.
+     */
+    @Test
+    public void 新しい接続が応答の途中で切断された場合は使用不可となること() {
+        server.replyAndDisconnect("*2\r\n:1\r\n");
+        assertThat(errorOf("GET", "key")).contains("Connection closed");
+        assertThat(client.isUnavailable()).isTrue();
+        // 使用不可の期間中は接続を試みない
+        assertThat(errorOf("GET", "key")).contains("unavailable");
+        assertThat(server.connections.get()).isEqualTo(1);
+    }
+
+    /**
+     * 不正な形式の応答の場合は例外となること.
+     */
+    @Test
+    public void 不正な形式の応答の場合は例外となること() {
+        server.reply("?unknown\r\n");
+        assertThat(errorOf("GET", "key")).contains("Unexpected RESP type");
+    }
+
+    /**
+     * 接続できない場合は使用不可となること.
+     * @throws IOException 停止に失敗した場合
+     */
+    @Test
+    public void 接続できない場合は使用不可となること() throws IOException {
+        server.close();
+        assertThat(errorOf("GET", "key")).contains("Failed to connect");
+        assertThat(client.isUnavailable()).isTrue();
+        assertThat(errorOf("GET", "key")).contains("unavailable");
+    }
+
+    /**
+     * 閉じた後のコマンドは例外となること.
+     */
+    @Test
+    public void 閉じた後のコマンドは例外となること() {
+        client.close();
+        assertThat(errorOf("GET", "key")).contains("closed");
+        assertThat(server.connections.get()).isEqualTo(0);
+    }
+
+    private String errorOf(Object... args) {
+        try {
+            client.command(args);
+        } catch (IOException e) {
+            return e.getMessage();
+        }
+        throw new AssertionError("IOException was not thrown.");
+    }
+
+    /**
+     * 受信したコマンドに、登録順に応答するスタブサーバ.
+     */
+    private static final class ScriptedServer {
+        private final ServerSocket serverSocket = new ServerSocket(0);
+        private final BlockingQueue<Reply> replies = new LinkedBlockingQueue<>();
+        private final BlockingQueue<String> commands = new LinkedBlockingQueue<>();
+        private final AtomicInteger connections = new AtomicInteger();
+
+        ScriptedServer() throws IOException {
+            Thread thread = new Thread(this::accept, "resp-scripted");
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        int port() {
+            return serverSocket.getLocalPort();
+        }
+
+        /**
+         * 応答を登録する. 分割した部分ごとに間隔をあけて送信する.
+         */
+        void reply(String... chunks) {
+            replies.add(new Reply(chunks, false));
+        }
+
+        /**
+         * 応答を送信した後に切断する.
+         */
+        void replyAndDisconnect(String... chunks) {
+            replies.add(new Reply(chunks, true));
+        }
+
+        void close() throws IOException {
+            serverSocket.close();
+        }
+
+        private void accept() {
+            while (!serverSocket.isClosed()) {
+                try {
+                    final Socket socket = serverSocket.accept();
+                    connections.incrementAndGet();
+                    Thread thread = new Thread(() -> serve(socket), "resp-scripted-connection");
+                    thread.setDaemon(true);
+                    thread.start();
+                } catch (IOException e) {
+                    return;
+                }
+            }
+        }
+
+        private void serve(Socket socket) {
+            try (Socket s = socket) {
+                InputStream in = new BufferedInputStream(s.getInputStream());
+                OutputStream out = s.getOutputStream();
+                String command = readCommand(in);
+                while (command != null) {
+                    commands.add(command);
+                    Reply reply = replies.poll(TIMEOUT, TimeUnit.MILLISECONDS);
+                    if (reply == null) {
+                        return;
+                    }
+                    for (String chunk : reply.chunks) {
+                        out.write(chunk.getBytes(StandardCharsets.UTF_8));
+                        out.flush();
+                        Thread.sleep(CHUNK_INTERVAL_MILLIS);
+                    }
+                    if (reply.disconnect) {
+                        return;
+                    }
+                    command = readCommand(in);
+                }
+            } catch (IOException e) {
+                return;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        /**
+         * コマンドを読み込み、コマンド名を返す.
+         */
+        private static String readCommand(InputStream in) throws IOException {
+            String header = readLine(in);
+            if (header == null) {
+                return null;
+            }
+            int count = Integer.parseInt(header.substring(1));
+            String name = null;
+            for (int i = 0; i < count; i++) {
+                int length = Integer.parseInt(readLine(in).substring(1));
+                byte[] arg = new byte[length];
+                int offset = 0;
+                while (offset < length) {
+                    offset += in.read(arg, offset, length - offset);
+                }
+                readLine(in);
+                if (i == 0) {
+                    name = new String(arg, StandardCharsets.UTF_8);
+                }
+            }
+            return name;
+        }
+
+        private static String readLine(InputStream in) throws IOException {
+            StringBuilder line = new StringBuilder();
+            int c = in.read();
+            while (c != '\r') {
+                if (c < 0) {
+                    return null;
+                }
+                line.append((char) c);
+                c = in.read();
+            }
+            in.read();
+            return line.toString();
+        }
+    }
+
+    /**
+     * 1回分の応答.
+     */
+    private static final class Reply {
+        private final String[] chunks;
+        private final boolean disconnect;
+
+        Reply(String[] chunks, boolean disconnect) {
+            this.chunks = chunks;
+            this.disconnect = disconnect;
+        }
+    }
+}
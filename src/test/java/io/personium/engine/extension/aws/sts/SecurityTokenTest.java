@@ -328,12 +328,14 @@ public class SecurityTokenTest {
     }
 
     /**
-     * RegionにGovCloudを指定した場合トークンを取得できること.
+     * RegionにGovCloudを指定した場合us-gov-west-1のエンドポイントへ接続すること.
+     * <br />
+     * グローバルエンドポイントでは有効な商用パーティションの認証情報が、GovCloudのエンドポイントでは
+     * InvalidClientTokenIdとして拒否されることで接続先を確認する。
      */
     @Test
-    public void RegionにGovCloudを指定した場合トークンを取得できること() {
+    public void RegionにGovCloudを指定した場合us_gov_west_1のエンドポイントへ接続すること() {
         String region = "GovCloud";
-        long current = System.currentTimeMillis();
 
         Ext_AWSSecurityTokenService stsService = new Ext_AWSSecurityTokenService();
         stsService.jsSet_AccessKeyId(accessKeyId);
@@ -344,17 +346,15 @@ public class SecurityTokenTest {
         stsService.jsSet_ProxyPassword(proxyPassword);
         stsService.jsSet_Region(region);
 
-        // Token取得
-        NativeObject credentials = (NativeObject) stsService.getSessionToken().get("Credentials");
+        assertThat(StsEndpoint.resolve(region).getUrl()).isEqualTo("https://sts.us-gov-west-1.amazonaws.com");
 
-        assertThat(((String) credentials.get("AccessKeyId")).length()).isGreaterThanOrEqualTo(16);
-        assertThat(((String) credentials.get("AccessKeyId")).length()).isLessThanOrEqualTo(32);
-        assertThat(((String) credentials.get("SecretAccessKey")).length()).isGreaterThanOrEqualTo(1);
-        assertThat(((String) credentials.get("SessionToken")).length()).isGreaterThanOrEqualTo(1);
-        assertThat(((Double) credentials.get("Expiration"))).isGreaterThan(
-                current + DEFAULT_DURATION_MILL_SECONDS - PROCESSING_TIME);
-        assertThat(((Double) credentials.get("Expiration"))).isLessThan(
-                current + DEFAULT_DURATION_MILL_SECONDS + PROCESSING_TIME);
+        // Token取得
+        try {
+            stsService.getSessionToken();
+            throw new AssertionError("EcmaError was not thrown.");
+        } catch (EcmaError e) {
+            assertThat(e.getMessage()).contains("InvalidClientTokenId");
+        }
     }
 
     /**
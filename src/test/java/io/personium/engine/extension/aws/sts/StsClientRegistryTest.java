@@ -0,0 +1,197 @@
+/**
+ * Personium
+ * Copyright 2016 FUJITSU LIMITED
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.personium.engine.extension.aws.sts;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+import java.util.function.Function;
+
+import org.junit.Test;
+
+import com.amazonaws.ClientConfiguration;
+import com.amazonaws.auth.BasicAWSCredentials;
+import com.amazonaws.services.securitytoken.AWSSecurityTokenServiceClient;
+
+/**
+ * StsClientRegistryTest.
+ */
+public class StsClientRegistryTest {
+
+    private static final String REAPER_THREAD = "java-sdk-http-connection-reaper";
+    private static final long REAPER_JOIN_MILLIS = 500;
+
+    /**
+     * 同じ設定の場合同じクライアントが返却されること.
+     */
+    @Test
+    public void 同じ設定の場合同じクライアントが返却されること() {
+        StsClientRegistry registry = StsClientRegistry.getInstance();
+        AWSSecurityTokenServiceClient first = client(registry, "registryKey1", "secret", StsEndpoint.GLOBAL,
+                new ClientConfiguration());
+        AWSSecurityTokenServiceClient second = client(registry, "registryKey1", "secret", StsEndpoint.GLOBAL,
+                new ClientConfiguration());
+        assertThat(second).isSameAs(first);
+    }
+
+    /**
+     * SecretAccessKeyが異なる場合別のクライアントが返却されること.
+     */
+    @Test
+    public void SecretAccessKeyが異なる場合別のクライアントが返却されること() {
+        StsClientRegistry registry = StsClientRegistry.getInstance();
+        AWSSecurityTokenServiceClient first = client(registry, "registryKey2", "secret1", StsEndpoint.GLOBAL,
+                new ClientConfiguration());
+        AWSSecurityTokenServiceClient second = client(registry, "registryKey2", "secret2", StsEndpoint.GLOBAL,
+                new ClientConfiguration());
+        assertThat(second).isNotSameAs(first);
+    }
+
+    /**
+     * Proxy設定が異なる場合別のクライアントが返却されること.
+     */
+    @Test
+    public void Proxy設定が異なる場合別のクライアントが返却されること() {
+        StsClientRegistry registry = StsClientRegistry.getInstance();
+        ClientConfiguration proxied = new ClientConfiguration();
+        proxied.setProxyHost("proxy.example.com");
+        proxied.setProxyPort(8080);
+        AWSSecurityTokenServiceClient first = client(registry, "registryKey3", "secret", StsEndpoint.GLOBAL,
+                new ClientConfiguration());
+        AWSSecurityTokenServiceClient second = client(registry, "registryKey3", "secret", StsEndpoint.GLOBAL, proxied);
+        assertThat(second).isNotSameAs(first);
+    }
+
+    /**
+     * コネクションプール設定が異なる場合別のクライアントが返却されること.
+     */
+    @Test
+    public void コネクションプール設定が異なる場合別のクライアントが返却されること() {
+        StsClientRegistry registry = StsClientRegistry.getInstance();
+        ClientConfiguration tuned = new ClientConfiguration();
+        tuned.setMaxConnections(200);
+        tuned.setUseTcpKeepAlive(true);
+        AWSSecurityTokenServiceClient first = client(registry, "registryKey4", "secret", StsEndpoint.GLOBAL,
+                new ClientConfiguration());
+        AWSSecurityTokenServiceClient second = client(registry, "registryKey4", "secret", StsEndpoint.GLOBAL, tuned);
+        assertThat(second).isNotSameAs(first);
+    }
+
+    /**
+     * AccessKeyIdがnullの場合IllegalArgumentExceptionとなり登録されないこと.
+     */
+    @Test
+    public void AccessKeyIdがnullの場合IllegalArgumentExceptionとなり登録されないこと() {
+        StsClientRegistry registry = StsClientRegistry.getInstance();
+        int size = registry.size();
+        try {
+            client(registry, null, "secret", StsEndpoint.GLOBAL, new ClientConfiguration());
+        } catch (IllegalArgumentException e) {
+            assertThat(registry.size()).isEqualTo(size);
+            return;
+        }
+        throw new AssertionError("IllegalArgumentException was not thrown.");
+    }
+
+    /**
+     * アイドル時間を超えたクライアントが破棄されること.
+     */
+    @Test
+    public void アイドル時間を超えたクライアントが破棄されること() {
+        StsClientRegistry registry = new StsClientRegistry(1000, 0, 10);
+        AWSSecurityTokenServiceClient first = client(registry, "idleKey", "secret", StsEndpoint.GLOBAL,
+                new ClientConfiguration());
+        assertThat(registry.evictIdle(System.currentTimeMillis())).isEqualTo(0);
+        assertThat(registry.evictIdle(System.currentTimeMillis() + 2000)).isEqualTo(1);
+        assertThat(registry.size()).isEqualTo(0);
+        AWSSecurityTokenServiceClient second = client(registry, "idleKey", "secret", StsEndpoint.GLOBAL,
+                new ClientConfiguration());
+        assertThat(second).isNotSameAs(first);
+    }
+
+    /**
+     * 上限数を超えた場合最も古いクライアントが破棄されること.
+     */
+    @Test
+    public void 上限数を超えた場合最も古いクライアントが破棄されること() throws Exception {
+        StsClientRegistry registry = new StsClientRegistry(60000, 0, 2);
+        AWSSecurityTokenServiceClient oldest = client(registry, "maxKey1", "secret", StsEndpoint.GLOBAL,
+                new ClientConfiguration());
+        Thread.sleep(5);
+        client(registry, "maxKey2", "secret", StsEndpoint.GLOBAL, new ClientConfiguration());
+        Thread.sleep(5);
+        client(registry, "maxKey3", "secret", StsEndpoint.GLOBAL, new ClientConfiguration());
+        assertThat(registry.size()).isEqualTo(2);
+        assertThat(client(registry, "maxKey1", "secret", StsEndpoint.GLOBAL, new ClientConfiguration()))
+                .isNotSameAs(oldest);
+    }
+
+    /**
+     * 処理中のクライアントを破棄しても処理が完了すること.
+     */
+    @Test
+    public void 処理中のクライアントを破棄しても処理が完了すること() {
+        final StsClientRegistry registry = new StsClientRegistry(0, 0, 10);
+        String result = registry.execute("inFlightKey", "secret", StsEndpoint.GLOBAL, new ClientConfiguration(),
+                client -> {
+                    assertThat(registry.evictIdle(System.currentTimeMillis())).isEqualTo(1);
+                    return "done";
+                });
+        assertThat(result).isEqualTo("done");
+        assertThat(registry.size()).isEqualTo(0);
+    }
+
+    /**
+     * shutdownで全てのクライアントが破棄されること.
+     */
+    @Test
+    public void shutdownで全てのクライアントが破棄されること() {
+        StsClientRegistry registry = new StsClientRegistry(60000, 60000, 10);
+        client(registry, "shutdownKey1", "secret", StsEndpoint.GLOBAL, new ClientConfiguration());
+        client(registry, "shutdownKey2", "secret", StsEndpoint.GLOBAL, new ClientConfiguration());
+        registry.shutdown();
+        assertThat(registry.size()).isEqualTo(0);
+    }
+
+    /**
+     * shutdownでレジストリ外のクライアントが使用するIdleConnectionReaperを停止しないこと.
+     */
+    @Test
+    public void shutdownでレジストリ外のクライアントが使用するIdleConnectionReaperを停止しないこと()
+            throws InterruptedException {
+        AWSSecurityTokenServiceClient external = new AWSSecurityTokenServiceClient(
+                new BasicAWSCredentials("externalKey", "secret"));
+        try {
+            StsClientRegistry registry = new StsClientRegistry(60000, 0, 10);
+            client(registry, "reaperKey", "secret", StsEndpoint.GLOBAL, new ClientConfiguration());
+            Thread reaper = Thread.getAllStackTraces().keySet().stream()
+                    .filter(t -> REAPER_THREAD.equals(t.getName())).findFirst().get();
+            registry.shutdown();
+            reaper.join(REAPER_JOIN_MILLIS);
+            assertThat(reaper.isAlive()).isTrue();
+        } finally {
+            external.shutdown();
+        }
+    }
+
+    /**
+     * 登録されたクライアントを取得する. execute()の外でクライアントを使用するのはテストのみとする.
+     */
+    private static AWSSecurityTokenServiceClient client(StsClientRegistry registry, String accessKeyId,
+            String secretAccessKey, StsEndpoint endpoint, ClientConfiguration config) {
+        return registry.execute(accessKeyId, secretAccessKey, endpoint, config, Function.identity());
+    }
+}
@@ -0,0 +1,90 @@
+/**
+ * Personium
+ * Copyright 2016 FUJITSU LIMITED
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.personium.engine.extension.aws.sts;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+import org.junit.Test;
+
+/**
+ * StsEndpointTest.
+ */
+public class StsEndpointTest {
+
+    /**
+     * 列挙名を指定した場合リージョナルエンドポイントとなること.
+     */
+    @Test
+    public void 列挙名を指定した場合リージョナルエンドポイントとなること() {
+        StsEndpoint endpoint = StsEndpoint.resolve("AP_NORTHEAST_1");
+        assertThat(endpoint.getUrl()).isEqualTo("https://sts.ap-northeast-1.amazonaws.com");
+        assertThat(endpoint.getSigningRegion()).isEqualTo("ap-northeast-1");
+    }
+
+    /**
+     * リージョン名を指定した場合リージョナルエンドポイントとなること.
+     */
+    @Test
+    public void リージョン名を指定した場合リージョナルエンドポイントとなること() {
+        assertThat(StsEndpoint.resolve("ap-northeast-1")).isSameAs(StsEndpoint.resolve("AP_NORTHEAST_1"));
+        assertThat(StsEndpoint.resolve("cn-north-1").getUrl()).isEqualTo("https://sts.cn-north-1.amazonaws.com.cn");
+    }
+
+    /**
+     * us-west-2を指定した場合リージョナルエンドポイントとなること.
+     */
+    @Test
+    public void us_west_2を指定した場合リージョナルエンドポイントとなること() {
+        StsEndpoint endpoint = StsEndpoint.resolve("us-west-2");
+        assertThat(endpoint.getUrl()).isEqualTo("https://sts.us-west-2.amazonaws.com");
+        assertThat(endpoint.getSigningRegion()).isEqualTo("us-west-2");
+        assertThat(StsEndpoint.resolve("US_WEST_2")).isSameAs(endpoint);
+    }
+
+    /**
+     * GovCloudを指定した場合us-gov-west-1のエンドポイントとなること.
+     */
+    @Test
+    public void GovCloudを指定した場合us_gov_west_1のエンドポイントとなること() {
+        StsEndpoint endpoint = StsEndpoint.resolve("GovCloud");
+        assertThat(endpoint.getUrl()).isEqualTo("https://sts.us-gov-west-1.amazonaws.com");
+        assertThat(endpoint.getSigningRegion()).isEqualTo("us-gov-west-1");
+        assertThat(StsEndpoint.resolve("us-gov-west-1")).isSameAs(endpoint);
+    }
+
+    /**
+     * 解決できないリージョンの場合グローバルエンドポイントとなること.
+     */
+    @Test
+    public void 解決できないリージョンの場合グローバルエンドポイントとなること() {
+        assertThat(StsEndpoint.resolve(null)).isSameAs(StsEndpoint.GLOBAL);
+        assertThat(StsEndpoint.resolve("")).isSameAs(StsEndpoint.GLOBAL);
+        assertThat(StsEndpoint.resolve("DEFAULT_REGION")).isSameAs(StsEndpoint.GLOBAL);
+        assertThat(StsEndpoint.resolve("DUMMY_REGION")).isSameAs(StsEndpoint.GLOBAL);
+    }
+
+    /**
+     * エンドポイントを指定した場合リージョンより優先されること.
+     */
+    @Test
+    public void エンドポイントを指定した場合リージョンより優先されること() {
+        StsEndpoint endpoint = StsEndpoint.resolve("AP_NORTHEAST_1", "http://localhost:4566");
+        assertThat(endpoint.getUrl()).isEqualTo("http://localhost:4566");
+        assertThat(endpoint.getSigningRegion()).isEqualTo("ap-northeast-1");
+        assertThat(StsEndpoint.resolve("AP_NORTHEAST_1", "")).isSameAs(StsEndpoint.resolve("AP_NORTHEAST_1"));
+    }
+}
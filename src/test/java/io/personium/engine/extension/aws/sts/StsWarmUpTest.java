@@ -0,0 +1,176 @@
+/**
+ * Personium
+ * Copyright 2016 FUJITSU LIMITED
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.personium.engine.extension.aws.sts;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.ClientConfiguration;
+import com.amazonaws.auth.BasicAWSCredentials;
+import com.amazonaws.services.securitytoken.AWSSecurityTokenServiceClient;
+import com.amazonaws.services.securitytoken.model.GetSessionTokenRequest;
+
+/**
+ * StsWarmUpTest.
+ * <br />
+ * ローカルのサーバを接続先とし、ウォームアップがリクエストを送信せずにコネクションのみを確立することを検証する。
+ */
+public class StsWarmUpTest {
+
+    private static final int READ_TIMEOUT_MILLIS = 200;
+    private static final String ERROR_RESPONSE = "<ErrorResponse><Error><Type>Sender</Type>"
+            + "<Code>ValidationError</Code><Message>test</Message></Error><RequestId>1</RequestId></ErrorResponse>";
+
+    private ServerSocket server;
+    private final BlockingQueue<Socket> accepted = new LinkedBlockingQueue<>();
+    private StsEndpoint endpoint;
+    private AWSSecurityTokenServiceClient client;
+
+    /**
+     * 前処理.
+     * @throws IOException サーバの起動に失敗
+     */
+    @Before
+    public void before() throws IOException {
+        server = new ServerSocket(0);
+        Thread acceptor = new Thread(() -> {
+            try {
+                while (true) {
+                    accepted.add(server.accept());
+                }
+            } catch (IOException e) {
+                // サーバの停止により終了する
+                accepted.clear();
+            }
+        });
+        acceptor.setDaemon(true);
+        acceptor.start();
+        endpoint = StsEndpoint.resolve("AP_NORTHEAST_1", "http://127.0.0.1:" + server.getLocalPort());
+        client = new AWSSecurityTokenServiceClient(new BasicAWSCredentials("AKIAWARMUPTEST", "secret"),
+                new ClientConfiguration().withMaxErrorRetry(0));
+        client.setEndpoint(endpoint.getUrl());
+        client.setSignerRegionOverride(endpoint.getSigningRegion());
+    }
+
+    /**
+     * 後処理.
+     * @throws IOException サーバの停止に失敗
+     */
+    @After
+    public void after() throws IOException {
+        client.shutdown();
+        server.close();
+    }
+
+    /**
+     * ウォームアップはリクエストを送信せずに接続のみ確立すること.
+     * @throws Exception 実行中エラー
+     */
+    @Test
+    public void ウォームアップはリクエストを送信せずに接続のみ確立すること() throws Exception {
+        assertThat(StsWarmUp.prime(client, endpoint)).isTrue();
+
+        Socket socket = accepted.poll(5, TimeUnit.SECONDS);
+        assertThat(socket).isNotNull();
+        socket.setSoTimeout(READ_TIMEOUT_MILLIS);
+        try {
+            int read = socket.getInputStream().read();
+            throw new AssertionError("Unexpected data: " + read);
+        } catch (SocketTimeoutException e) {
+            assertThat(e.getMessage()).isNotNull();
+        }
+
+        // 接続済みのコネクションがある場合は新たに接続しない
+        assertThat(StsWarmUp.prime(client, endpoint)).isTrue();
+        assertThat(accepted.poll(READ_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)).isNull();
+    }
+
+    /**
+     * ウォームアップで確立したコネクションが最初のリクエストで使用されること.
+     * @throws Exception 実行中エラー
+     */
+    @Test
+    public void ウォームアップで確立したコネクションが最初のリクエストで使用されること() throws Exception {
+        assertThat(StsWarmUp.prime(client, endpoint)).isTrue();
+        Socket socket = accepted.poll(5, TimeUnit.SECONDS);
+        assertThat(socket).isNotNull();
+
+        CompletableFuture<Object> call = CompletableFuture.supplyAsync(
+                () -> client.getSessionToken(new GetSessionTokenRequest()));
+        socket.setSoTimeout((int) TimeUnit.SECONDS.toMillis(5));
+        String request = readRequest(socket.getInputStream());
+        assertThat(request).startsWith("POST ");
+        writeResponse(socket.getOutputStream());
+
+        try {
+            call.get(5, TimeUnit.SECONDS);
+            throw new AssertionError("AmazonServiceException was not thrown.");
+        } catch (ExecutionException e) {
+            assertThat(((AmazonServiceException) e.getCause()).getErrorCode()).isEqualTo("ValidationError");
+        }
+        assertThat(accepted.poll(READ_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)).isNull();
+    }
+
+    private static String readRequest(InputStream in) throws IOException {
+        ByteArrayOutputStream head = new ByteArrayOutputStream();
+        while (!head.toString(StandardCharsets.ISO_8859_1.name()).endsWith("\r\n\r\n")) {
+            int b = in.read();
+            if (b < 0) {
+                throw new IOException("Connection closed.");
+            }
+            head.write(b);
+        }
+        String headers = head.toString(StandardCharsets.ISO_8859_1.name());
+        int length = 0;
+        for (String line : headers.split("\r\n")) {
+            if (line.toLowerCase().startsWith("content-length:")) {
+                length = Integer.parseInt(line.substring(line.indexOf(':') + 1).trim());
+            }
+        }
+        for (int i = 0; i < length; i++) {
+            in.read();
+        }
+        return headers;
+    }
+
+    private static void writeResponse(OutputStream out) throws IOException {
+        byte[] body = ERROR_RESPONSE.getBytes(StandardCharsets.UTF_8);
+        String head = "HTTP/1.1 400 Bad Request\r\nContent-Type: text/xml\r\nContent-Length: " + body.length
+                + "\r\n\r\n";
+        out.write(head.getBytes(StandardCharsets.ISO_8859_1));
+        out.write(body);
+        out.flush();
+    }
+}
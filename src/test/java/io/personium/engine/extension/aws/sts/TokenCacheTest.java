@@ -0,0 +1,494 @@
+/**
+ * Personium
+ * Copyright 2016 FUJITSU LIMITED
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.personium.engine.extension.aws.sts;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+import java.util.Date;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+import org.junit.Test;
+
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.services.securitytoken.model.Credentials;
+
+/**
+ * TokenCacheTest.
+ */
+public class TokenCacheTest {
+
+    private static final long NOW = 1000000000000L;
+    private static final long HOUR = 3600 * 1000L;
+    private static final long MARGIN = 300 * 1000L;
+
+    private static CachedToken token(long expiration) {
+        Credentials credentials = new Credentials("ASIAEXAMPLE", "secret", "session", new Date(expiration));
+        return new CachedToken(credentials, NOW);
+    }
+
+    /**
+     * 残り有効期間がマージンを上回る場合キャッシュがヒットすること.
+     */
+    @Test
+    public void 残り有効期間がマージンを上回る場合キャッシュがヒットすること() {
+        TokenCache cache = new TokenCache(100);
+        CachedToken token = token(NOW + HOUR);
+        cache.put("key", token);
+        assertThat(cache.get("key", NOW, MARGIN)).isSameAs(token);
+    }
+
+    /**
+     * 残り有効期間がマージン以下の場合キャッシュがヒットしないこと.
+     */
+    @Test
+    public void 残り有効期間がマージン以下の場合キャッシュがヒットしないこと() {
+        TokenCache cache = new TokenCache(100);
+        cache.put("key", token(NOW + MARGIN));
+        assertThat(cache.get("key", NOW, MARGIN)).isNull();
+    }
+
+    /**
+     * 有効期限切れのエントリが削除されること.
+     */
+    @Test
+    public void 有効期限切れのエントリが削除されること() {
+        TokenCache cache = new TokenCache(100);
+        cache.put("key", token(NOW - 1));
+        assertThat(cache.get("key", NOW, MARGIN)).isNull();
+        assertThat(cache.size()).isEqualTo(0);
+    }
+
+    /**
+     * SecretAccessKeyと有効期間がキャッシュキーに含まれること.
+     */
+    @Test
+    public void SecretAccessKeyと有効期間がキャッシュキーに含まれること() {
+        String key = TokenCache.sessionTokenKey("AKIAEXAMPLE", "secret", StsEndpoint.GLOBAL, 900);
+        assertThat(TokenCache.sessionTokenKey("AKIAEXAMPLE", "secret", StsEndpoint.GLOBAL, 900)).isEqualTo(key);
+        assertThat(TokenCache.sessionTokenKey("AKIAEXAMPLE", "other", StsEndpoint.GLOBAL, 900)).isNotEqualTo(key);
+        assertThat(TokenCache.sessionTokenKey("AKIAEXAMPLE", "secret", StsEndpoint.GLOBAL, null)).isNotEqualTo(key);
+        assertThat(key).doesNotContain("secret|");
+    }
+
+    /**
+     * 上限を超えた場合有効期限の近いエントリから削除されること.
+     */
+    @Test
+    public void 上限を超えた場合有効期限の近いエントリから削除されること() {
+        TokenCache cache = new TokenCache(10);
+        for (int i = 0; i < 11; i++) {
+            cache.put("key" + i, token(System.currentTimeMillis() + HOUR + i * 1000L));
+        }
+        assertThat(cache.size()).isEqualTo(9);
+        assertThat(cache.get("key0", NOW, MARGIN)).isNull();
+        assertThat(cache.get("key10", NOW, MARGIN)).isNotNull();
+    }
+
+    /**
+     * 連携ユーザ名とポリシーがキャッシュキーに含まれること.
+     */
+    @Test
+    public void 連携ユーザ名とポリシーがキャッシュキーに含まれること() {
+        String policy = "{\"Statement\":[]}";
+        StsEndpoint global = StsEndpoint.GLOBAL;
+        String key = TokenCache.federationTokenKey("AKIAEXAMPLE", "secret", global, "user", policy, 900);
+        assertThat(TokenCache.federationTokenKey("AKIAEXAMPLE", "secret", global, "user", policy, 900)).isEqualTo(key);
+        assertThat(TokenCache.federationTokenKey("AKIAEXAMPLE", "secret", global, "other", policy, 900))
+                .isNotEqualTo(key);
+        assertThat(TokenCache.federationTokenKey("AKIAEXAMPLE", "secret", global, "user", "{}", 900)).isNotEqualTo(key);
+        assertThat(TokenCache.federationTokenKey("AKIAEXAMPLE", "secret", global, "user", policy, null))
+                .isNotEqualTo(key);
+    }
+
+    /**
+     * 接続先のエンドポイントがキャッシュキーに含まれること.
+     */
+    @Test
+    public void 接続先のエンドポイントがキャッシュキーに含まれること() {
+        String policy = "{\"Statement\":[]}";
+        StsEndpoint regional = StsEndpoint.resolve("us-west-2");
+        StsEndpoint gov = StsEndpoint.resolve("us-gov-west-1");
+        String session = TokenCache.sessionTokenKey("AKIAEXAMPLE", "secret", StsEndpoint.GLOBAL, null);
+        assertThat(TokenCache.sessionTokenKey("AKIAEXAMPLE", "secret", regional, null)).isNotEqualTo(session);
+        assertThat(TokenCache.sessionTokenKey("AKIAEXAMPLE", "secret", gov, null)).isNotEqualTo(session);
+        String key = TokenCache.federationTokenKey("AKIAEXAMPLE", "secret", StsEndpoint.GLOBAL, "user", policy, null);
+        String govKey = TokenCache.federationTokenKey("AKIAEXAMPLE", "secret", gov, "user", policy, null);
+        assertThat(govKey).isNotEqualTo(key);
+
+        // エンドポイントが異なっても連携ユーザ名、ポリシーによる削除の対象となること
+        assertThat(TokenCache.byFederatedName("user").test(govKey)).isTrue();
+        assertThat(TokenCache.byPolicy(policy).test(govKey)).isTrue();
+        assertThat(TokenCache.byAccessKeyId("AKIAEXAMPLE").test(govKey)).isTrue();
+    }
+
+    /**
+     * 再発行時期を過ぎたエントリがバックグラウンドで再発行されること.
+     * @throws Exception 実行中エラー
+     */
+    @Test
+    public void 再発行時期を過ぎたエントリがバックグラウンドで再発行されること() throws Exception {
+        TokenCache cache = new TokenCache(100, 0.5, 0, 1);
+        long now = System.currentTimeMillis();
+        Credentials old = new Credentials("ASIAOLD", "secret", "session", new Date(now + 40 * 60 * 1000L));
+        final CachedToken renewed = token(now + HOUR);
+        final CountDownLatch loaded = new CountDownLatch(1);
+        cache.put("key", new CachedToken(old, now - 60 * 60 * 1000L), () -> {
+            loaded.countDown();
+            return renewed;
+        });
+
+        // 再発行中も既存の認証情報が返却される
+        assertThat(cache.get("key", now, MARGIN).getCredentials()).isSameAs(old);
+        assertThat(loaded.await(5, TimeUnit.SECONDS)).isTrue();
+        for (int i = 0; i < 50 && cache.get("key", now, MARGIN) != renewed; i++) {
+            Thread.sleep(10);
+        }
+        assertThat(cache.get("key", now, MARGIN)).isSameAs(renewed);
+        cache.shutdown();
+    }
+
+    /**
+     * 保持しているエラーがある場合バックグラウンドの再発行でAWSへ問い合わせないこと.
+     * @throws Exception 実行中エラー
+     */
+    @Test
+    public void 保持しているエラーがある場合バックグラウンドの再発行でAWSへ問い合わせないこと() throws Exception {
+        TokenCache cache = new TokenCache(100, 0.5, 0, 1);
+        long now = System.currentTimeMillis();
+        String credential = FailureCache.credentialKey("AKIAEXAMPLE", "secret");
+        FailureCache failures = new FailureCache(HOUR);
+        AmazonServiceException e = new AmazonServiceException("invalid");
+        e.setErrorCode("InvalidClientTokenId");
+        failures.record(credential, "key", e, now);
+        final AtomicInteger calls = new AtomicInteger();
+        Supplier<CachedToken> load = Ext_AWSSecurityTokenService.recording(failures, credential, "key", () -> {
+            calls.incrementAndGet();
+            return token(now + HOUR);
+        });
+        final Supplier<CachedToken> reload = Ext_AWSSecurityTokenService.reloading(failures,
+                new RequestCoalescer<CachedToken>(), credential, "key", load, 0);
+        final CountDownLatch refreshed = new CountDownLatch(1);
+        Credentials old = new Credentials("ASIAOLD", "secret", "session", new Date(now + 40 * 60 * 1000L));
+        cache.put("key", new CachedToken(old, now - 60 * 60 * 1000L), () -> {
+            try {
+                return reload.get();
+            } finally {
+                refreshed.countDown();
+            }
+        });
+
+        assertThat(cache.get("key", now, MARGIN).getCredentials()).isSameAs(old);
+        assertThat(refreshed.await(5, TimeUnit.SECONDS)).isTrue();
+        assertThat(calls.get()).isEqualTo(0);
+        // 既存の認証情報は有効期限まで返却される
+        assertThat(cache.get("key", now, MARGIN).getCredentials()).isSameAs(old);
+        cache.shutdown();
+    }
+
+    /**
+     * バックグラウンドの再発行が実行中の同一リクエストを待ち合わせること.
+     * @throws Exception 実行中エラー
+     */
+    @Test
+    public void バックグラウンドの再発行が実行中の同一リクエストを待ち合わせること() throws Exception {
+        TokenCache cache = new TokenCache(100, 0.5, 0, 1);
+        long now = System.currentTimeMillis();
+        String credential = FailureCache.credentialKey("AKIAEXAMPLE", "secret");
+        FailureCache failures = new FailureCache(HOUR);
+        final RequestCoalescer<CachedToken> inFlight = new RequestCoalescer<>();
+        final AtomicInteger calls = new AtomicInteger();
+        Supplier<CachedToken> load = Ext_AWSSecurityTokenService.recording(failures, credential, "key", () -> {
+            calls.incrementAndGet();
+            return token(now + HOUR);
+        });
+        // 再発行後のエントリが直ちに再発行の対象とならないよう、発行時刻を現在時刻とする
+        Credentials credentials = new Credentials("ASIAEXAMPLE", "secret", "session", new Date(now + HOUR));
+        final CachedToken issued = new CachedToken(credentials, now);
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            // 呼び出し時の発行が実行中
+            Future<CachedToken> leader = executor.submit(() -> inFlight.execute("key", () -> {
+                started.countDown();
+                await(release);
+                return issued;
+            }, 0));
+            assertThat(started.await(5, TimeUnit.SECONDS)).isTrue();
+
+            final Supplier<CachedToken> reload = Ext_AWSSecurityTokenService.reloading(failures, inFlight, credential,
+                    "key", load, 0);
+            final CountDownLatch refreshing = new CountDownLatch(1);
+            Credentials old = new Credentials("ASIAOLD", "secret", "session", new Date(now + 40 * 60 * 1000L));
+            cache.put("key", new CachedToken(old, now - 60 * 60 * 1000L), () -> {
+                refreshing.countDown();
+                return reload.get();
+            });
+            assertThat(cache.get("key", now, MARGIN).getCredentials()).isSameAs(old);
+            assertThat(refreshing.await(5, TimeUnit.SECONDS)).isTrue();
+            Thread.sleep(100);
+            release.countDown();
+            assertThat(leader.get(5, TimeUnit.SECONDS)).isSameAs(issued);
+            for (int i = 0; i < 50 && cache.get("key", now, MARGIN) != issued; i++) {
+                Thread.sleep(10);
+            }
+            assertThat(cache.get("key", now, MARGIN)).isSameAs(issued);
+            assertThat(calls.get()).isEqualTo(0);
+        } finally {
+            release.countDown();
+            executor.shutdownNow();
+            cache.shutdown();
+        }
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * 再発行時期にジッタが適用されること.
+     */
+    @Test
+    public void 再発行時期にジッタが適用されること() {
+        TokenCache cache = new TokenCache(100, 0.75, 0.1, 1);
+        for (int i = 0; i < 100; i++) {
+            long refreshAt = TokenCache.refreshAt(NOW, NOW + 100000 + MARGIN, MARGIN, cache.refreshFraction());
+            assertThat(refreshAt).isLessThanOrEqualTo(NOW + 75000);
+            assertThat(refreshAt).isGreaterThan(NOW + 65000);
+        }
+        assertThat(TokenCache.refreshAt(NOW, NOW + HOUR, MARGIN, new TokenCache(100).refreshFraction()))
+                .isEqualTo(Long.MAX_VALUE);
+    }
+
+    /**
+     * 有効期間900秒の認証情報がマージンに達する前に再発行されること.
+     * @throws Exception 実行中エラー
+     */
+    @Test
+    public void 有効期間900秒の認証情報がマージンに達する前に再発行されること() throws Exception {
+        long lifetime = 900 * 1000L;
+        TokenCache cache = new TokenCache(100, TokenCache.DEFAULT_REFRESH_RATIO,
+                TokenCache.DEFAULT_REFRESH_JITTER_RATIO, 1);
+        for (int i = 0; i < 100; i++) {
+            long refreshAt = TokenCache.refreshAt(NOW, NOW + lifetime, MARGIN, cache.refreshFraction());
+            assertThat(refreshAt).isGreaterThan(NOW);
+            assertThat(refreshAt).isLessThan(NOW + lifetime - MARGIN);
+        }
+
+        // 発行から500秒後(マージンまで残り100秒)の参照で再発行が始まる
+        long now = System.currentTimeMillis();
+        long issuedAt = now - 500 * 1000L;
+        Credentials old = new Credentials("ASIAOLD", "secret", "session", new Date(issuedAt + lifetime));
+        final CountDownLatch loaded = new CountDownLatch(1);
+        cache.put("key", new CachedToken(old, issuedAt), () -> {
+            loaded.countDown();
+            return token(now + lifetime);
+        });
+        try {
+            assertThat(cache.get("key", now, MARGIN).getCredentials()).isSameAs(old);
+            assertThat(loaded.await(5, TimeUnit.SECONDS)).isTrue();
+        } finally {
+            cache.shutdown();
+        }
+    }
+
+    /**
+     * オフヒープに格納した認証情報を取得できること.
+     */
+    @Test
+    public void オフヒープに格納した認証情報を取得できること() {
+        TokenCache cache = new TokenCache(100, 0, 0, 0, 1024 * 1024);
+        CachedToken token = token(NOW + HOUR);
+        cache.put("key", token);
+
+        CachedToken cached = cache.get("key", NOW, MARGIN);
+        assertThat(cached.getCredentials()).isEqualTo(token.getCredentials());
+        assertThat(cache.offHeapBytes()).isGreaterThan(0);
+
+        cache.put("key", token(NOW - 1));
+        assertThat(cache.get("key", NOW, MARGIN)).isNull();
+        assertThat(cache.offHeapBytes()).isEqualTo(0);
+    }
+
+    /**
+     * 置換したエントリのオフヒープの領域が再利用されること.
+     */
+    @Test
+    public void 置換したエントリのオフヒープの領域が再利用されること() {
+        TokenCache cache = new TokenCache(100, 0, 0, 0, 64 * 1024);
+        cache.put("key", token(NOW + HOUR));
+        long used = cache.offHeapBytes();
+        for (int i = 0; i < 1000; i++) {
+            cache.put("key", token(NOW + HOUR + i));
+        }
+        assertThat(cache.offHeapBytes()).isEqualTo(used);
+        assertThat(cache.get("key", NOW, MARGIN).getExpiration()).isEqualTo(NOW + HOUR + 999);
+    }
+
+    /**
+     * オフヒープの容量を超えた場合有効期限の近いエントリから削除されること.
+     */
+    @Test
+    public void オフヒープの容量を超えた場合有効期限の近いエントリから削除されること() {
+        long entrySize = OffHeapSlab.blocksFor(CachedTokenCodec.encode(token(NOW + HOUR)).length)
+                * (long) OffHeapSlab.BLOCK_BYTES;
+        TokenCache cache = new TokenCache(100, 0, 0, 0, entrySize * 10);
+        long base = System.currentTimeMillis() + HOUR;
+        for (int i = 0; i < 11; i++) {
+            cache.put("key" + i, token(base + i * 1000L));
+        }
+        assertThat(cache.size()).isEqualTo(10);
+        assertThat(cache.offHeapBytes()).isEqualTo(entrySize * 10);
+        assertThat(cache.get("key0", NOW, MARGIN)).isNull();
+        assertThat(cache.get("key10", NOW, MARGIN)).isNotNull();
+    }
+
+    /**
+     * 条件に一致するエントリのみ削除されること.
+     */
+    @Test
+    public void 条件に一致するエントリのみ削除されること() {
+        TokenCache cache = new TokenCache(100);
+        String policy = "{\"Statement\":[]}";
+        StsEndpoint global = StsEndpoint.GLOBAL;
+        String user1 = TokenCache.federationTokenKey("AKIAEXAMPLE", "secret", global, "user1", policy, null);
+        String user2 = TokenCache.federationTokenKey("AKIAEXAMPLE", "secret", global, "user2", "{}", null);
+        String other = TokenCache.federationTokenKey("AKIAOTHER", "secret", global, "user1", "{}", null);
+        String session = TokenCache.sessionTokenKey("AKIAEXAMPLE", "secret", global, null);
+        for (String key : new String[] {user1, user2, other, session}) {
+            cache.put(key, token(NOW + HOUR));
+        }
+
+        assertThat(cache.invalidate(TokenCache.byFederatedName("user1"))).isEqualTo(2);
+        assertThat(cache.get(user1, NOW, MARGIN)).isNull();
+        assertThat(cache.get(other, NOW, MARGIN)).isNull();
+        assertThat(cache.get(user2, NOW, MARGIN)).isNotNull();
+
+        assertThat(cache.invalidate(TokenCache.byPolicy(policy))).isEqualTo(0);
+        assertThat(cache.invalidate(TokenCache.byPolicy("{}"))).isEqualTo(1);
+        assertThat(cache.get(session, NOW, MARGIN)).isNotNull();
+
+        assertThat(cache.invalidate(TokenCache.byAccessKeyId("AKIAEXAMPLE"))).isEqualTo(1);
+        assertThat(cache.size()).isEqualTo(0);
+    }
+
+    /**
+     * 認証情報の条件はAccessKeyIdとSecretAccessKeyの両方が一致するキーのみに一致すること.
+     */
+    @Test
+    public void 認証情報の条件はAccessKeyIdとSecretAccessKeyの両方が一致するキーのみに一致すること() {
+        StsEndpoint global = StsEndpoint.GLOBAL;
+        Predicate<String> credential = TokenCache.byCredential("AKIAEXAMPLE", "secret");
+        assertThat(credential.test(TokenCache.sessionTokenKey("AKIAEXAMPLE", "secret", global, null))).isTrue();
+        assertThat(credential.test(TokenCache.federationTokenKey("AKIAEXAMPLE", "secret", global, "user", "{}", null)))
+                .isTrue();
+        assertThat(credential.test(FailureCache.credentialKey("AKIAEXAMPLE", "secret"))).isTrue();
+        assertThat(credential.test(TokenCache.sessionTokenKey("AKIAEXAMPLE", "other", global, null))).isFalse();
+        assertThat(credential.test(TokenCache.sessionTokenKey("AKIAOTHER", "secret", global, null))).isFalse();
+        assertThat(credential.test(FailureCache.credentialKey("AKIAEXAMPLE", "other"))).isFalse();
+    }
+
+    /**
+     * AccessKeyIdの条件がエラーの保持にも適用されること.
+     */
+    @Test
+    public void AccessKeyIdの条件がエラーの保持にも適用されること() {
+        FailureCache failures = new FailureCache(HOUR);
+        AmazonServiceException e = new AmazonServiceException("invalid");
+        e.setErrorCode("InvalidClientTokenId");
+        failures.record(FailureCache.credentialKey("AKIAEXAMPLE", "secret"), "request", e, NOW);
+        failures.record(FailureCache.credentialKey("AKIAOTHER", "secret"), "request", e, NOW);
+
+        assertThat(failures.invalidate(TokenCache.byAccessKeyId("AKIAEXAMPLE"))).isEqualTo(1);
+        assertThat(failures.size()).isEqualTo(1);
+    }
+
+    /**
+     * 推定サイズの合計が上限を超えた場合エントリが削除されること.
+     */
+    @Test
+    public void 推定サイズの合計が上限を超えた場合エントリが削除されること() {
+        int weight = TokenCache.weigh("key00", token(NOW + HOUR));
+        TokenCache cache = new TokenCache(100, weight * 10L, 0, 0, 0, 0);
+        long base = System.currentTimeMillis() + HOUR;
+        for (int i = 0; i < 11; i++) {
+            cache.put(String.format("key%02d", i), token(base + i * 1000L));
+        }
+        assertThat(cache.size()).isEqualTo(9);
+        assertThat(cache.weightBytes()).isEqualTo(weight * 9L);
+        assertThat(cache.get("key00", NOW, MARGIN)).isNull();
+    }
+
+    /**
+     * オフヒープ格納時は認証情報のサイズがヒープの上限に計上されないこと.
+     */
+    @Test
+    public void オフヒープ格納時は認証情報のサイズがヒープの上限に計上されないこと() {
+        int count = 10000;
+        StringBuilder sessionToken = new StringBuilder();
+        while (sessionToken.length() < OffHeapSlab.BLOCK_BYTES * 16) {
+            sessionToken.append("session");
+        }
+        Credentials credentials = new Credentials("ASIAEXAMPLE", "secret", sessionToken.toString(),
+                new Date(NOW + HOUR));
+        CachedToken token = new CachedToken(credentials, NOW);
+        long entrySize = OffHeapSlab.blocksFor(CachedTokenCodec.encode(token).length)
+                * (long) OffHeapSlab.BLOCK_BYTES;
+        assertThat(entrySize * count).isGreaterThan(TokenCache.DEFAULT_MAX_BYTES);
+
+        TokenCache cache = new TokenCache(count, TokenCache.DEFAULT_MAX_BYTES, 0, 0, 0, entrySize * count);
+        for (int i = 0; i < count; i++) {
+            cache.put(String.format("key%05d", i), token);
+        }
+        assertThat(cache.size()).isEqualTo(count);
+        assertThat(cache.offHeapBytes()).isEqualTo(entrySize * count);
+        assertThat(cache.weightBytes()).isEqualTo((long) TokenCache.weighIndex("key00000") * count);
+        assertThat(cache.get("key00000", NOW, MARGIN).getCredentials()).isEqualTo(credentials);
+    }
+
+    /**
+     * 一度しか参照されないエントリが頻繁に参照されるエントリを追い出さないこと.
+     */
+    @Test
+    public void 一度しか参照されないエントリが頻繁に参照されるエントリを追い出さないこと() {
+        TokenCache cache = new TokenCache(10);
+        long now = System.currentTimeMillis();
+        CachedToken hot = token(now + HOUR);
+        cache.put("hot", hot);
+        for (int i = 0; i < 5; i++) {
+            cache.get("hot", now, MARGIN);
+        }
+        // 有効期限がhotより後の一度きりのエントリを大量に追加する
+        for (int i = 0; i < 100; i++) {
+            String key = "once" + i;
+            cache.get(key, now, MARGIN);
+            cache.put(key, token(now + 2 * HOUR + i));
+        }
+        assertThat(cache.get("hot", now, MARGIN)).isSameAs(hot);
+    }
+}
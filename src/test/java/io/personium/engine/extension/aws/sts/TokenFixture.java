@@ -0,0 +1,210 @@
+/**
+ * Personium
+ * Copyright 2016 FUJITSU LIMITED
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.personium.engine.extension.aws.sts;
+
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.junit.rules.ExternalResource;
+import org.mozilla.javascript.Context;
+import org.mozilla.javascript.NativeObject;
+import org.mozilla.javascript.Scriptable;
+
+import com.amazonaws.services.securitytoken.model.Credentials;
+import com.amazonaws.services.securitytoken.model.FederatedUser;
+
+import io.personium.engine.extension.support.ExtensionLogger;
+
+/**
+ * キャッシュ済みの認証情報を使用し、AWSへ接続せずにExt_AWSSecurityTokenServiceを検証するためのフィクスチャ.
+ * <br />
+ * キャッシュとエラーの保持はプロセスで共有するため、テストごとに使用した認証情報のエントリを削除する。
+ * withScriptContext()を指定した場合は、テストごとにRhinoのContextに入りスコープを作成する。
+ */
+final class TokenFixture extends ExternalResource {
+
+    /** 1時間(ミリ秒). */
+    static final long HOUR = 3600 * 1000L;
+
+    private final String accessKeyId;
+    private final String secretAccessKey;
+    /** 使用した認証情報(AccessKeyIdとSecretAccessKey). 終了時に削除する. */
+    private final Map<String, String[]> used = new LinkedHashMap<>();
+    private boolean scriptContext;
+    private Context cx;
+    private Scriptable scope;
+
+    /**
+     * コンストラクタ.
+     * @param accessKeyId service()で使用するAWS認証情報(key). テストクラスごとに異なる値とする
+     * @param secretAccessKey service()で使用するAWS認証情報(secret)
+     */
+    TokenFixture(String accessKeyId, String secretAccessKey) {
+        this.accessKeyId = accessKeyId;
+        this.secretAccessKey = secretAccessKey;
+        use(accessKeyId, secretAccessKey);
+    }
+
+    /**
+     * service()を使用せずにキャッシュする認証情報を終了時の削除の対象に加える.
+     * @param key AWS認証情報(key)
+     * @param secret AWS認証情報(secret)
+     * @return このフィクスチャ
+     */
+    TokenFixture withCredential(String key, String secret) {
+        use(key, secret);
+        return this;
+    }
+
+    /**
+     * テストごとにRhinoのContextに入りスコープを作成する.
+     * @return このフィクスチャ
+     */
+    TokenFixture withScriptContext() {
+        this.scriptContext = true;
+        return this;
+    }
+
+    @Override
+    protected void before() {
+        Ext_AWSSecurityTokenService.setLogger(Ext_AWSSecurityTokenService.class, new ExtensionLogger(
+                Ext_AWSSecurityTokenService.class));
+        if (scriptContext) {
+            cx = Context.enter();
+            scope = cx.initStandardObjects();
+        }
+    }
+
+    @Override
+    protected void after() {
+        for (String[] credential : used.values()) {
+            TokenCacheBackends.getInstance().invalidate(credential[0], credential[1], key -> true);
+            FailureCache.getInstance().invalidate(TokenCache.byCredential(credential[0], credential[1]));
+        }
+        if (cx != null) {
+            cx = null;
+            scope = null;
+            Context.exit();
+        }
+    }
+
+    private void use(String key, String secret) {
+        used.put(FailureCache.credentialKey(key, secret), new String[] {key, secret});
+    }
+
+    /**
+     * @return このフィクスチャの認証情報を設定し、キャッシュを有効にしたインスタンス
+     */
+    Ext_AWSSecurityTokenService service() {
+        return service(accessKeyId, secretAccessKey);
+    }
+
+    /**
+     * 指定の認証情報を設定し、キャッシュを有効にしたインスタンスを作成する. 認証情報は終了時の削除の対象とする.
+     * @param key AWS認証情報(key)
+     * @param secret AWS認証情報(secret)
+     * @return インスタンス
+     */
+    Ext_AWSSecurityTokenService service(String key, String secret) {
+        use(key, secret);
+        Ext_AWSSecurityTokenService stsService = new Ext_AWSSecurityTokenService();
+        stsService.jsSet_AccessKeyId(key);
+        stsService.jsSet_SecretAccessKey(secret);
+        stsService.jsSet_UseTokenCache(true);
+        if (scope != null) {
+            stsService.setParentScope(scope);
+        }
+        return stsService;
+    }
+
+    /**
+     * @return テストのスコープ. withScriptContext()を指定しない場合はnull
+     */
+    Scriptable scope() {
+        return scope;
+    }
+
+    /**
+     * テストのスコープでスクリプトを評価する.
+     * @param script スクリプト
+     * @return 評価結果
+     */
+    Object eval(String script) {
+        return cx.evaluateString(scope, script, "test", 1, null);
+    }
+
+    /**
+     * このフィクスチャの認証情報で発行したSessionTokenとしてキャッシュする.
+     * @param token 認証情報
+     */
+    void cacheSessionToken(CachedToken token) {
+        TokenCacheBackends.getInstance().put(
+                TokenCache.sessionTokenKey(accessKeyId, secretAccessKey, StsEndpoint.GLOBAL, null), token, null);
+    }
+
+    /**
+     * このフィクスチャの認証情報で発行したFederationTokenとしてキャッシュする.
+     * @param name 連携ユーザ名
+     * @param policy ポリシー
+     * @param durationSeconds 認証情報の有効期間（秒）. 省略時はnull
+     * @param token 認証情報
+     */
+    void cacheFederationToken(String name, NativeObject policy, Integer durationSeconds, CachedToken token) {
+        TokenCacheBackends.getInstance().put(TokenCache.federationTokenKey(accessKeyId, secretAccessKey,
+                StsEndpoint.GLOBAL, name, Ext_AWSSecurityTokenService.serializePolicy(policy), durationSeconds),
+                token, null);
+    }
+
+    /**
+     * このフィクスチャの認証情報で発行したFederationTokenとしてキャッシュする.
+     * @param name 連携ユーザ名
+     * @param policy 正規化したポリシー
+     * @param durationSeconds 認証情報の有効期間（秒）. 省略時はnull
+     * @param token 認証情報
+     */
+    void cacheFederationToken(String name, CanonicalPolicy policy, Integer durationSeconds, CachedToken token) {
+        TokenCacheBackends.getInstance().put(TokenCache.federationTokenKey(accessKeyId, secretAccessKey,
+                StsEndpoint.GLOBAL, name, policy, durationSeconds), token, null);
+    }
+
+    /**
+     * @param expiration 有効期限(ミリ秒)
+     * @return 指定の有効期限を持つ一時認証情報
+     */
+    static Credentials credentials(long expiration) {
+        return new Credentials("ASIAEXAMPLE", "temporarySecret", "sessionToken", new Date(expiration));
+    }
+
+    /**
+     * @param expiration 有効期限(ミリ秒)
+     * @return 有効期限の1時間前に発行したSessionToken
+     */
+    static CachedToken sessionToken(long expiration) {
+        return new CachedToken(credentials(expiration), expiration - HOUR);
+    }
+
+    /**
+     * @param expiration 有効期限(ミリ秒)
+     * @param user 連携ユーザ
+     * @param packedPolicySize PackedPolicySize
+     * @return 有効期限の1時間前に発行したFederationToken
+     */
+    static CachedToken federationToken(long expiration, FederatedUser user, int packedPolicySize) {
+        return new CachedToken(credentials(expiration), user, packedPolicySize, expiration - HOUR);
+    }
+}
@@ -0,0 +1,86 @@
+/**
+ * Personium
+ * Copyright 2016 FUJITSU LIMITED
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.personium.engine.extension.aws.sts;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+import org.junit.Rule;
+import org.junit.Test;
+
+/**
+ * TokenInvalidationTest.
+ * <br />
+ * スクリプトからのキャッシュの削除が、呼び出した認証情報のエントリのみに適用されることを検証する。
+ */
+public class TokenInvalidationTest {
+
+    private static final String ACCESS_KEY_ID = "AKIAINVALIDATETEST";
+    private static final String OTHER_ACCESS_KEY_ID = "AKIAINVALIDATEOTHER";
+    private static final String SECRET = "secret";
+    private static final String OTHER_SECRET = "otherSecret";
+    private static final String POLICY = "{}";
+    private static final long HOUR = TokenFixture.HOUR;
+
+    /** キャッシュ. */
+    @Rule
+    public TokenFixture fixture = new TokenFixture(ACCESS_KEY_ID, SECRET)
+            .withCredential(ACCESS_KEY_ID, OTHER_SECRET)
+            .withCredential(OTHER_ACCESS_KEY_ID, SECRET);
+
+    private static String cache(String accessKeyId, String secret, String name) {
+        long expiration = System.currentTimeMillis() + HOUR;
+        String key = TokenCache.federationTokenKey(accessKeyId, secret, StsEndpoint.GLOBAL, name, POLICY, null);
+        TokenCacheBackends.getInstance().put(key, TokenFixture.sessionToken(expiration), null);
+        return key;
+    }
+
+    private static boolean cached(String key) {
+        return TokenCacheBackends.getInstance().get(key, System.currentTimeMillis(), 0) != null;
+    }
+
+    /**
+     * 全件の削除は呼び出した認証情報のエントリのみ削除すること.
+     */
+    @Test
+    public void 全件の削除は呼び出した認証情報のエントリのみ削除すること() {
+        String own = cache(ACCESS_KEY_ID, SECRET, "user");
+        String otherSecret = cache(ACCESS_KEY_ID, OTHER_SECRET, "user");
+        String otherAccessKey = cache(OTHER_ACCESS_KEY_ID, SECRET, "user");
+
+        assertThat(fixture.service().invalidateTokenCache()).isEqualTo(1);
+
+        assertThat(cached(own)).isFalse();
+        assertThat(cached(otherSecret)).isTrue();
+        assertThat(cached(otherAccessKey)).isTrue();
+    }
+
+    /**
+     * 連携ユーザ名による削除は呼び出した認証情報のエントリのみ削除すること.
+     */
+    @Test
+    public void 連携ユーザ名による削除は呼び出した認証情報のエントリのみ削除すること() {
+        String own = cache(ACCESS_KEY_ID, SECRET, "user");
+        String ownOtherName = cache(ACCESS_KEY_ID, SECRET, "other");
+        String otherAccessKey = cache(OTHER_ACCESS_KEY_ID, SECRET, "user");
+
+        assertThat(fixture.service().invalidateTokensByName("user")).isEqualTo(1);
+
+        assertThat(cached(own)).isFalse();
+        assertThat(cached(ownOtherName)).isTrue();
+        assertThat(cached(otherAccessKey)).isTrue();
+    }
+}
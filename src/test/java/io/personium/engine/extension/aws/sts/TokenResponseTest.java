@@ -0,0 +1,192 @@
+/**
+ * Personium
+ * Copyright 2016 FUJITSU LIMITED
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.personium.engine.extension.aws.sts;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.mozilla.javascript.Context;
+import org.mozilla.javascript.NativeObject;
+import org.mozilla.javascript.Scriptable;
+import org.mozilla.javascript.ScriptableObject;
+import org.mozilla.javascript.json.JsonParser;
+
+import com.amazonaws.services.securitytoken.model.FederatedUser;
+
+/**
+ * TokenResponseTest.
+ * <br />
+ * キャッシュ済みの認証情報を使用し、AWSへ接続せずにスクリプトへ返却するオブジェクトの形式を検証する。
+ */
+public class TokenResponseTest {
+
+    private static final String ACCESS_KEY_ID = "AKIARESPONSETEST";
+    private static final String SECRET = "secret";
+    private static final long HOUR = TokenFixture.HOUR;
+
+    /** キャッシュ. Contextへは各テストで必要な場合のみ入る. */
+    @Rule
+    public TokenFixture fixture = new TokenFixture(ACCESS_KEY_ID, SECRET);
+
+    /**
+     * SessionTokenのレスポンスの形式が正しいこと.
+     */
+    @Test
+    public void SessionTokenのレスポンスの形式が正しいこと() {
+        long expiration = System.currentTimeMillis() + HOUR;
+        fixture.cacheSessionToken(TokenFixture.sessionToken(expiration));
+
+        NativeObject res = fixture.service().getSessionToken();
+
+        NativeObject credentials = (NativeObject) res.get("Credentials");
+        assertThat(credentials.get("AccessKeyId")).isEqualTo("ASIAEXAMPLE");
+        assertThat(credentials.get("SecretAccessKey")).isEqualTo("temporarySecret");
+        assertThat(credentials.get("SessionToken")).isEqualTo("sessionToken");
+        assertThat(credentials.get("Expiration")).isEqualTo(Double.valueOf(expiration));
+        assertThat(res.get("FederatedUser")).isNull();
+    }
+
+    /**
+     * FederationTokenのレスポンスの形式が正しいこと.
+     * @throws Exception 実行中エラー
+     */
+    @Test
+    public void FederationTokenのレスポンスの形式が正しいこと() throws Exception {
+        NativeObject policy;
+        Context cx = Context.enter();
+        try {
+            JsonParser p = new JsonParser(cx, cx.initStandardObjects());
+            policy = (NativeObject) p.parseValue(
+                    "{\"Statement\": [{\"Effect\": \"Allow\",\"Action\": \"sqs:*\",\"Resource\": \"*\"}]}");
+        } finally {
+            Context.exit();
+        }
+        long expiration = System.currentTimeMillis() + HOUR;
+        FederatedUser user = new FederatedUser("123456789012:user", "arn:aws:sts::123456789012:federated-user/user");
+        fixture.cacheFederationToken("user", policy, null, TokenFixture.federationToken(expiration, user, 7));
+
+        NativeObject res = fixture.service().getFederationToken("user", policy);
+
+        NativeObject credentials = (NativeObject) res.get("Credentials");
+        assertThat(credentials.get("AccessKeyId")).isEqualTo("ASIAEXAMPLE");
+        assertThat(credentials.get("Expiration")).isEqualTo(Double.valueOf(expiration));
+        NativeObject federatedUser = (NativeObject) res.get("FederatedUser");
+        assertThat(federatedUser.get("Arn")).isEqualTo("arn:aws:sts::123456789012:federated-user/user");
+        assertThat(federatedUser.get("FederatedUserId")).isEqualTo("123456789012:user");
+        assertThat(res.get("PackedPolicySize")).isEqualTo(Integer.valueOf(7));
+        // スクリプトからObjectとして扱えること
+        assertThat(res.getPrototype()).isNotNull();
+    }
+
+    /**
+     * 呼び出し元スクリプトのスコープにレスポンスが作成されること.
+     * @throws Exception 実行中エラー
+     */
+    @Test
+    public void 呼び出し元スクリプトのスコープにレスポンスが作成されること() throws Exception {
+        long expiration = System.currentTimeMillis() + HOUR;
+        fixture.cacheSessionToken(TokenFixture.sessionToken(expiration));
+        Scriptable scope;
+        Context cx = Context.enter();
+        try {
+            scope = cx.initStandardObjects();
+        } finally {
+            Context.exit();
+        }
+        final Ext_AWSSecurityTokenService stsService = fixture.service();
+        stsService.setParentScope(scope);
+
+        // Contextに入っていないスレッドから呼び出し、呼び出し後もContextに入ったままにならないことを確認する
+        final AtomicReference<NativeObject> result = new AtomicReference<>();
+        final AtomicReference<Context> context = new AtomicReference<>();
+        Thread thread = new Thread(() -> {
+            result.set(stsService.getSessionToken());
+            context.set(Context.getCurrentContext());
+        });
+        thread.start();
+        thread.join();
+        NativeObject res = result.get();
+
+        assertThat(res.getPrototype()).isSameAs(ScriptableObject.getObjectPrototype(scope));
+        assertThat(res.getParentScope()).isSameAs(scope);
+        assertThat(((NativeObject) res.get("Credentials")).getParentScope()).isSameAs(scope);
+        assertThat(context.get()).isNull();
+    }
+
+    /**
+     * 参照時に作成するレスポンスが通常のレスポンスと同じ内容であること.
+     * @throws Exception 実行中エラー
+     */
+    @Test
+    public void 参照時に作成するレスポンスが通常のレスポンスと同じ内容であること() throws Exception {
+        long expiration = System.currentTimeMillis() + HOUR;
+        FederatedUser user = new FederatedUser("123456789012:user", "arn:aws:sts::123456789012:federated-user/user");
+        Context cx = Context.enter();
+        try {
+            Scriptable scope = cx.initStandardObjects();
+            NativeObject policy = (NativeObject) new JsonParser(cx, scope).parseValue("{\"Statement\": []}");
+            fixture.cacheFederationToken("user", policy, null, TokenFixture.federationToken(expiration, user, 7));
+
+            Ext_AWSSecurityTokenService eagerService = fixture.service();
+            eagerService.setParentScope(scope);
+            Ext_AWSSecurityTokenService lazyService = fixture.service();
+            lazyService.setParentScope(scope);
+            lazyService.jsSet_LazyResponse(true);
+            NativeObject eager = eagerService.getFederationToken("user", policy);
+            NativeObject lazy = lazyService.getFederationToken("user", policy);
+            assertThat((Object) lazy).isInstanceOf(LazyResponseObject.class);
+
+            String script = "JSON.stringify(res) + '|' + Object.keys(res.Credentials).join(',') + '|'"
+                    + " + typeof res.Credentials.Expiration + '|' + res.FederatedUser.Arn";
+            assertThat(evaluate(cx, scope, lazy, script)).isEqualTo(evaluate(cx, scope, eager, script));
+            assertThat(((NativeObject) lazy.get("Credentials")).get("Expiration"))
+                    .isEqualTo(Double.valueOf(expiration));
+            assertThat(lazy.get("PackedPolicySize")).isEqualTo(Integer.valueOf(7));
+        } finally {
+            Context.exit();
+        }
+    }
+
+    /**
+     * 参照時に作成するレスポンスの値が参照するまで作成されないこと.
+     */
+    @Test
+    public void 参照時に作成するレスポンスの値が参照するまで作成されないこと() {
+        long expiration = System.currentTimeMillis() + HOUR;
+        fixture.cacheSessionToken(TokenFixture.sessionToken(expiration));
+        Ext_AWSSecurityTokenService stsService = fixture.service();
+        stsService.jsSet_LazyResponse(true);
+
+        NativeObject res = stsService.getSessionToken();
+
+        assertThat(res.has("Credentials", res)).isTrue();
+        Object credentials = res.get("Credentials");
+        assertThat(res.get("Credentials")).isSameAs(credentials);
+        assertThat(((NativeObject) credentials).get("SessionToken")).isEqualTo("sessionToken");
+    }
+
+    private static Object evaluate(Context cx, Scriptable scope, NativeObject res, String script) {
+        Scriptable local = cx.newObject(scope);
+        local.setPrototype(scope);
+        local.setParentScope(null);
+        local.put("res", local, res);
+        return cx.evaluateString(local, script, "test", 1, null);
+    }
+}